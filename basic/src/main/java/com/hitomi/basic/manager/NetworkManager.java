@@ -6,15 +6,17 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
-import android.net.wifi.WifiManager;
-import android.os.Parcelable;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.WorkerThread;
 
 import com.elvishew.xlog.Logger;
 import com.elvishew.xlog.XLog;
+import com.hitomi.basic.net.adaptive.AdaptivePolicy;
+import com.hitomi.basic.net.adaptive.NetworkClass;
 
-import java.io.BufferedReader;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
 
 /**
  * APP 网络管理
@@ -27,65 +29,82 @@ public class NetworkManager {
     private static final int STATUS_WIFI_AVAILABLE = 100;
     private static final int STATUS_MOBILENET_AVAILABLE = 101;
 
+    /**
+     * 网络切换过程中的多次广播在该时间内合并为一次
+     */
+    private static final long DEBOUNCE_MILLIS = 300;
+
     private Logger log = XLog.tag("NetworkManager").build();
 
     private Context mContext;
     private ConnectivityManager connManager;
     private OnNetworkStatusChangeListener networkListener;
     private NetWorkChangeReceiver netWorkChangeReceiver;
+    private volatile ReachabilityProber reachabilityProber = new ReachabilityProber.Builder().create();
 
     private int lastConnType;
 
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final CopyOnWriteArrayList<OnNetworkStateListener> stateListeners = new CopyOnWriteArrayList<>();
+    private volatile NetworkState currentState = NetworkState.NONE;
+
+    /**
+     * WIFI_STATE、NETWORK_STATE、CONNECTIVITY 三种广播在一次网络切换中可能先后到达多次,
+     * 这里只负责触发防抖, 真正的状态在防抖结束后从 ConnectivityManager 重新读取
+     */
     private class NetWorkChangeReceiver extends BroadcastReceiver {
 
         @Override
         public void onReceive(Context context, Intent intent) {
-            int connType;
-            // 监听wifi的打开与关闭，与wifi的连接无关
-            // [用来确定 wifi 关闭]
-            if (WifiManager.WIFI_STATE_CHANGED_ACTION.equals(intent.getAction())) {
-                int wifiState = intent.getIntExtra(WifiManager.EXTRA_WIFI_STATE, 0);
-                if (wifiState == WifiManager.WIFI_STATE_DISABLED) { // 关闭wifi
-                    connType = STATUS_NETWORK_UNAVAILABLE;
-                    callback(connType);
-                }
-            }
+            mainHandler.removeCallbacks(dispatchTask);
+            mainHandler.postDelayed(dispatchTask, DEBOUNCE_MILLIS);
+        }
+    }
 
-            // 这个监听wifi的连接状态即是否连上了一个有效无线路由，当上边广播的状态是WifiManager
-            // .WIFI_STATE_DISABLING，和WIFI_STATE_DISABLED的时候，根本不会接到这个广播。
-            // 在上边广播接到广播是WifiManager.WIFI_STATE_ENABLED状态的同时也会接到这个广播，
-            // 当然刚打开wifi肯定还没有连接到有效的无线
-            // [用来确定 wifi 可用]
-            else if (WifiManager.NETWORK_STATE_CHANGED_ACTION.equals(intent.getAction())) {
-                Parcelable parcelableExtra = intent.getParcelableExtra(WifiManager.EXTRA_NETWORK_INFO);
-                if (null != parcelableExtra) {
-                    NetworkInfo networkInfo = (NetworkInfo) parcelableExtra;
-                    NetworkInfo.State state = networkInfo.getState();
-                    if (state == NetworkInfo.State.CONNECTED) {// 更精确的确定状态
-                        connType = STATUS_WIFI_AVAILABLE;
-                        callback(connType);
-                    }
-                }
-            }
+    private final Runnable dispatchTask = new Runnable() {
+        @Override
+        public void run() {
+            dispatch();
+        }
+    };
 
-            // [用来确定移动网络可用]
-            if (ConnectivityManager.CONNECTIVITY_ACTION.equals(intent.getAction())) {
-                NetworkInfo activeNetwork = connManager.getActiveNetworkInfo();
-                if (activeNetwork != null) {
-                    if (activeNetwork.isConnected()) {
-                        if (activeNetwork.getType() == ConnectivityManager.TYPE_MOBILE) {
-                            connType = STATUS_MOBILENET_AVAILABLE;
-                            callback(connType);
-                        }
-                    } else {
-                        connType = STATUS_NETWORK_UNAVAILABLE;
-                        callback(connType);
-                    }
-                } else {
-                    connType = STATUS_NETWORK_UNAVAILABLE;
-                    callback(connType);
-                }
-            }
+    private void dispatch() {
+        NetworkState state = NetworkState.read(connManager);
+        switch (state.getType()) {
+            case WIFI:
+                callback(STATUS_WIFI_AVAILABLE);
+                break;
+            case MOBILE:
+                callback(STATUS_MOBILENET_AVAILABLE);
+                break;
+            case NONE:
+                callback(STATUS_NETWORK_UNAVAILABLE);
+                break;
+        }
+
+        if (state.equals(currentState)) return;
+        currentState = state;
+        reachabilityProber.invalidate();
+        AdaptivePolicy.getInstance().onNetworkChanged(priorNetworkClass(state), state.isMetered());
+        log.d("网络状态变化 : " + state);
+        for (OnNetworkStateListener listener : stateListeners) {
+            listener.onNetworkStateChanged(state);
+        }
+    }
+
+    /**
+     * 按照网络类型估计的网络等级, 在实测吞吐量样本足够之前使用
+     */
+    private static NetworkClass priorNetworkClass(NetworkState state) {
+        switch (state.getBandwidthClass()) {
+            case HIGH:
+                return NetworkClass.GOOD;
+            case MEDIUM:
+                return NetworkClass.MODERATE;
+            case LOW:
+                return NetworkClass.POOR;
+            default:
+                return state.isConnected() ? NetworkClass.MODERATE : NetworkClass.POOR;
         }
     }
 
@@ -132,9 +151,37 @@ public class NetworkManager {
         mContext = context;
         connManager = (ConnectivityManager) mContext
                 .getSystemService(Context.CONNECTIVITY_SERVICE);
+        currentState = NetworkState.read(connManager);
+        AdaptivePolicy.getInstance().onNetworkChanged(priorNetworkClass(currentState), currentState.isMetered());
         registerNetworkReceiver();
     }
 
+    /**
+     * 添加网络状态监听, 添加后会立即 (在主线程) 收到一次当前状态, 之后每次状态变化都在主线程回调
+     */
+    public void addNetworkStateListener(final OnNetworkStateListener listener) {
+        if (listener == null || !stateListeners.addIfAbsent(listener)) return;
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (stateListeners.contains(listener)) {
+                    listener.onNetworkStateChanged(currentState);
+                }
+            }
+        });
+    }
+
+    public void removeNetworkStateListener(OnNetworkStateListener listener) {
+        stateListeners.remove(listener);
+    }
+
+    /**
+     * @return 最近一次 (防抖后) 的网络状态, 未调用 {@link #init(Context)} 时为 {@link NetworkState#NONE}
+     */
+    public NetworkState getNetworkState() {
+        return currentState;
+    }
+
     public void setNetworkChangeListener(OnNetworkStatusChangeListener listener) {
         networkListener = listener;
     }
@@ -180,31 +227,39 @@ public class NetworkManager {
         return false;
     }
 
+    public void setReachabilityProber(ReachabilityProber prober) {
+        reachabilityProber = prober;
+    }
+
+    public ReachabilityProber getReachabilityProber() {
+        return reachabilityProber;
+    }
+
     /**
-     * 是否能与外网通信，有网络连接不代表一定能访问外网，此方法可以甄别
+     * 是否能与外网通信，有网络连接不代表一定能访问外网，此方法可以甄别 <br/>
+     * 缓存的探测结果过期时会阻塞到探测完成 (默认最多 3 秒), 不要在主线程调用,
+     * 主线程请使用 {@link #isNetCommunication(ReachabilityProber.Callback)}
      * @return true : yes
      */
+    @WorkerThread
     public boolean isNetCommunication() {
-        try {
-            String ip = "www.baidu.com";// ping 地址
-            Process p = Runtime.getRuntime().exec("ping -c 3 -w 100 " + ip);// ping网址3次
-            // 读取ping的内容，可以不加
-            InputStream input = p.getInputStream();
-            BufferedReader in = new BufferedReader(new InputStreamReader(input));
-            StringBuffer stringBuffer = new StringBuffer();
-            String content = "";
-            while ((content = in.readLine()) != null) {
-                stringBuffer.append(content);
-            }
-            // ping的状态
-            int status = p.waitFor();
-            if (status == 0) {
-                return true;
-            } else {
-            }
-        } catch (Exception e) {
-        }
-        return false;
+        return isNetworkConnected() && reachabilityProber.isReachable();
+    }
+
+    /**
+     * 异步判断是否能与外网通信
+     * @param callback 在探测线程中回调
+     */
+    public Future<Boolean> isNetCommunication(ReachabilityProber.Callback callback) {
+        return reachabilityProber.probe(callback);
+    }
+
+    public interface OnNetworkStateListener {
+
+        /**
+         * 网络状态发生变化, 在主线程回调
+         */
+        void onNetworkStateChanged(NetworkState state);
 
     }
 
@@ -0,0 +1,135 @@
+package com.hitomi.basic.manager;
+
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Build;
+import android.telephony.TelephonyManager;
+
+/**
+ * 某一时刻的网络状态：连接类型、是否按流量计费以及粗略的带宽等级
+ */
+public class NetworkState {
+
+    public enum Type {
+        NONE, WIFI, MOBILE, OTHER
+    }
+
+    public enum BandwidthClass {
+        /**
+         * 无网络或者无法判断
+         */
+        UNKNOWN,
+        /**
+         * 2G
+         */
+        LOW,
+        /**
+         * 3G
+         */
+        MEDIUM,
+        /**
+         * 4G、WiFi、以太网
+         */
+        HIGH
+    }
+
+    public static final NetworkState NONE = new NetworkState(Type.NONE, false, BandwidthClass.UNKNOWN);
+
+    private final Type type;
+    private final boolean metered;
+    private final BandwidthClass bandwidthClass;
+
+    public NetworkState(Type type, boolean metered, BandwidthClass bandwidthClass) {
+        this.type = type;
+        this.metered = metered;
+        this.bandwidthClass = bandwidthClass;
+    }
+
+    static NetworkState read(ConnectivityManager connManager) {
+        NetworkInfo info = connManager.getActiveNetworkInfo();
+        if (info == null || !info.isConnected()) return NONE;
+
+        Type type;
+        BandwidthClass bandwidthClass;
+        switch (info.getType()) {
+            case ConnectivityManager.TYPE_WIFI:
+                type = Type.WIFI;
+                bandwidthClass = BandwidthClass.HIGH;
+                break;
+            case ConnectivityManager.TYPE_MOBILE:
+                type = Type.MOBILE;
+                bandwidthClass = mobileBandwidth(info.getSubtype());
+                break;
+            default:
+                type = Type.OTHER;
+                bandwidthClass = info.getType() == ConnectivityManager.TYPE_ETHERNET
+                        ? BandwidthClass.HIGH : BandwidthClass.UNKNOWN;
+                break;
+        }
+        boolean metered = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                ? connManager.isActiveNetworkMetered() : type == Type.MOBILE;
+        return new NetworkState(type, metered, bandwidthClass);
+    }
+
+    private static BandwidthClass mobileBandwidth(int subtype) {
+        switch (subtype) {
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_1xRTT:
+            case TelephonyManager.NETWORK_TYPE_IDEN:
+                return BandwidthClass.LOW;
+            case TelephonyManager.NETWORK_TYPE_UMTS:
+            case TelephonyManager.NETWORK_TYPE_EVDO_0:
+            case TelephonyManager.NETWORK_TYPE_EVDO_A:
+            case TelephonyManager.NETWORK_TYPE_EVDO_B:
+            case TelephonyManager.NETWORK_TYPE_HSDPA:
+            case TelephonyManager.NETWORK_TYPE_HSUPA:
+            case TelephonyManager.NETWORK_TYPE_HSPA:
+            case TelephonyManager.NETWORK_TYPE_EHRPD:
+            case TelephonyManager.NETWORK_TYPE_HSPAP:
+                return BandwidthClass.MEDIUM;
+            case TelephonyManager.NETWORK_TYPE_LTE:
+                return BandwidthClass.HIGH;
+            default:
+                return BandwidthClass.UNKNOWN;
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public boolean isConnected() {
+        return type != Type.NONE;
+    }
+
+    /**
+     * 是否按流量计费, 计费网络下应当减少预加载等非必要的流量
+     */
+    public boolean isMetered() {
+        return metered;
+    }
+
+    public BandwidthClass getBandwidthClass() {
+        return bandwidthClass;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof NetworkState)) return false;
+        NetworkState that = (NetworkState) o;
+        return type == that.type && metered == that.metered && bandwidthClass == that.bandwidthClass;
+    }
+
+    @Override
+    public int hashCode() {
+        return (type.hashCode() * 31 + (metered ? 1 : 0)) * 31 + bandwidthClass.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "NetworkState{" + type + ", metered=" + metered + ", bandwidth=" + bandwidthClass + "}";
+    }
+}
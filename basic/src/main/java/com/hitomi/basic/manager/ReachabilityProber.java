@@ -0,0 +1,279 @@
+package com.hitomi.basic.manager;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 外网连通性探测 <br/>
+ * 支持两种探测方式：TCP 连接指定的 host:port, 或者请求一个返回 204 的 url (被劫持到认证页面时不会返回 204) <br/>
+ * 探测结果在 ttl 内有效, 同一时间的多次探测合并为一次
+ */
+public class ReachabilityProber {
+
+    private final String host;
+    private final int port;
+    private final String url;
+    private final int timeout;
+    private final long ttl;
+
+    /**
+     * 网络切换后旧的探测可能还阻塞在连接上, 新的探测以及域名解析需要使用其他线程, 空闲线程会自动回收
+     */
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Reachability Prober");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private boolean lastResult;
+    private long lastProbeAt = -1;
+    private int generation;
+    private ProbeTask pending;
+
+    public interface Callback {
+        /**
+         * 在探测线程中回调, 命中缓存时在调用线程中回调
+         */
+        void onResult(boolean reachable);
+    }
+
+    private class ProbeTask extends FutureTask<Boolean> {
+        final int generation;
+        final List<Callback> callbacks = new ArrayList<>();
+
+        ProbeTask(int generation) {
+            super(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return doProbe();
+                }
+            });
+            this.generation = generation;
+        }
+
+        @Override
+        protected void done() {
+            boolean reachable;
+            try {
+                reachable = get();
+            } catch (InterruptedException | ExecutionException | CancellationException e) {
+                reachable = false;
+            }
+            List<Callback> toNotify;
+            synchronized (ReachabilityProber.this) {
+                if (generation == ReachabilityProber.this.generation) {
+                    lastResult = reachable;
+                    lastProbeAt = System.currentTimeMillis();
+                }
+                if (pending == this) {
+                    pending = null;
+                }
+                toNotify = new ArrayList<>(callbacks);
+            }
+            for (Callback callback : toNotify) {
+                callback.onResult(reachable);
+            }
+        }
+    }
+
+    private ReachabilityProber(Builder builder) {
+        host = builder.host;
+        port = builder.port;
+        url = builder.url;
+        timeout = builder.timeout;
+        ttl = builder.ttl;
+    }
+
+    /**
+     * 异步探测, 缓存有效时直接返回缓存的结果, 已有探测正在进行时共用其结果
+     *
+     * @param callback 可以为 null
+     */
+    public Future<Boolean> probe(Callback callback) {
+        FutureTask<Boolean> cached = null;
+        ProbeTask task;
+        boolean start = false;
+        synchronized (this) {
+            if (lastProbeAt >= 0 && System.currentTimeMillis() - lastProbeAt < ttl) {
+                final boolean result = lastResult;
+                cached = new FutureTask<>(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        return result;
+                    }
+                });
+                task = null;
+            } else {
+                if (pending == null) {
+                    pending = new ProbeTask(generation);
+                    start = true;
+                }
+                task = pending;
+                if (callback != null) {
+                    task.callbacks.add(callback);
+                }
+            }
+        }
+        if (cached != null) {
+            cached.run();
+            if (callback != null) {
+                callback.onResult(lastResultOf(cached));
+            }
+            return cached;
+        }
+        if (start) {
+            executor.execute(task);
+        }
+        return task;
+    }
+
+    public Future<Boolean> probe() {
+        return probe(null);
+    }
+
+    /**
+     * 同步探测, 最多阻塞 timeout 毫秒 (TCP 探测) 或 2 * timeout 毫秒 (HTTP 探测), 不要在主线程调用
+     */
+    public boolean isReachable() {
+        return lastResultOf(probe());
+    }
+
+    /**
+     * 使缓存的结果失效, 网络切换时调用 <br/>
+     * 正在进行的探测属于旧的网络, 它的结果只回调给已经在等待的调用方, 之后的调用会发起新的探测
+     */
+    public synchronized void invalidate() {
+        generation++;
+        lastProbeAt = -1;
+        pending = null;
+    }
+
+    private static boolean lastResultOf(Future<Boolean> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            return false;
+        }
+    }
+
+    private boolean doProbe() {
+        return url != null ? probeHttp() : probeTcp();
+    }
+
+    /**
+     * 域名解析本身没有超时, 放到另一个线程中执行, 解析与连接的总耗时不超过 timeout
+     */
+    private boolean probeTcp() {
+        long deadline = System.currentTimeMillis() + timeout;
+        Future<InetAddress> resolve = executor.submit(new Callable<InetAddress>() {
+            @Override
+            public InetAddress call() throws Exception {
+                return InetAddress.getByName(host);
+            }
+        });
+        InetAddress address;
+        try {
+            address = resolve.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            resolve.cancel(true);
+            return false;
+        }
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+            return false;
+        }
+
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(address, port), (int) remaining);
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private boolean probeHttp() {
+        HttpURLConnection conn = null;
+        try {
+            conn = (HttpURLConnection) new URL(url).openConnection();
+            conn.setConnectTimeout(timeout);
+            conn.setReadTimeout(timeout);
+            conn.setInstanceFollowRedirects(false);
+            conn.setUseCaches(false);
+            return conn.getResponseCode() == HttpURLConnection.HTTP_NO_CONTENT;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+    }
+
+    public static class Builder {
+        private String host = "www.baidu.com";
+        private int port = 80;
+        private String url;
+        private int timeout = 3000;
+        private long ttl = 10_000;
+
+        /**
+         * 使用 TCP 连接探测, 默认 www.baidu.com:80
+         */
+        public Builder tcp(String host, int port) {
+            this.host = host;
+            this.port = port;
+            this.url = null;
+            return this;
+        }
+
+        /**
+         * 使用 HTTP 探测, 只有返回 204 时才认为可以访问外网
+         */
+        public Builder http(String url) {
+            this.url = url;
+            return this;
+        }
+
+        public Builder timeout(int timeoutMillis) {
+            this.timeout = timeoutMillis;
+            return this;
+        }
+
+        /**
+         * 探测结果的有效时间
+         */
+        public Builder ttl(long ttlMillis) {
+            this.ttl = ttlMillis;
+            return this;
+        }
+
+        public ReachabilityProber create() {
+            return new ReachabilityProber(this);
+        }
+    }
+}
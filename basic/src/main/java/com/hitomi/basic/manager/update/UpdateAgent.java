@@ -17,12 +17,18 @@ import android.text.method.ScrollingMovementMethod;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.hitomi.basic.manager.update.parser.BinaryInfoParser;
+import com.hitomi.basic.manager.update.parser.JsonInfoParser;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
 import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 
 public class UpdateAgent {
 
@@ -30,6 +36,11 @@ public class UpdateAgent {
     private static final String PREFS_IGNORE = "hitomi.update.prefs.ignore";
     private static final String PREFS_UPDATE = "hitomi.update.prefs.update";
     private static final String APK_DIR_NAME = "apk";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * 自动检查更新的默认最小间隔
+     */
+    public static final long DEFAULT_CHECK_INTERVAL = 30 * 60 * 1000;
 
     private Context mContext;
     private String mUrl;
@@ -38,16 +49,41 @@ public class UpdateAgent {
     private File mParentDir;
     private boolean mIsManual = false;
     private boolean mIsWifiOnly = false;
+    private long mCheckInterval = DEFAULT_CHECK_INTERVAL;
 
     private UpdateInfo mInfo;
     private UpdateError mError;
 
+    /**
+     * 内置的解析器, 按照响应的 Content-Type 选择, 无法识别时使用 XML
+     */
+    private static final Map<String, InfoParser> BUILTIN_PARSERS = new HashMap<>();
+    private static final InfoParser XML_PARSER = new DefaultParser();
+
+    static {
+        InfoParser json = new JsonInfoParser();
+        BUILTIN_PARSERS.put("text/xml", XML_PARSER);
+        BUILTIN_PARSERS.put("application/xml", XML_PARSER);
+        BUILTIN_PARSERS.put("application/json", json);
+        BUILTIN_PARSERS.put("text/json", json);
+        BUILTIN_PARSERS.put(BinaryInfoParser.CONTENT_TYPE, new BinaryInfoParser());
+    }
+
+    // setInfoParser 设定的解析器, 处理所有没有通过 registerParser 注册的类型
     private InfoParser mParser;
+    private final Map<String, InfoParser> mParsers = new HashMap<>();
 
     private OnFailureListener mOnFailureListener;
     private OnPromptListener mOnPromptListener;
     private OnProgressListener mOnProgressListener;
 
+    private UpdateDownloader mDownloader;
+    private int mLastProgress = -1;
+    /**
+     * 已经校验通过的文件 (路径、长度、修改时间以及 md5), 只保存在内存中, 避免同一个文件重复读取计算 md5
+     */
+    private String mVerified;
+
     public UpdateAgent(Context context, String url, boolean isManual, boolean isWifiOnly) {
         mContext = context;
         mUrl = url;
@@ -56,7 +92,6 @@ public class UpdateAgent {
         mOnPromptListener = new OnPrompt(context);
         mOnFailureListener = new OnFailure(context);
 
-        mParser = new DefaultParser();
         // 创建 apk 文件目录[该路径被 Android 系统认定为应用程序的缓存路径，当程序被卸载的时候，会一起被清除]
         mParentDir = getDiskCacheDir();
         if (!mParentDir.exists()) mParentDir.mkdirs();
@@ -70,6 +105,34 @@ public class UpdateAgent {
         return mInfo;
     }
 
+    Context getContext() {
+        return mContext;
+    }
+
+    /**
+     * 当前安装的 apk, 作为增量包的基准文件
+     */
+    File getBaseApk() {
+        return new File(mContext.getApplicationInfo().sourceDir);
+    }
+
+    boolean isManual() {
+        return mIsManual;
+    }
+
+    /**
+     * 距离上一次检查不足该间隔时, 自动检查直接使用上一次的检查结果, 不访问网络; 手动检查不受限制
+     *
+     * @param interval 毫秒, 0 表示每次都访问网络 (依旧使用条件请求)
+     */
+    public void setCheckInterval(long interval) {
+        mCheckInterval = Math.max(0, interval);
+    }
+
+    long getCheckInterval() {
+        return mCheckInterval;
+    }
+
     public void setError(UpdateError error) {
         mError = error;
     }
@@ -80,6 +143,35 @@ public class UpdateAgent {
         }
     }
 
+    /**
+     * 为指定的 Content-Type 注册解析器, 优先于 {@link #setInfoParser(InfoParser)} 以及内置的解析器
+     *
+     * @param contentType 例如 application/json, 不包含 charset 等参数
+     */
+    public void registerParser(String contentType, InfoParser parser) {
+        if (contentType != null && parser != null) {
+            mParsers.put(mediaType(contentType), parser);
+        }
+    }
+
+    private InfoParser getParser(String contentType) {
+        String type = contentType == null ? null : mediaType(contentType);
+        InfoParser parser = type == null ? null : mParsers.get(type);
+        if (parser != null) return parser;
+        if (mParser != null) return mParser;
+        parser = type == null ? null : BUILTIN_PARSERS.get(type);
+        return parser != null ? parser : XML_PARSER;
+    }
+
+    /**
+     * "application/json; charset=utf-8" -> "application/json"
+     */
+    private static String mediaType(String contentType) {
+        int semicolon = contentType.indexOf(';');
+        String type = semicolon >= 0 ? contentType.substring(0, semicolon) : contentType;
+        return type.trim().toLowerCase(Locale.US);
+    }
+
     public void check() {
         if (mIsWifiOnly) {
             if (checkWifi()) {
@@ -102,20 +194,44 @@ public class UpdateAgent {
         saveDeleteFile(file);
         File tempFile = new File(mParentDir, sp.getString(PREFS_UPDATE, ""));
         saveDeleteFile(tempFile);
+        deleteDownloadFiles(tempFile);
         sp.edit().clear().apply();
+        UpdateChecker.clear(mContext);
     }
 
     private void saveDeleteFile(File file) {
         if (file.exists()) {
             final File to = new File(file.getAbsolutePath() + System.currentTimeMillis());
-            file.renameTo(to);
-            to.delete();
+            if (file.renameTo(to)) {
+                to.delete();
+            } else {
+                file.delete();
+            }
         }
     }
 
+    /**
+     * 删除 {@link UpdateDownloader} 的分段临时文件、分段记录以及增量包
+     */
+    private void deleteDownloadFiles(File tempFile) {
+        saveDeleteFile(new File(tempFile.getPath() + ".tmp"));
+        saveDeleteFile(new File(tempFile.getPath() + ".cfg"));
+        saveDeleteFile(new File(tempFile.getPath() + ".patch"));
+        saveDeleteFile(new File(tempFile.getPath() + ".patch.tmp"));
+        saveDeleteFile(new File(tempFile.getPath() + ".patch.cfg"));
+        saveDeleteFile(new File(tempFile.getPath() + ".patched"));
+    }
+
     public void parse(InputStream inputStream) {
+        parse(inputStream, null);
+    }
+
+    /**
+     * @param contentType 响应的 Content-Type, 用于选择解析器, 未知时为 null
+     */
+    public void parse(InputStream inputStream, String contentType) {
         try {
-            mInfo = mParser.parse(inputStream);
+            mInfo = getParser(contentType).parse(inputStream);
         } catch (Exception e) {
             setError(new UpdateError(UpdateError.CHECK_PARSE));
         }
@@ -143,17 +259,26 @@ public class UpdateAgent {
         if (!apk.exists()) {
             return false;
         }
+        if (verifyKey(apk, md5).equals(mVerified)) {
+            return true;
+        }
         String _md5 = md5(apk);
         if (TextUtils.isEmpty(_md5)) {
             return false;
         }
         boolean result = _md5 != null && _md5.equalsIgnoreCase(md5);
-        if (!result) {
+        if (result) {
+            mVerified = verifyKey(apk, md5);
+        } else {
             apk.delete();
         }
         return result;
     }
 
+    private static String verifyKey(File file, String md5) {
+        return file.getPath() + "|" + file.length() + "|" + file.lastModified() + "|" + md5;
+    }
+
     /**
      * 获取文件的 md5 码
      * @param file
@@ -161,8 +286,8 @@ public class UpdateAgent {
      */
     public String md5(File file) {
         MessageDigest digest;
-        FileInputStream fis;
-        byte[] buffer = new byte[1024];
+        FileInputStream fis = null;
+        byte[] buffer = new byte[BUFFER_SIZE];
 
         try {
             if (!file.isFile()) {
@@ -172,18 +297,20 @@ public class UpdateAgent {
             digest = MessageDigest.getInstance("MD5");
             fis = new FileInputStream(file);
 
-            while (true) {
-                int len;
-                if ((len = fis.read(buffer, 0, 1024)) == -1) {
-                    fis.close();
-                    break;
-                }
-
+            int len;
+            while ((len = fis.read(buffer)) != -1) {
                 digest.update(buffer, 0, len);
             }
         } catch (Exception e) {
             e.printStackTrace();
             return null;
+        } finally {
+            if (fis != null) {
+                try {
+                    fis.close();
+                } catch (IOException ignored) {
+                }
+            }
         }
 
         BigInteger var5 = new BigInteger(1, digest.digest());
@@ -212,8 +339,9 @@ public class UpdateAgent {
             return;
         }
         File oldFile = new File(mParentDir, old);
-        if (oldFile.exists() && !TextUtils.isEmpty(old)) {
-            oldFile.delete();
+        if (!TextUtils.isEmpty(old)) {
+            if (oldFile.exists()) oldFile.delete();
+            deleteDownloadFiles(oldFile);
         }
         sp.edit().putString(PREFS_UPDATE, md5).apply();
         File file = new File(mParentDir, md5);
@@ -270,6 +398,7 @@ public class UpdateAgent {
     }
 
     public void downloadStart() {
+        mLastProgress = -1;
         mOnProgressListener.onStart();
     }
 
@@ -277,12 +406,41 @@ public class UpdateAgent {
         mOnProgressListener.onProgress(progress);
     }
 
+    /**
+     * {@link OnDetailProgressListener} 每次都会收到速度以及剩余时间, 普通的监听只在百分比变化时回调
+     */
+    public void downloadProgress(int progress, long loaded, long total, long speed, long eta) {
+        if (mOnProgressListener instanceof OnDetailProgressListener) {
+            ((OnDetailProgressListener) mOnProgressListener).onProgress(progress, loaded, total, speed, eta);
+        } else if (progress != mLastProgress) {
+            mOnProgressListener.onProgress(progress);
+        }
+        mLastProgress = progress;
+    }
+
+    /**
+     * 把下载完成的临时文件重命名为 apk, 重命名失败时下载视为失败, 不能把未经校验的文件标记为已校验
+     */
+    private boolean moveToApk() {
+        if (mApkFile.exists()) {
+            saveDeleteFile(mApkFile);
+        }
+        return mTmpFile.renameTo(mApkFile);
+    }
+
     public void downloadFinish() {
+        mDownloader = null;
         mOnProgressListener.onFinish();
+        if (mError == null && !moveToApk()) {
+            mError = new UpdateError(UpdateError.DOWNLOAD_DISK_IO);
+        }
         if (mError != null) {
             mOnFailureListener.onFailure(mError);
         } else {
-            mTmpFile.renameTo(mApkFile);
+            // 下载时已经增量校验过 md5, 安装前不需要再读一遍
+            if (!TextUtils.isEmpty(mInfo.getMd5())) {
+                mVerified = verifyKey(mApkFile, mInfo.getMd5());
+            }
             if (mInfo.isAutoInstall()) {
                 onInstall();
             }
@@ -319,7 +477,10 @@ public class UpdateAgent {
     }
 
     private void onDownload() {
-        new UpdateDownloader(this, mTmpFile).execute();
+        // 正在下载时重复点击不再重新下载
+        if (mDownloader != null) return;
+        mDownloader = new UpdateDownloader(this, mTmpFile);
+        mDownloader.execute();
     }
 
     private void onInstall() {
@@ -354,6 +515,19 @@ public class UpdateAgent {
         void onFinish();
     }
 
+    /**
+     * 除了百分比之外还需要下载速度以及剩余时间时实现该接口
+     */
+    public interface OnDetailProgressListener extends OnProgressListener {
+        /**
+         * @param bytesLoaded 已下载的字节数, 包含续传之前已下载的部分
+         * @param bytesTotal  文件总字节数
+         * @param speed       平滑后的下载速度, 字节/秒, 还没有足够的样本时为 0
+         * @param eta         预计剩余时间, 秒, 未知时为 -1
+         */
+        void onProgress(int progress, long bytesLoaded, long bytesTotal, long speed, long eta);
+    }
+
     public interface OnFailureListener {
         void onFailure(UpdateError error);
     }
@@ -366,7 +540,7 @@ public class UpdateAgent {
         UpdateInfo parse(InputStream is) throws Exception;
     }
 
-    private class DefaultParser implements InfoParser {
+    private static class DefaultParser implements InfoParser {
         @Override
         public UpdateInfo parse(InputStream source) throws Exception {
             return new UpdateInfo().parse(source);
@@ -398,7 +572,9 @@ public class UpdateAgent {
         @Override
         public void onPrompt(UpdateAgent agent) {
             final UpdateInfo info = agent.getUpdateInfo();
-            String size = Formatter.formatShortFileSize(mContext, info.getSize());
+            // 可以增量更新时显示增量包的大小
+            long bytes = info.isPatchApplicable(mContext) ? info.getPatch().getSize() : info.getSize();
+            String size = Formatter.formatShortFileSize(mContext, bytes);
             String content = String.format("最新版本：%1$s\n新版本大小：%2$s\n\n更新内容\n%3$s", info.getVersionName(), size, info.getUpdateContent());
 
             final AlertDialog dialog = new AlertDialog.Builder(mContext).create();
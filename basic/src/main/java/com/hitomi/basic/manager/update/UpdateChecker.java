@@ -1,41 +1,179 @@
 package com.hitomi.basic.manager.update;
 
-import android.os.AsyncTask;
+import android.content.Context;
+import android.content.SharedPreferences;
 
+import com.hitomi.basic.net.OkHttpUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.InputStream;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
 
-class UpdateChecker extends AsyncTask<Void, Integer, Void> {
+/**
+ * 使用 OkHttpUtils 的 client 检查更新 <br/>
+ * <ul>
+ * <li>上一次的响应体以及 ETag、Last-Modified、检查时间持久化在本地</li>
+ * <li>再次检查时带上 If-None-Match / If-Modified-Since, 服务端返回 304 时直接解析本地缓存的响应体</li>
+ * <li>自动检查距离上一次检查不足检查间隔时不访问网络, 直接使用本地缓存; 手动检查不受限制</li>
+ * </ul>
+ */
+class UpdateChecker {
+
+    private static final String PREFS = "hitomi.update.check";
+    private static final String PREFS_URL = "hitomi.update.check.url";
+    private static final String PREFS_ETAG = "hitomi.update.check.etag";
+    private static final String PREFS_LAST_MODIFIED = "hitomi.update.check.lastModified";
+    private static final String PREFS_CHECK_TIME = "hitomi.update.check.time";
+    private static final String PREFS_CONTENT_TYPE = "hitomi.update.check.contentType";
+    private static final String CACHE_NAME = "hitomi.update.check.cache";
 
     final UpdateAgent mAgent;
+    private final SharedPreferences mPrefs;
+    private final File mCache;
 
     public UpdateChecker(UpdateAgent agent) {
         mAgent = agent;
+        Context context = agent.getContext();
+        mPrefs = context.getSharedPreferences(PREFS, 0);
+        mCache = new File(context.getCacheDir(), CACHE_NAME);
     }
 
-    @Override
-    protected Void doInBackground(Void... params) {
-        HttpURLConnection connection = null;
+    /**
+     * 删除本地记录以及缓存的响应体, 下一次检查会重新下载
+     */
+    static void clear(Context context) {
+        context.getSharedPreferences(PREFS, 0).edit().clear().apply();
+        new File(context.getCacheDir(), CACHE_NAME).delete();
+    }
+
+    /**
+     * 主线程调用, 解析在后台线程, {@link UpdateAgent#checkFinish()} 在主线程回调
+     */
+    public void execute() {
+        final String url = mAgent.getUrl();
+        final boolean cached = url.equals(mPrefs.getString(PREFS_URL, null)) && mCache.isFile();
+        long elapsed = System.currentTimeMillis() - mPrefs.getLong(PREFS_CHECK_TIME, 0);
+
+        if (cached && !mAgent.isManual() && elapsed >= 0 && elapsed < mAgent.getCheckInterval()) {
+            OkHttpUtils.getInstance().getOkHttpClient().dispatcher().executorService().execute(new Runnable() {
+                @Override
+                public void run() {
+                    parseCache();
+                    finish();
+                }
+            });
+            return;
+        }
+
+        Request.Builder builder = new Request.Builder().url(url);
+        if (cached) {
+            String etag = mPrefs.getString(PREFS_ETAG, null);
+            String lastModified = mPrefs.getString(PREFS_LAST_MODIFIED, null);
+            if (etag != null) builder.header("If-None-Match", etag);
+            if (lastModified != null) builder.header("If-Modified-Since", lastModified);
+        }
+
+        Call call = OkHttpUtils.getInstance().getOkHttpClient().newCall(builder.build());
+        OkHttpUtils.getInstance().enqueue(call, null, null, new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                e.printStackTrace();
+                mAgent.setError(new UpdateError(UpdateError.CHECK_NETWORK_IO));
+                finish();
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try {
+                    if (response.code() == 304 && cached) {
+                        mPrefs.edit().putLong(PREFS_CHECK_TIME, System.currentTimeMillis()).apply();
+                        parseCache();
+                    } else if (response.code() == 200) {
+                        byte[] body = response.body().bytes();
+                        save(url, response, body);
+                        mAgent.parse(new ByteArrayInputStream(body), response.header("Content-Type"));
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    mAgent.setError(new UpdateError(UpdateError.CHECK_NETWORK_IO));
+                } finally {
+                    response.body().close();
+                    finish();
+                }
+            }
+        });
+    }
+
+    private void parseCache() {
+        InputStream is = null;
         try {
-            connection = (HttpURLConnection) new URL(mAgent.getUrl()).openConnection();
-            connection.connect();
-            if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                mAgent.parse(connection.getInputStream());
+            is = new FileInputStream(mCache);
+            mAgent.parse(is, mPrefs.getString(PREFS_CONTENT_TYPE, null));
+        } catch (IOException e) {
+            // 缓存已经被删除, 下一次重新下载
+            mPrefs.edit().clear().apply();
+            mAgent.setError(new UpdateError(UpdateError.CHECK_NETWORK_IO));
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException ignored) {
+                }
             }
+        }
+    }
+
+    /**
+     * 先写临时文件再重命名, 记录只在响应体保存成功后更新
+     */
+    private void save(String url, Response response, byte[] body) {
+        File tmp = new File(mCache.getPath() + ".tmp");
+        FileOutputStream out = null;
+        boolean saved = false;
+        try {
+            out = new FileOutputStream(tmp);
+            out.write(body);
+            out.close();
+            out = null;
+            saved = tmp.renameTo(mCache);
         } catch (IOException e) {
             e.printStackTrace();
-            mAgent.setError(new UpdateError(UpdateError.CHECK_NETWORK_IO));
         } finally {
-            if (connection != null) {
-                connection.disconnect();
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
             }
         }
-        return null;
+        if (!saved) {
+            tmp.delete();
+            mPrefs.edit().clear().apply();
+            return;
+        }
+        mPrefs.edit()
+                .putString(PREFS_URL, url)
+                .putString(PREFS_ETAG, response.header("ETag"))
+                .putString(PREFS_LAST_MODIFIED, response.header("Last-Modified"))
+                .putString(PREFS_CONTENT_TYPE, response.header("Content-Type"))
+                .putLong(PREFS_CHECK_TIME, System.currentTimeMillis())
+                .apply();
     }
 
-    @Override
-    protected void onPostExecute(Void result) {
-        mAgent.checkFinish();
+    private void finish() {
+        OkHttpUtils.getInstance().getDelivery().execute(new Runnable() {
+            @Override
+            public void run() {
+                mAgent.checkFinish();
+            }
+        });
     }
-}
\ No newline at end of file
+}
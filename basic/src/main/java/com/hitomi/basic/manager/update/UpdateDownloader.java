@@ -1,238 +1,273 @@
 package com.hitomi.basic.manager.update;
 
-import android.os.AsyncTask;
 import android.os.Build;
-import android.os.Environment;
 import android.os.StatFs;
+import android.text.TextUtils;
+
+import com.hitomi.basic.manager.update.patch.BsPatch;
+import com.hitomi.basic.net.OkHttpUtils;
+import com.hitomi.basic.net.callback.Callback;
+import com.hitomi.basic.net.download.DownloadCall;
+import com.hitomi.basic.net.download.DownloadException;
+import com.hitomi.basic.net.utils.L;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.RandomAccessFile;
-import java.net.HttpURLConnection;
-import java.net.URL;
-
-class UpdateDownloader extends AsyncTask<Void, Integer, Long> {
-
-    private static final int TIME_OUT = 30000;
-    private static final int BUFFER_SIZE = 1024 * 10;
-
-    private final static int EVENT_START = 1;
-    private final static int EVENT_PROGRESS = 2;
-    private final static int EVENT_COMPLETE = 3;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import okhttp3.Call;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 使用 OkHttpUtils 的 client 下载 apk <br/>
+ * 基于 {@link DownloadCall} 分段并行下载并复用连接池, 分段进度持久化在 mTemp 旁的 .cfg 文件中,
+ * 进程被杀死后再次下载同一个版本只会请求缺失的部分 <br/>
+ * 有可用的增量包时先下载增量包并与当前安装的 apk 合成, 增量包下载失败或者合成结果校验不通过时回退到下载完整的 apk
+ */
+class UpdateDownloader {
+
+    private static final int SEGMENT_COUNT = 3;
+    /**
+     * 下载速度的指数加权移动平均系数
+     */
+    private static final double SPEED_ALPHA = 0.3;
 
     private UpdateAgent mAgent;
-    private String mUrl;
     private File mTemp;
+    private DownloadCall mCall;
+    private boolean mStarted;
+    private volatile boolean mCancelled;
 
-    private long mBytesLoaded = 0;
-    private long mBytesTotal = 0;
-    private long mBytesTemp = 0;
-    private long mTimeBegin = 0;
-    private long mTimeLast = 0;
-    private long mSpeed = 0;
-
-    private HttpURLConnection mConnection;
+    private long mLastBytes = -1;
+    private long mLastTime;
+    private double mSpeed;
 
     public UpdateDownloader(UpdateAgent agent, File file) {
-        super();
         mAgent = agent;
-        mUrl = agent.getUpdateInfo().getUrl();
         mTemp = file;
-        if (mTemp.exists()) {
-            mBytesTemp = mTemp.length();
-        }
     }
 
-    private long getBytesLoaded() {
-        return mBytesLoaded + mBytesTemp;
+    /**
+     * 主线程调用, 所有回调都在主线程
+     */
+    public void execute() {
+        UpdateInfo info = mAgent.getUpdateInfo();
+        if (!mAgent.checkNetwork()) {
+            fail(new UpdateError(UpdateError.DOWNLOAD_NETWORK_BLOCKED));
+            return;
+        }
+        boolean usePatch = info.isPatchApplicable(mAgent.getContext());
+        long required = usePatch ? info.getPatch().getSize() + info.getSize() : info.getSize();
+        if (required > getAvailableStorage()) {
+            fail(new UpdateError(UpdateError.DOWNLOAD_DISK_NO_SPACE));
+            return;
+        }
+
+        if (usePatch) {
+            downloadPatch(info.getPatch());
+        } else {
+            downloadFull();
+        }
     }
 
+    public void cancel() {
+        mCancelled = true;
+        if (mCall != null) {
+            mCall.cancel();
+        }
+    }
 
-    @Override
-    protected Long doInBackground(Void... params) {
-        mTimeBegin = System.currentTimeMillis();
-        try {
-            long result = download();
-            if (isCancelled()) {
-                mAgent.setError(new UpdateError(UpdateError.DOWNLOAD_CANCELLED));
-            } else if (result == -1) {
-                mAgent.setError(new UpdateError(UpdateError.DOWNLOAD_UNKNOWN));
-            } else if (!mAgent.verify(mTemp, mTemp.getName())) {
-                mAgent.setError(new UpdateError(UpdateError.DOWNLOAD_VERIFY));
+    private void downloadFull() {
+        UpdateInfo info = mAgent.getUpdateInfo();
+        String md5 = TextUtils.isEmpty(info.getMd5()) ? null : info.getMd5();
+        mCall = new DownloadCall(info.getUrl(), this, headers(), 0, mTemp, SEGMENT_COUNT, md5);
+        mCall.execute(new DownloadCallback() {
+            @Override
+            public void onError(Call call, Exception e, int id) {
+                UpdateError error = toUpdateError(e);
+                L.e("apk download failed : " + error + " , " + e);
+                fail(error);
             }
-        } catch (UpdateError e) {
-            mAgent.setError(e);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-            mAgent.setError(new UpdateError(UpdateError.DOWNLOAD_DISK_IO));
-        } catch (IOException e) {
-            e.printStackTrace();
-            mAgent.setError(new UpdateError(UpdateError.DOWNLOAD_NETWORK_IO));
-        } finally {
-            if (mConnection != null) {
-                mConnection.disconnect();
+
+            @Override
+            public void onResponse(File response, int id) {
+                mAgent.downloadFinish();
             }
-        }
-        return null;
+        });
     }
 
-
-    @Override
-    protected void onProgressUpdate(Integer... progress) {
-        switch (progress[0]) {
-            case EVENT_START:
-                mAgent.downloadStart();
-                break;
-            case EVENT_PROGRESS:
-                long now = System.currentTimeMillis();
-                if (now - mTimeLast < 900) {
-                    break;
+    private void downloadPatch(UpdateInfo.Patch patch) {
+        final File patchFile = new File(mTemp.getPath() + ".patch");
+        String md5 = TextUtils.isEmpty(patch.getMd5()) ? null : patch.getMd5();
+        mCall = new DownloadCall(patch.getUrl(), this, headers(), 0, patchFile, SEGMENT_COUNT, md5);
+        mCall.execute(new DownloadCallback() {
+            @Override
+            public void onError(Call call, Exception e, int id) {
+                L.e("patch download failed, fall back to the full apk : " + toUpdateError(e) + " , " + e);
+                if (isCancelled(e)) {
+                    fail(new UpdateError(UpdateError.DOWNLOAD_CANCELLED));
+                } else {
+                    fallback();
                 }
-                mTimeLast = now;
-                long mTimeUsed = now - mTimeBegin;
-                mSpeed = mBytesLoaded * 1000 / mTimeUsed;
-                mAgent.downloadProgress((int) (this.getBytesLoaded() * 100 / mBytesTotal));
-                break;
-        }
-    }
+            }
 
-    @Override
-    protected void onPostExecute(Long result) {
-        mAgent.downloadFinish();
+            @Override
+            public void onResponse(File response, int id) {
+                applyPatch(response);
+            }
+        });
     }
 
-    private void checkNetwork() throws UpdateError {
-        if (!mAgent.checkNetwork()) {
-            throw new UpdateError(UpdateError.DOWNLOAD_NETWORK_BLOCKED);
-        }
+    /**
+     * 合成比较耗时, 在单独的线程中进行, 结果回到主线程
+     */
+    private void applyPatch(final File patchFile) {
+        final File base = mAgent.getBaseApk();
+        final File patched = new File(mTemp.getPath() + ".patched");
+        final String target = mAgent.getUpdateInfo().getMd5();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean success = false;
+                try {
+                    String md5 = BsPatch.patch(base, patchFile, patched);
+                    success = md5.equalsIgnoreCase(target)
+                            && (!mTemp.exists() || mTemp.delete()) && patched.renameTo(mTemp);
+                } catch (IOException e) {
+                    L.e("apply patch failed, fall back to the full apk : "
+                            + new UpdateError(UpdateError.DOWNLOAD_DISK_IO) + " , " + e);
+                }
+                patchFile.delete();
+                if (!success) {
+                    patched.delete();
+                }
+                final boolean result = success;
+                OkHttpUtils.getInstance().getDelivery().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mCancelled) {
+                            fail(new UpdateError(UpdateError.DOWNLOAD_CANCELLED));
+                        } else if (result) {
+                            mAgent.downloadFinish();
+                        } else {
+                            fallback();
+                        }
+                    }
+                });
+            }
+        }, "update-patch");
+        thread.setDaemon(true);
+        thread.start();
     }
 
-    private void checkStatus() throws IOException, UpdateError {
-        int statusCode = mConnection.getResponseCode();
-        if (statusCode != 200 && statusCode != 206) {
-            throw new UpdateError(UpdateError.DOWNLOAD_HTTP_STATUS, "" + statusCode);
-        }
+    /**
+     * 增量更新失败, 改为下载完整的 apk
+     */
+    private void fallback() {
+        mLastBytes = -1;
+        mSpeed = 0;
+        downloadFull();
     }
 
-    private void checkSpace(long loaded, long total) throws UpdateError {
-        long storage = getAvailableStorage();
-        if (total - loaded > storage) {
-            throw new UpdateError(UpdateError.DOWNLOAD_DISK_NO_SPACE);
-        }
+    private static Map<String, String> headers() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Accept", "application/*");
+        return headers;
     }
 
-    private HttpURLConnection create(URL url) throws IOException {
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setRequestProperty("Accept", "application/*");
-        connection.setConnectTimeout(10000);
-        return connection;
+    private static boolean isCancelled(Exception e) {
+        return e instanceof DownloadException
+                && ((DownloadException) e).getReason() == DownloadException.CANCELED;
     }
 
-    private long download() throws IOException, UpdateError {
-        checkNetwork();
-
-        mConnection = create(new URL(mUrl));
-        mConnection.connect();
-
-        checkStatus();
-
-        mBytesTotal = mConnection.getContentLength();
-
-        checkSpace(mBytesTemp, mBytesTotal);
-
-
-        if (mBytesTemp == mBytesTotal) {
-            publishProgress(EVENT_START);
-            return 0;
+    private abstract class DownloadCallback extends Callback<File> {
+        @Override
+        public void onBefore(Request request, int id) {
+            // 增量更新回退到完整下载时不再重复通知开始
+            if (!mStarted) {
+                mStarted = true;
+                mAgent.downloadStart();
+            }
         }
-        if (mBytesTemp > 0) {
-
-            mConnection.disconnect();
-            mConnection = create(mConnection.getURL());
-            mConnection.addRequestProperty("Range", "bytes=" + mBytesTemp + "-");
-            mConnection.connect();
 
-            checkStatus();
+        @Override
+        public void inProgress(float progress, long total, int id) {
+            long loaded = (long) (progress * total);
+            long speed = updateSpeed(loaded);
+            long eta = speed > 0 ? (total - loaded) / speed : -1;
+            mAgent.downloadProgress((int) (progress * 100), loaded, total, speed, eta);
         }
 
-        publishProgress(EVENT_START);
-
-        // Fix: int 最大数字表示为 2G 存储, 为了预防文件过大，这里使用 long 型
-        long bytesCopied = copy(mConnection.getInputStream(), new LoadingRandomAccessFile(mTemp));
-
-        if ((mBytesTemp + bytesCopied) != mBytesTotal && mBytesTotal != -1) {
-            throw new UpdateError(UpdateError.DOWNLOAD_INCOMPLETE);
+        @Override
+        public File parseNetworkResponse(Response response, int id) throws Exception {
+            return null;
         }
-
-        return bytesCopied;
-
     }
 
-    private long copy(InputStream in, RandomAccessFile out) throws IOException, UpdateError {
-
-        byte[] buffer = new byte[BUFFER_SIZE];
-        BufferedInputStream bis = new BufferedInputStream(in, BUFFER_SIZE);
-        try {
-
-            out.seek(out.length());
-
-            long bytes = 0;
-            long previousBlockTime = -1;
-
-            while (!isCancelled()) {
-                int n = bis.read(buffer, 0, BUFFER_SIZE);
-                if (n == -1) {
-                    break;
-                }
-                out.write(buffer, 0, n);
-                bytes += n;
+    /**
+     * 主线程中调用, 第一次进度包含续传之前已下载的部分, 只作为基准
+     *
+     * @return 平滑后的下载速度, 字节/秒
+     */
+    private long updateSpeed(long loaded) {
+        long now = System.currentTimeMillis();
+        if (mLastBytes >= 0 && now > mLastTime) {
+            double instant = (loaded - mLastBytes) * 1000.0 / (now - mLastTime);
+            mSpeed = mSpeed == 0 ? instant : SPEED_ALPHA * instant + (1 - SPEED_ALPHA) * mSpeed;
+        }
+        mLastBytes = loaded;
+        mLastTime = now;
+        return (long) mSpeed;
+    }
 
-                checkNetwork();
+    private void fail(UpdateError error) {
+        mAgent.setError(error);
+        mAgent.downloadFinish();
+    }
 
-                if (mSpeed != 0) {
-                    previousBlockTime = -1;
-                } else if (previousBlockTime == -1) {
-                    previousBlockTime = System.currentTimeMillis();
-                } else if ((System.currentTimeMillis() - previousBlockTime) > TIME_OUT) {
-                    throw new UpdateError(UpdateError.DOWNLOAD_NETWORK_TIMEOUT);
-                }
+    private static UpdateError toUpdateError(Exception e) {
+        if (e instanceof DownloadException) {
+            DownloadException de = (DownloadException) e;
+            switch (de.getReason()) {
+                case DownloadException.HTTP_STATUS:
+                case DownloadException.RESOURCE_CHANGED:
+                    return new UpdateError(UpdateError.DOWNLOAD_HTTP_STATUS, "" + de.getCode());
+                case DownloadException.INCOMPLETE:
+                    return new UpdateError(UpdateError.DOWNLOAD_INCOMPLETE);
+                case DownloadException.VERIFY:
+                    return new UpdateError(UpdateError.DOWNLOAD_VERIFY);
+                case DownloadException.DISK_IO:
+                    return new UpdateError(UpdateError.DOWNLOAD_DISK_IO);
+                case DownloadException.CANCELED:
+                    return new UpdateError(UpdateError.DOWNLOAD_CANCELLED);
+                default:
+                    return new UpdateError(UpdateError.DOWNLOAD_UNKNOWN);
             }
-            return bytes;
-        } finally {
-            out.close();
-            bis.close();
-            in.close();
         }
+        if (e instanceof FileNotFoundException) {
+            return new UpdateError(UpdateError.DOWNLOAD_DISK_IO);
+        }
+        if (e instanceof InterruptedIOException) {
+            return new UpdateError(UpdateError.DOWNLOAD_NETWORK_TIMEOUT);
+        }
+        return new UpdateError(UpdateError.DOWNLOAD_NETWORK_IO);
     }
 
     private long getAvailableStorage() {
         try {
-            StatFs stat = new StatFs(Environment.getExternalStorageDirectory().toString());
+            StatFs stat = new StatFs(mTemp.getParentFile().getPath());
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
                 return stat.getAvailableBlocksLong() * stat.getBlockSizeLong();
             } else {
                 return (long) stat.getAvailableBlocks() * (long) stat.getBlockSize();
             }
         } catch (RuntimeException ex) {
+            // 无法获取时按空间不足处理, 避免在磁盘已满时开始下载
             return 0;
         }
     }
-
-    private final class LoadingRandomAccessFile extends RandomAccessFile {
-
-        public LoadingRandomAccessFile(File file) throws FileNotFoundException {
-            super(file, "rw");
-        }
-
-        @Override
-        public void write(byte[] buffer, int offset, int count) throws IOException {
-
-            super.write(buffer, offset, count);
-            mBytesLoaded += count;
-            publishProgress(EVENT_PROGRESS);
-        }
-    }
-}
\ No newline at end of file
+}
@@ -3,6 +3,7 @@ package com.hitomi.basic.manager.update;
 import android.content.Context;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
+import android.text.TextUtils;
 import android.util.Xml;
 
 import org.xmlpull.v1.XmlPullParser;
@@ -28,6 +29,8 @@ public class UpdateInfo {
     private String md5;
     // apk 大小
     private long size;
+    // 增量更新包, 没有时为 null
+    private Patch patch;
 
     public UpdateInfo parse(InputStream is) throws Exception {
         UpdateInfo info = null;
@@ -57,6 +60,16 @@ public class UpdateInfo {
                         info.isAutoInstall = Boolean.parseBoolean(parser.nextText());
                     } else if ("isIgnorable".equals(parser.getName())) {
                         info.isIgnorable = Boolean.parseBoolean(parser.nextText());
+                    } else if ("patchBaseVersion".equals(parser.getName())) {
+                        info.ensurePatch().baseVersionCode = Integer.parseInt(parser.nextText());
+                    } else if ("patchUrl".equals(parser.getName())) {
+                        info.ensurePatch().url = parser.nextText();
+                    } else if ("patchMd5".equals(parser.getName())) {
+                        info.ensurePatch().md5 = parser.nextText();
+                    } else if ("patchSize".equals(parser.getName())) {
+                        info.ensurePatch().size = Long.parseLong(parser.nextText());
+                    } else if ("patchTargetMd5".equals(parser.getName())) {
+                        info.ensurePatch().targetMd5 = parser.nextText();
                     }
                     break;
             }
@@ -65,6 +78,13 @@ public class UpdateInfo {
         return info;
     }
 
+    private Patch ensurePatch() {
+        if (patch == null) {
+            patch = new Patch();
+        }
+        return patch;
+    }
+
     public boolean isNeedUpdate(Context context) {
         boolean isNeedUpdate = false;
         try {
@@ -76,6 +96,24 @@ public class UpdateInfo {
         return isNeedUpdate;
     }
 
+    /**
+     * 是否可以通过增量包更新: 当前安装的版本与增量包基于的版本一致, 并且合成后的 apk 就是该版本的 apk
+     */
+    public boolean isPatchApplicable(Context context) {
+        if (patch == null || TextUtils.isEmpty(patch.url) || TextUtils.isEmpty(md5)) {
+            return false;
+        }
+        if (!TextUtils.isEmpty(patch.targetMd5) && !patch.targetMd5.equalsIgnoreCase(md5)) {
+            return false;
+        }
+        try {
+            PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            return info.versionCode == patch.baseVersionCode;
+        } catch (PackageManager.NameNotFoundException e) {
+            return false;
+        }
+    }
+
     public boolean isForce() {
         return isForce;
     }
@@ -148,4 +186,68 @@ public class UpdateInfo {
         this.size = size;
     }
 
-}
\ No newline at end of file
+    public Patch getPatch() {
+        return patch;
+    }
+
+    public void setPatch(Patch patch) {
+        this.patch = patch;
+    }
+
+    /**
+     * bsdiff 生成的增量包, 与当前安装的 apk 合成新版本的 apk
+     */
+    public static class Patch {
+        // 增量包基于的版本号
+        private int baseVersionCode;
+        // 增量包下载地址
+        private String url;
+        // 增量包 md5 码
+        private String md5;
+        // 增量包大小
+        private long size;
+        // 合成后 apk 的 md5 码, 为空时使用 UpdateInfo 的 md5
+        private String targetMd5;
+
+        public int getBaseVersionCode() {
+            return baseVersionCode;
+        }
+
+        public void setBaseVersionCode(int baseVersionCode) {
+            this.baseVersionCode = baseVersionCode;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public void setUrl(String url) {
+            this.url = url;
+        }
+
+        public String getMd5() {
+            return md5;
+        }
+
+        public void setMd5(String md5) {
+            this.md5 = md5;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public void setSize(long size) {
+            this.size = size;
+        }
+
+        public String getTargetMd5() {
+            return targetMd5;
+        }
+
+        public void setTargetMd5(String targetMd5) {
+            this.targetMd5 = targetMd5;
+        }
+    }
+
+}
@@ -12,6 +12,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * App 版本升级管理
@@ -78,11 +80,13 @@ public class UpdateManager {
         private boolean hasInterface; // 服务器是否有 app 更新升级访问接口
         private boolean isManual; // true：手动检查，所有类型的错误，都会提示，false：只会提醒 2000 以上的错误
         private boolean isWifiOnly; // 是否只在 wifi 环境下检查更新
+        private long checkInterval = UpdateAgent.DEFAULT_CHECK_INTERVAL; // 自动检查更新的最小间隔
         private int progressStyle; // 进度提醒方式
         private UpdateAgent.OnProgressListener onProgressListener; // apk 下载进度回调
         private UpdateAgent.OnPromptListener onPromptListener; // 检查返回结果的回调
         private UpdateAgent.OnFailureListener onFailureListener; // 发生错误时的回调
         private UpdateAgent.InfoParser parser;
+        private Map<String, UpdateAgent.InfoParser> parsers = new LinkedHashMap<>();
 
         public Builder(Context context) {
             this.context = context;
@@ -146,6 +150,16 @@ public class UpdateManager {
             return this;
         }
 
+        /**
+         * 设定自动检查更新的最小间隔, 间隔内的自动检查直接使用上一次的检查结果, 手动检查不受限制
+         * @param interval 毫秒, 0 表示每次都访问网络 (依旧使用条件请求, 内容没有变化时服务端只返回 304)
+         * @return Builder
+         */
+        public Builder setCheckInterval(long interval) {
+            this.checkInterval = interval;
+            return this;
+        }
+
         /**
          * 设定 Apk 下载时进度提醒方式 <br/>
          * {@link #PROGRESS_EMPT} <br/>
@@ -171,8 +185,9 @@ public class UpdateManager {
         }
 
         /**
-         * 设定一个访问检查更新接口后返回的数据解析器，默认内置解析器
-         * {@link UpdateInfo#parse(InputStream)}
+         * 设定一个访问检查更新接口后返回的数据解析器，默认按照 Content-Type 选择内置解析器，
+         * 无法识别时使用 {@link UpdateInfo#parse(InputStream)} <br/>
+         * 设定后处理所有没有通过 {@link #registerParser(String, UpdateAgent.InfoParser)} 注册的 Content-Type
          * @param parser 解析器
          * @return Builder
          */
@@ -181,6 +196,19 @@ public class UpdateManager {
             return this;
         }
 
+        /**
+         * 为检查更新接口返回的某种 Content-Type 注册解析器，优先于 {@link #setParser(UpdateAgent.InfoParser)} <br/>
+         * 内置支持 XML (text/xml、application/xml)、JSON (application/json) 以及
+         * {@link com.hitomi.basic.manager.update.parser.BinaryInfoParser#CONTENT_TYPE} 二进制格式
+         * @param contentType 例如 application/json
+         * @param parser 解析器
+         * @return Builder
+         */
+        public Builder registerParser(String contentType, UpdateAgent.InfoParser parser) {
+            parsers.put(contentType, parser);
+            return this;
+        }
+
         /**
          * 设定一个访问检查更新接口后更新内容提示回调，默认内置
          * {@link UpdateAgent.OnPrompt}
@@ -218,6 +246,10 @@ public class UpdateManager {
             UpdateAgent agent = new UpdateAgent(context, url, isManual, isWifiOnly);
             // 设置解析器
             agent.setInfoParser(parser);
+            for (Map.Entry<String, UpdateAgent.InfoParser> entry : parsers.entrySet()) {
+                agent.registerParser(entry.getKey(), entry.getValue());
+            }
+            agent.setCheckInterval(checkInterval);
 
             // 设定文件下载的进度提醒方式
             if (onProgressListener != null) { // 用户自定义了进度提醒方式，就使用用户自定义的
@@ -0,0 +1,146 @@
+package com.hitomi.basic.manager.update.parser;
+
+import com.hitomi.basic.manager.update.UpdateAgent;
+import com.hitomi.basic.manager.update.UpdateInfo;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 紧凑的二进制更新信息 <br/>
+ * 格式: 4 字节 magic "UPD1", 之后是若干 [1 字节 tag][2 字节长度][值] 的字段, tag 为 0 表示结束, 未知的 tag 会被跳过 <br/>
+ * 整数均为大端序, 字符串为 UTF-8, md5 为 16 字节原始摘要:
+ * <ul>
+ * <li>1 versionCode (int)、2 versionName、3 downloadUrl、4 desc、5 size (long)、6 md5</li>
+ * <li>7 flags (byte): bit0 isForce、bit1 isAutoInstall、bit2 isIgnorable</li>
+ * <li>16 patch baseVersion (int)、17 patch url、18 patch md5、19 patch size (long)、20 patch targetMd5</li>
+ * </ul>
+ */
+public class BinaryInfoParser implements UpdateAgent.InfoParser {
+
+    public static final String CONTENT_TYPE = "application/x-hitomi-update";
+
+    private static final int MAGIC = 0x55504431; // "UPD1"
+
+    private static final int TAG_END = 0;
+    private static final int TAG_VERSION = 1;
+    private static final int TAG_VERSION_NAME = 2;
+    private static final int TAG_URL = 3;
+    private static final int TAG_DESC = 4;
+    private static final int TAG_SIZE = 5;
+    private static final int TAG_MD5 = 6;
+    private static final int TAG_FLAGS = 7;
+    private static final int TAG_PATCH_BASE_VERSION = 16;
+    private static final int TAG_PATCH_URL = 17;
+    private static final int TAG_PATCH_MD5 = 18;
+    private static final int TAG_PATCH_SIZE = 19;
+    private static final int TAG_PATCH_TARGET_MD5 = 20;
+
+    private static final int FLAG_FORCE = 1;
+    private static final int FLAG_AUTO_INSTALL = 1 << 1;
+    private static final int FLAG_IGNORABLE = 1 << 2;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    @Override
+    public UpdateInfo parse(InputStream is) throws Exception {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not an update descriptor");
+        }
+        UpdateInfo info = new UpdateInfo();
+        UpdateInfo.Patch patch = null;
+        byte[] value = new byte[256];
+        int tag;
+        while ((tag = in.readUnsignedByte()) != TAG_END) {
+            int length = in.readUnsignedShort();
+            if (value.length < length) {
+                value = new byte[length];
+            }
+            in.readFully(value, 0, length);
+            switch (tag) {
+                case TAG_VERSION:
+                    info.setVersionCode(readInt(value, length));
+                    break;
+                case TAG_VERSION_NAME:
+                    info.setVersionName(new String(value, 0, length, "UTF-8"));
+                    break;
+                case TAG_URL:
+                    info.setUrl(new String(value, 0, length, "UTF-8"));
+                    break;
+                case TAG_DESC:
+                    info.setUpdateContent(new String(value, 0, length, "UTF-8"));
+                    break;
+                case TAG_SIZE:
+                    info.setSize(readLong(value, length));
+                    break;
+                case TAG_MD5:
+                    info.setMd5(hex(value, length));
+                    break;
+                case TAG_FLAGS:
+                    int flags = readInt(value, length);
+                    info.setForce((flags & FLAG_FORCE) != 0);
+                    info.setAutoInstall((flags & FLAG_AUTO_INSTALL) != 0);
+                    info.setIgnorable((flags & FLAG_IGNORABLE) != 0);
+                    break;
+                case TAG_PATCH_BASE_VERSION:
+                    patch = patch == null ? new UpdateInfo.Patch() : patch;
+                    patch.setBaseVersionCode(readInt(value, length));
+                    break;
+                case TAG_PATCH_URL:
+                    patch = patch == null ? new UpdateInfo.Patch() : patch;
+                    patch.setUrl(new String(value, 0, length, "UTF-8"));
+                    break;
+                case TAG_PATCH_MD5:
+                    patch = patch == null ? new UpdateInfo.Patch() : patch;
+                    patch.setMd5(hex(value, length));
+                    break;
+                case TAG_PATCH_SIZE:
+                    patch = patch == null ? new UpdateInfo.Patch() : patch;
+                    patch.setSize(readLong(value, length));
+                    break;
+                case TAG_PATCH_TARGET_MD5:
+                    patch = patch == null ? new UpdateInfo.Patch() : patch;
+                    patch.setTargetMd5(hex(value, length));
+                    break;
+                default:
+                    // 新版本增加的字段
+                    break;
+            }
+        }
+        info.setPatch(patch);
+        return info;
+    }
+
+    /**
+     * 按长度读取大端序整数, 兼容 1 / 2 / 4 字节的 int 字段
+     */
+    private static int readInt(byte[] value, int length) throws IOException {
+        if (length < 1 || length > 4) {
+            throw new IOException("bad int field length : " + length);
+        }
+        return (int) readLong(value, length);
+    }
+
+    private static long readLong(byte[] value, int length) throws IOException {
+        if (length < 1 || length > 8) {
+            throw new IOException("bad long field length : " + length);
+        }
+        long v = 0;
+        for (int i = 0; i < length; i++) {
+            v = (v << 8) | (value[i] & 0xff);
+        }
+        return v;
+    }
+
+    private static String hex(byte[] value, int length) {
+        char[] chars = new char[length * 2];
+        for (int i = 0; i < length; i++) {
+            chars[i * 2] = HEX[(value[i] >>> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[value[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
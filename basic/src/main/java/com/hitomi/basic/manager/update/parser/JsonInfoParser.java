@@ -0,0 +1,97 @@
+package com.hitomi.basic.manager.update.parser;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.hitomi.basic.manager.update.UpdateAgent;
+import com.hitomi.basic.manager.update.UpdateInfo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * JSON 格式的更新信息, 使用 JsonReader 流式解析, 字段名与 XML 的标签名一致:
+ * <pre>
+ * {
+ *   "version": 12, "versionName": "1.2.0", "downloadUrl": "...", "desc": "...",
+ *   "size": 1024, "md5": "...", "isForce": false, "isAutoInstall": true, "isIgnorable": true,
+ *   "patch": {"baseVersion": 11, "url": "...", "md5": "...", "size": 256, "targetMd5": "..."}
+ * }
+ * </pre>
+ * 也可以整体包在 "appInfo" 对象中, 未知字段会被跳过
+ */
+public class JsonInfoParser implements UpdateAgent.InfoParser {
+
+    @Override
+    public UpdateInfo parse(InputStream is) throws Exception {
+        JsonReader reader = new JsonReader(new InputStreamReader(is, "UTF-8"));
+        try {
+            UpdateInfo info = new UpdateInfo();
+            readInfo(reader, info);
+            return info;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void readInfo(JsonReader reader, UpdateInfo info) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+            } else if ("appInfo".equals(name)) {
+                readInfo(reader, info);
+            } else if ("version".equals(name)) {
+                info.setVersionCode(reader.nextInt());
+            } else if ("versionName".equals(name)) {
+                info.setVersionName(reader.nextString());
+            } else if ("downloadUrl".equals(name)) {
+                info.setUrl(reader.nextString());
+            } else if ("desc".equals(name)) {
+                info.setUpdateContent(reader.nextString());
+            } else if ("size".equals(name)) {
+                info.setSize(reader.nextLong());
+            } else if ("md5".equals(name)) {
+                info.setMd5(reader.nextString());
+            } else if ("isForce".equals(name)) {
+                info.setForce(reader.nextBoolean());
+            } else if ("isAutoInstall".equals(name)) {
+                info.setAutoInstall(reader.nextBoolean());
+            } else if ("isIgnorable".equals(name)) {
+                info.setIgnorable(reader.nextBoolean());
+            } else if ("patch".equals(name)) {
+                info.setPatch(readPatch(reader));
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private UpdateInfo.Patch readPatch(JsonReader reader) throws IOException {
+        UpdateInfo.Patch patch = new UpdateInfo.Patch();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+            } else if ("baseVersion".equals(name)) {
+                patch.setBaseVersionCode(reader.nextInt());
+            } else if ("url".equals(name)) {
+                patch.setUrl(reader.nextString());
+            } else if ("md5".equals(name)) {
+                patch.setMd5(reader.nextString());
+            } else if ("size".equals(name)) {
+                patch.setSize(reader.nextLong());
+            } else if ("targetMd5".equals(name)) {
+                patch.setTargetMd5(reader.nextString());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return patch;
+    }
+}
@@ -0,0 +1,363 @@
+package com.hitomi.basic.manager.update.patch;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * bzip2 解压流, 只支持 bsdiff 生成的单个 bzip2 stream <br/>
+ * 按块解压: Huffman + MTF 解码、BWT 逆变换之后在 read 中按需做 RLE 解码, 每个块以及整个 stream 都会校验 CRC
+ */
+class BZip2InputStream extends InputStream {
+    private static final long BLOCK_MAGIC = 0x314159265359L;
+    private static final long END_MAGIC = 0x177245385090L;
+    private static final int MAX_GROUPS = 6;
+    private static final int MAX_ALPHA_SIZE = 258;
+    private static final int MAX_CODE_LEN = 20;
+    private static final int MAX_SELECTORS = 18002;
+    private static final int GROUP_SIZE = 50;
+    private static final int RUNA = 0;
+    private static final int RUNB = 1;
+
+    private static final int[] CRC_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int c = i << 24;
+            for (int j = 0; j < 8; j++) {
+                c = (c & 0x80000000) != 0 ? (c << 1) ^ 0x04c11db7 : c << 1;
+            }
+            CRC_TABLE[i] = c;
+        }
+    }
+
+    private final InputStream in;
+    private long bitBuffer;
+    private int bitCount;
+
+    private int blockSize;
+    private int[] tt;
+    private boolean eof;
+
+    private int combinedCrc;
+    private int blockCrc;
+    private int computedCrc;
+
+    // BWT 逆变换以及 RLE 解码的状态
+    private int tPos;
+    private int blockLeft;
+    private int lastByte;
+    private int runLength;
+    private int repeatLeft;
+
+    private final byte[] single = new byte[1];
+
+    BZip2InputStream(InputStream in) throws IOException {
+        this.in = in;
+        if (bits(8) != 'B' || bits(8) != 'Z' || bits(8) != 'h') {
+            throw new IOException("not a bzip2 stream");
+        }
+        int level = bits(8) - '0';
+        if (level < 1 || level > 9) {
+            throw new IOException("invalid bzip2 block size : " + level);
+        }
+        blockSize = level * 100000;
+        nextBlock();
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        int n = 0;
+        while (n < len) {
+            if (repeatLeft > 0) {
+                repeatLeft--;
+                b[off + n++] = (byte) lastByte;
+                updateCrc(lastByte);
+                continue;
+            }
+            if (blockLeft == 0) {
+                if (eof) break;
+                endBlock();
+                if (!nextBlock()) break;
+                continue;
+            }
+            tPos = tt[tPos];
+            int ch = tPos & 0xff;
+            tPos >>>= 8;
+            blockLeft--;
+
+            if (runLength == 4) {
+                // 连续 4 个相同的字节之后是额外重复的次数
+                repeatLeft = ch;
+                runLength = 0;
+                continue;
+            }
+            if (ch == lastByte) {
+                runLength++;
+            } else {
+                runLength = 1;
+                lastByte = ch;
+            }
+            b[off + n++] = (byte) ch;
+            updateCrc(ch);
+        }
+        return n == 0 ? -1 : n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void updateCrc(int ch) {
+        computedCrc = (computedCrc << 8) ^ CRC_TABLE[((computedCrc >>> 24) ^ ch) & 0xff];
+    }
+
+    private void endBlock() throws IOException {
+        int crc = ~computedCrc;
+        if (crc != blockCrc) {
+            throw new IOException("bzip2 block crc mismatch");
+        }
+        combinedCrc = (combinedCrc << 1 | combinedCrc >>> 31) ^ crc;
+    }
+
+    /**
+     * @return 已经到达 stream 末尾时返回 false
+     */
+    private boolean nextBlock() throws IOException {
+        long magic = ((long) bits(24) << 24) | bits(24);
+        if (magic == END_MAGIC) {
+            int streamCrc = bits(32);
+            if (streamCrc != combinedCrc) {
+                throw new IOException("bzip2 stream crc mismatch");
+            }
+            eof = true;
+            return false;
+        }
+        if (magic != BLOCK_MAGIC) {
+            throw new IOException("bad bzip2 block magic");
+        }
+        blockCrc = bits(32);
+        if (bits(1) != 0) {
+            throw new IOException("randomised bzip2 blocks are not supported");
+        }
+        int origPtr = bits(24);
+
+        // 使用到的字节
+        int[] seqToUnseq = new int[256];
+        int inUse = 0;
+        int inUse16 = bits(16);
+        for (int i = 0; i < 16; i++) {
+            if ((inUse16 & (0x8000 >>> i)) != 0) {
+                int used = bits(16);
+                for (int j = 0; j < 16; j++) {
+                    if ((used & (0x8000 >>> j)) != 0) {
+                        seqToUnseq[inUse++] = i * 16 + j;
+                    }
+                }
+            }
+        }
+        if (inUse == 0) {
+            throw new IOException("bzip2 block uses no symbols");
+        }
+        int alphaSize = inUse + 2;
+
+        int groups = bits(3);
+        int selectorCount = bits(15);
+        if (groups < 2 || groups > MAX_GROUPS || selectorCount < 1) {
+            throw new IOException("bad bzip2 huffman groups");
+        }
+        byte[] selectorMtf = new byte[MAX_GROUPS];
+        for (int i = 0; i < groups; i++) {
+            selectorMtf[i] = (byte) i;
+        }
+        byte[] selectors = new byte[Math.min(selectorCount, MAX_SELECTORS)];
+        for (int i = 0; i < selectorCount; i++) {
+            int j = 0;
+            while (bits(1) == 1) {
+                if (++j >= groups) {
+                    throw new IOException("bad bzip2 selector");
+                }
+            }
+            byte tmp = selectorMtf[j];
+            System.arraycopy(selectorMtf, 0, selectorMtf, 1, j);
+            selectorMtf[0] = tmp;
+            if (i < selectors.length) {
+                selectors[i] = tmp;
+            }
+        }
+
+        int[][] limit = new int[groups][MAX_ALPHA_SIZE];
+        int[][] base = new int[groups][MAX_ALPHA_SIZE];
+        int[][] perm = new int[groups][MAX_ALPHA_SIZE];
+        int[] minLens = new int[groups];
+        int[] length = new int[alphaSize];
+        for (int t = 0; t < groups; t++) {
+            int curr = bits(5);
+            int minLen = 32;
+            int maxLen = 0;
+            for (int i = 0; i < alphaSize; i++) {
+                while (true) {
+                    if (curr < 1 || curr > MAX_CODE_LEN) {
+                        throw new IOException("bad bzip2 code length");
+                    }
+                    if (bits(1) == 0) break;
+                    curr += bits(1) == 0 ? 1 : -1;
+                }
+                length[i] = curr;
+                minLen = Math.min(minLen, curr);
+                maxLen = Math.max(maxLen, curr);
+            }
+            createDecodeTables(limit[t], base[t], perm[t], length, minLen, maxLen, alphaSize);
+            minLens[t] = minLen;
+        }
+
+        // Huffman + MTF 解码, 同时统计每个字节出现的次数
+        if (tt == null) {
+            tt = new int[blockSize];
+        }
+        int[] unzftab = new int[256];
+        int[] yy = new int[256];
+        for (int i = 0; i < 256; i++) {
+            yy[i] = i;
+        }
+        int eob = inUse + 1;
+        int nblock = 0;
+        int groupIndex = -1;
+        int groupPos = 0;
+        int[] gLimit = null;
+        int[] gBase = null;
+        int[] gPerm = null;
+        int gMinLen = 0;
+
+        int runAcc = -1;
+        int runWeight = 1;
+        while (true) {
+            if (groupPos == 0) {
+                if (++groupIndex >= selectors.length) {
+                    throw new IOException("bzip2 selectors exhausted");
+                }
+                groupPos = GROUP_SIZE;
+                int g = selectors[groupIndex];
+                gLimit = limit[g];
+                gBase = base[g];
+                gPerm = perm[g];
+                gMinLen = minLens[g];
+            }
+            groupPos--;
+
+            int zn = gMinLen;
+            int zvec = bits(zn);
+            while (zvec > gLimit[zn]) {
+                if (++zn > MAX_CODE_LEN) {
+                    throw new IOException("bad bzip2 huffman code");
+                }
+                zvec = (zvec << 1) | bits(1);
+            }
+            int index = zvec - gBase[zn];
+            if (index < 0 || index >= MAX_ALPHA_SIZE) {
+                throw new IOException("bad bzip2 huffman code");
+            }
+            int sym = gPerm[index];
+
+            if (sym == RUNA || sym == RUNB) {
+                if (runAcc == -1) {
+                    runAcc = 0;
+                    runWeight = 1;
+                }
+                runAcc += (sym + 1) * runWeight;
+                runWeight <<= 1;
+                if (runAcc > blockSize) {
+                    throw new IOException("bzip2 run too long");
+                }
+                continue;
+            }
+            if (runAcc != -1) {
+                int ch = seqToUnseq[yy[0]];
+                if (nblock + runAcc > blockSize) {
+                    throw new IOException("bzip2 block overflow");
+                }
+                unzftab[ch] += runAcc;
+                while (runAcc-- > 0) {
+                    tt[nblock++] = ch;
+                }
+                runAcc = -1;
+            }
+            if (sym == eob) break;
+
+            int nn = sym - 1;
+            int uc = yy[nn];
+            System.arraycopy(yy, 0, yy, 1, nn);
+            yy[0] = uc;
+            int ch = seqToUnseq[uc];
+            if (nblock >= blockSize) {
+                throw new IOException("bzip2 block overflow");
+            }
+            unzftab[ch]++;
+            tt[nblock++] = ch;
+        }
+        if (origPtr < 0 || origPtr >= nblock) {
+            throw new IOException("bad bzip2 origPtr");
+        }
+
+        // BWT 逆变换, tt 的低 8 位为字节, 高位为下一个位置
+        int[] cftab = new int[256];
+        for (int i = 1; i < 256; i++) {
+            cftab[i] = cftab[i - 1] + unzftab[i - 1];
+        }
+        for (int i = 0; i < nblock; i++) {
+            int ch = tt[i] & 0xff;
+            tt[cftab[ch]++] |= i << 8;
+        }
+        tPos = tt[origPtr] >>> 8;
+        blockLeft = nblock;
+        lastByte = -1;
+        runLength = 0;
+        repeatLeft = 0;
+        computedCrc = 0xffffffff;
+        return true;
+    }
+
+    private static void createDecodeTables(int[] limit, int[] base, int[] perm, int[] length,
+                                           int minLen, int maxLen, int alphaSize) {
+        int pp = 0;
+        for (int i = minLen; i <= maxLen; i++) {
+            for (int j = 0; j < alphaSize; j++) {
+                if (length[j] == i) perm[pp++] = j;
+            }
+        }
+        for (int i = 0; i < alphaSize; i++) {
+            base[length[i] + 1]++;
+        }
+        for (int i = 1; i < base.length; i++) {
+            base[i] += base[i - 1];
+        }
+        int vec = 0;
+        for (int i = minLen; i <= maxLen; i++) {
+            vec += base[i + 1] - base[i];
+            limit[i] = vec - 1;
+            vec <<= 1;
+        }
+        for (int i = minLen + 1; i <= maxLen; i++) {
+            base[i] = ((limit[i - 1] + 1) << 1) - base[i];
+        }
+    }
+
+    private int bits(int n) throws IOException {
+        while (bitCount < n) {
+            int b = in.read();
+            if (b == -1) {
+                throw new IOException("unexpected end of bzip2 stream");
+            }
+            bitBuffer = (bitBuffer << 8) | b;
+            bitCount += 8;
+        }
+        bitCount -= n;
+        return (int) ((bitBuffer >>> bitCount) & ((1L << n) - 1));
+    }
+}
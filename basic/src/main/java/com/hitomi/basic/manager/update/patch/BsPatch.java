@@ -0,0 +1,215 @@
+package com.hitomi.basic.manager.update.patch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 与 bsdiff 4.x (BSDIFF40 格式) 兼容的增量包合成 <br/>
+ * 三段 bzip2 数据 (控制块、差异块、新增块) 各自流式解压, 旧文件按需随机读取, 新文件顺序写出,
+ * 内存占用与文件大小无关; 写出的同时计算新文件的 md5, 校验时不需要再读一遍
+ */
+public final class BsPatch {
+    private static final byte[] MAGIC = {'B', 'S', 'D', 'I', 'F', 'F', '4', '0'};
+    private static final int HEADER_SIZE = 32;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private BsPatch() {
+    }
+
+    /**
+     * @param oldFile   旧文件, 例如当前安装的 apk
+     * @param patchFile bsdiff 生成的增量包
+     * @param newFile   合成的新文件, 失败时会被删除
+     * @return 新文件的 md5 (16 进制小写)
+     */
+    public static String patch(File oldFile, File patchFile, File newFile) throws IOException {
+        boolean success = false;
+        try {
+            String md5 = apply(oldFile, patchFile, newFile);
+            success = true;
+            return md5;
+        } finally {
+            if (!success) {
+                newFile.delete();
+            }
+        }
+    }
+
+    private static String apply(File oldFile, File patchFile, File newFile) throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        DataInputStream headerIn = new DataInputStream(new FileInputStream(patchFile));
+        try {
+            headerIn.readFully(header);
+        } finally {
+            headerIn.close();
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header[i] != MAGIC[i]) {
+                throw new IOException("not a BSDIFF40 patch");
+            }
+        }
+        long ctrlLength = offtin(header, 8);
+        long diffLength = offtin(header, 16);
+        long newSize = offtin(header, 24);
+        if (ctrlLength < 0 || diffLength < 0 || newSize < 0
+                || HEADER_SIZE + ctrlLength + diffLength > patchFile.length()) {
+            throw new IOException("corrupt patch header");
+        }
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.getMessage());
+        }
+
+        InputStream ctrl = null;
+        InputStream diff = null;
+        InputStream extra = null;
+        RandomAccessFile old = null;
+        OutputStream out = null;
+        try {
+            ctrl = section(patchFile, HEADER_SIZE);
+            diff = section(patchFile, HEADER_SIZE + ctrlLength);
+            extra = section(patchFile, HEADER_SIZE + ctrlLength + diffLength);
+            old = new RandomAccessFile(oldFile, "r");
+            out = new BufferedOutputStream(new FileOutputStream(newFile), BUFFER_SIZE);
+
+            long oldSize = old.length();
+            byte[] control = new byte[24];
+            byte[] buf = new byte[BUFFER_SIZE];
+            byte[] oldBuf = new byte[BUFFER_SIZE];
+            long newPos = 0;
+            long oldPos = 0;
+            while (newPos < newSize) {
+                readFully(ctrl, control, 24);
+                long add = offtin(control, 0);
+                long copy = offtin(control, 8);
+                long seek = offtin(control, 16);
+                if (add < 0 || copy < 0 || newPos + add + copy > newSize) {
+                    throw new IOException("corrupt patch control block");
+                }
+
+                // 差异块的数据与旧文件对应位置的数据相加
+                long remaining = add;
+                while (remaining > 0) {
+                    int n = (int) Math.min(buf.length, remaining);
+                    readFully(diff, buf, n);
+                    readOld(old, oldSize, oldPos, oldBuf, n);
+                    for (int i = 0; i < n; i++) {
+                        buf[i] += oldBuf[i];
+                    }
+                    out.write(buf, 0, n);
+                    digest.update(buf, 0, n);
+                    oldPos += n;
+                    remaining -= n;
+                }
+                newPos += add;
+
+                // 新增块的数据直接写出
+                remaining = copy;
+                while (remaining > 0) {
+                    int n = (int) Math.min(buf.length, remaining);
+                    readFully(extra, buf, n);
+                    out.write(buf, 0, n);
+                    digest.update(buf, 0, n);
+                    remaining -= n;
+                }
+                newPos += copy;
+                oldPos += seek;
+            }
+            out.flush();
+        } finally {
+            closeQuietly(ctrl);
+            closeQuietly(diff);
+            closeQuietly(extra);
+            if (old != null) {
+                old.close();
+            }
+            if (out != null) {
+                out.close();
+            }
+        }
+        return String.format("%1$032x", new BigInteger(1, digest.digest()));
+    }
+
+    /**
+     * 读取旧文件 [pos, pos + n), 超出旧文件范围的部分视为 0
+     */
+    private static void readOld(RandomAccessFile old, long oldSize, long pos, byte[] buf, int n)
+            throws IOException {
+        int start = 0;
+        if (pos < 0) {
+            start = (int) Math.min(n, -pos);
+        }
+        long end = Math.min(pos + n, oldSize);
+        int count = end > pos + start ? (int) (end - pos - start) : 0;
+        if (count > 0) {
+            old.seek(pos + start);
+            old.readFully(buf, start, count);
+        }
+        for (int i = 0; i < start; i++) {
+            buf[i] = 0;
+        }
+        for (int i = start + count; i < n; i++) {
+            buf[i] = 0;
+        }
+    }
+
+    private static InputStream section(File patchFile, long offset) throws IOException {
+        FileInputStream fis = new FileInputStream(patchFile);
+        try {
+            long skipped = 0;
+            while (skipped < offset) {
+                long n = fis.skip(offset - skipped);
+                if (n <= 0) throw new IOException("corrupt patch");
+                skipped += n;
+            }
+            return new BZip2InputStream(new BufferedInputStream(fis, BUFFER_SIZE));
+        } catch (IOException e) {
+            fis.close();
+            throw e;
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] buf, int len) throws IOException {
+        int off = 0;
+        while (off < len) {
+            int n = in.read(buf, off, len - off);
+            if (n == -1) {
+                throw new IOException("unexpected end of patch");
+            }
+            off += n;
+        }
+    }
+
+    /**
+     * bsdiff 的 8 字节整数: 小端序, 最高位为符号位
+     */
+    private static long offtin(byte[] buf, int offset) {
+        long y = buf[offset + 7] & 0x7f;
+        for (int i = 6; i >= 0; i--) {
+            y = (y << 8) | (buf[offset + i] & 0xff);
+        }
+        return (buf[offset + 7] & 0x80) != 0 ? -y : y;
+    }
+
+    private static void closeQuietly(InputStream in) {
+        if (in == null) return;
+        try {
+            in.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
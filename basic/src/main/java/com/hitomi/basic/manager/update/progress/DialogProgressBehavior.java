@@ -2,6 +2,7 @@ package com.hitomi.basic.manager.update.progress;
 
 import android.app.ProgressDialog;
 import android.content.Context;
+import android.text.format.Formatter;
 
 import com.hitomi.basic.manager.update.UpdateAgent;
 
@@ -10,7 +11,7 @@ import com.hitomi.basic.manager.update.UpdateAgent;
  * Created by hitomi on 2016/12/15.
  */
 
-public class DialogProgressBehavior implements UpdateAgent.OnProgressListener {
+public class DialogProgressBehavior implements UpdateAgent.OnDetailProgressListener {
 
     private Context mContext;
     private ProgressDialog mDialog;
@@ -36,6 +37,17 @@ public class DialogProgressBehavior implements UpdateAgent.OnProgressListener {
         }
     }
 
+    @Override
+    public void onProgress(int progress, long bytesLoaded, long bytesTotal, long speed, long eta) {
+        if (mDialog != null) {
+            mDialog.setProgress(progress);
+            if (speed > 0) {
+                mDialog.setMessage(String.format("下载中... %1$s/s, 剩余 %2$d 秒",
+                        Formatter.formatShortFileSize(mContext, speed), eta));
+            }
+        }
+    }
+
     @Override
     public void onFinish() {
         if (mDialog != null) {
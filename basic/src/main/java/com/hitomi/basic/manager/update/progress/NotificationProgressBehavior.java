@@ -4,6 +4,7 @@ import android.app.Notification;
 import android.app.NotificationManager;
 import android.content.Context;
 import android.support.v4.app.NotificationCompat;
+import android.text.format.Formatter;
 
 import com.hitomi.basic.manager.update.UpdateAgent;
 
@@ -11,11 +12,18 @@ import com.hitomi.basic.manager.update.UpdateAgent;
  * Created by hitomi on 2016/12/15.
  */
 
-public class NotificationProgressBehavior implements UpdateAgent.OnProgressListener {
+public class NotificationProgressBehavior implements UpdateAgent.OnDetailProgressListener {
+
+    /**
+     * 重建并发送通知的开销较大, 百分比不变时最多每秒刷新一次速度
+     */
+    private static final long SPEED_REFRESH_INTERVAL = 1000;
 
     private Context mContext;
     private int mNotifyId;
     private NotificationCompat.Builder mBuilder;
+    private int mLastProgress = -1;
+    private long mLastNotifyTime;
 
     public NotificationProgressBehavior(Context context, int notifyId) {
         mContext = context;
@@ -52,6 +60,22 @@ public class NotificationProgressBehavior implements UpdateAgent.OnProgressListe
         }
     }
 
+    @Override
+    public void onProgress(int progress, long bytesLoaded, long bytesTotal, long speed, long eta) {
+        long now = System.currentTimeMillis();
+        if (mBuilder == null
+                || (progress == mLastProgress && now - mLastNotifyTime < SPEED_REFRESH_INTERVAL)) {
+            return;
+        }
+        mLastProgress = progress;
+        mLastNotifyTime = now;
+        if (speed > 0) {
+            mBuilder.setContentText(String.format("%1$s/s, 剩余 %2$d 秒",
+                    Formatter.formatShortFileSize(mContext, speed), eta));
+        }
+        onProgress(progress);
+    }
+
     @Override
     public void onFinish() {
         NotificationManager nm = (NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE);
@@ -1,5 +1,9 @@
 package com.hitomi.basic.net;
 
+import android.util.Log;
+
+import com.hitomi.basic.net.adaptive.AdaptivePolicy;
+import com.hitomi.basic.net.builder.DownloadBuilder;
 import com.hitomi.basic.net.builder.GetBuilder;
 import com.hitomi.basic.net.builder.HeadBuilder;
 import com.hitomi.basic.net.builder.OtherRequestBuilder;
@@ -7,42 +11,99 @@ import com.hitomi.basic.net.builder.PostFileBuilder;
 import com.hitomi.basic.net.builder.PostFormBuilder;
 import com.hitomi.basic.net.builder.PostStringBuilder;
 import com.hitomi.basic.net.callback.Callback;
+import com.hitomi.basic.net.callback.FileCallBack;
+import com.hitomi.basic.net.dns.CachingDns;
+import com.hitomi.basic.net.dns.ConnectionWarmer;
+import com.hitomi.basic.net.offline.OfflineQueue;
+import com.hitomi.basic.net.offline.OfflineQueuedException;
+import com.hitomi.basic.net.request.CallRegistry;
+import com.hitomi.basic.net.request.CircuitBreaker;
+import com.hitomi.basic.net.request.InFlightRequests;
+import com.hitomi.basic.net.request.Priority;
+import com.hitomi.basic.net.request.PriorityDispatcher;
+import com.hitomi.basic.net.request.RequestBatch;
 import com.hitomi.basic.net.request.RequestCall;
+import com.hitomi.basic.net.request.RetryPolicy;
+import com.hitomi.basic.net.utils.NetScheduler;
 import com.hitomi.basic.net.utils.Platform;
 
 import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import okhttp3.Call;
+import okhttp3.Dispatcher;
+import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 
 /**
  * 一般的get请求 <br/>
  * 一般的post请求 <br/>
  * 基于Http的文件上传 <br/>
  * 文件下载 <br/>
+ * 断点续传、多线程分段下载 <br/>
  * 上传下载的进度回调 <br/>
  * 加载图片 <br/>
  * 支持请求回调，直接返回对象、对象集合 <br/>
  * 支持session的保持 <br/>
  * 支持自签名网站https的访问 <br/>
  * 支持取消某个请求 <br/>
+ * 支持批量请求, 结果一次性回调 <br/>
+ * 支持相同 GET 请求的去重 <br/>
+ * 支持按优先级调度请求 <br/>
+ * 支持失败重试与按 host 熔断 <br/>
+ * 支持按 host、路由统计请求耗时 (NetMetrics) <br/>
+ * 支持 DNS 缓存以及连接预热 <br/>
+ * 支持离线请求队列, 网络恢复后自动重放 <br/>
  */
 public class OkHttpUtils {
     public static final long DEFAULT_MILLISECONDS = 10_000L;
+    private static final String TAG = "OkHttpUtils";
+    private static final int MAX_TIMEOUT_CLIENTS = 8;
     private volatile static OkHttpUtils mInstance;
     private OkHttpClient mOkHttpClient;
     private Platform mPlatform;
+    private PriorityDispatcher mDispatcher;
+    private volatile CircuitBreaker mCircuitBreaker;
+    private CachingDns mDns;
+    private ConnectionWarmer mConnectionWarmer;
+    private volatile OfflineQueue mOfflineQueue;
+    private final InFlightRequests mInFlightRequests = new InFlightRequests();
+    private final CallRegistry mCallRegistry = new CallRegistry();
+    private final Map<String, OkHttpClient> mTimeoutClients = new LinkedHashMap<String, OkHttpClient>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, OkHttpClient> eldest) {
+            return size() > MAX_TIMEOUT_CLIENTS;
+        }
+    };
 
+    /**
+     * @param okHttpClient 不会被修改, 这里会基于它创建一个使用私有 Dispatcher 的 client (共享线程池、连接池等),
+     *                     {@link #getOkHttpClient()} 返回的是新建的 client
+     */
     public OkHttpUtils(OkHttpClient okHttpClient) {
         if (okHttpClient == null) {
-            mOkHttpClient = new OkHttpClient();
-        } else {
-            mOkHttpClient = okHttpClient;
+            okHttpClient = new OkHttpClient();
         }
 
         mPlatform = Platform.get();
+        // 普通请求的并发由 PriorityDispatcher 控制, 私有的 OkHttp Dispatcher 多留出余量, IMMEDIATE 请求才不会在 OkHttp 中排队
+        Dispatcher shared = okHttpClient.dispatcher();
+        mDispatcher = new PriorityDispatcher(shared.getMaxRequests(), shared.getMaxRequestsPerHost());
+        Dispatcher dispatcher = new Dispatcher(shared.executorService());
+        dispatcher.setMaxRequests(shared.getMaxRequests() + PriorityDispatcher.IMMEDIATE_HEADROOM);
+        dispatcher.setMaxRequestsPerHost(shared.getMaxRequestsPerHost() + PriorityDispatcher.IMMEDIATE_HEADROOM);
+        mOkHttpClient = okHttpClient.newBuilder().dispatcher(dispatcher).build();
     }
 
 
@@ -50,13 +111,57 @@ public class OkHttpUtils {
         if (mInstance == null) {
             synchronized (OkHttpUtils.class) {
                 if (mInstance == null) {
-                    mInstance = new OkHttpUtils(okHttpClient);
+                    mInstance = createInstance(okHttpClient == null
+                            ? new OkHttpClient.Builder() : okHttpClient.newBuilder());
                 }
             }
         }
         return mInstance;
     }
 
+    /**
+     * 初始化的同时在后台预先解析 hosts 的域名, 并为 okHttpClient 加上带 TTL 的 DNS 缓存 <br/>
+     * 默认不会发出请求, 需要预先建立连接时见 {@link ConnectionWarmer#setHeadPath(String)} <br/>
+     * 已经初始化过时 okHttpClient 不会生效, hosts 仍然会在现有的实例上预热, 但不会再加上 DNS 缓存和复用统计
+     *
+     * @param hosts 域名 (默认 https) 或者完整的 url
+     */
+    public static OkHttpUtils initClient(OkHttpClient okHttpClient, String... hosts) {
+        if (mInstance != null && mInstance.mDns == null) {
+            Log.w(TAG, "OkHttpUtils is already initialized, DNS cache is not installed, hosts are warmed up on the existing client");
+        }
+        if (mInstance == null) {
+            synchronized (OkHttpUtils.class) {
+                if (mInstance == null) {
+                    OkHttpClient.Builder builder = okHttpClient == null
+                            ? new OkHttpClient.Builder() : okHttpClient.newBuilder();
+                    CachingDns dns = new CachingDns();
+                    ConnectionWarmer warmer = new ConnectionWarmer(dns);
+                    builder.dns(dns).addNetworkInterceptor(warmer.networkInterceptor());
+                    OkHttpUtils instance = createInstance(builder);
+                    instance.mDns = dns;
+                    instance.mConnectionWarmer = warmer;
+                    mInstance = instance;
+                }
+            }
+        }
+        mInstance.warmUp(hosts);
+        return mInstance;
+    }
+
+    /**
+     * 单例由 {@link AdaptivePolicy} 统计吞吐量, 并按照网络等级调整 PriorityDispatcher 的并发数
+     */
+    private static OkHttpUtils createInstance(OkHttpClient.Builder builder) {
+        AdaptivePolicy policy = AdaptivePolicy.getInstance();
+        if (!builder.networkInterceptors().contains(policy.networkInterceptor())) {
+            builder.addNetworkInterceptor(policy.networkInterceptor());
+        }
+        OkHttpUtils instance = new OkHttpUtils(builder.build());
+        policy.bindDispatcher(instance.mDispatcher);
+        return instance;
+    }
+
     public static OkHttpUtils getInstance() {
         return initClient(null);
     }
@@ -93,43 +198,162 @@ public class OkHttpUtils {
         return new OtherRequestBuilder(METHOD.PATCH);
     }
 
+    public static DownloadBuilder download() {
+        return new DownloadBuilder();
+    }
+
+    public static RequestBatch batch() {
+        return new RequestBatch();
+    }
+
     public Executor getDelivery() {
-        return mPlatform.defaultCallbackExecutor();
+        return mPlatform.callbackExecutor();
+    }
+
+    /**
+     * 预先解析域名, 通过 {@link #getConnectionWarmer()} 设置了 HEAD 路径时同时建立连接 <br/>
+     * 只有通过 {@link #initClient(OkHttpClient, String...)} 初始化时才会统计连接的复用情况
+     */
+    public void warmUp(String... hosts) {
+        if (hosts == null || hosts.length == 0) return;
+        getConnectionWarmer().warmUp(mOkHttpClient, hosts);
+    }
+
+    /**
+     * @return 没有通过 {@link #initClient(OkHttpClient, String...)} 初始化时返回 null
+     */
+    public CachingDns getDns() {
+        return mDns;
+    }
+
+    public synchronized ConnectionWarmer getConnectionWarmer() {
+        if (mConnectionWarmer == null) {
+            mConnectionWarmer = new ConnectionWarmer(mDns);
+        }
+        return mConnectionWarmer;
     }
 
     public OkHttpClient getOkHttpClient() {
         return mOkHttpClient;
     }
 
+    /**
+     * 获取指定超时配置的 OkHttpClient, 每种超时配置只创建一次 <br/>
+     * 通过 newBuilder 创建, 与默认 client 共享 Dispatcher、ConnectionPool、拦截器等资源
+     */
+    public OkHttpClient getOkHttpClient(long connTimeOut, long readTimeOut, long writeTimeOut) {
+        String key = connTimeOut + ":" + readTimeOut + ":" + writeTimeOut;
+        synchronized (mTimeoutClients) {
+            OkHttpClient client = mTimeoutClients.get(key);
+            if (client == null) {
+                client = mOkHttpClient.newBuilder()
+                        .connectTimeout(connTimeOut, TimeUnit.MILLISECONDS)
+                        .readTimeout(readTimeOut, TimeUnit.MILLISECONDS)
+                        .writeTimeout(writeTimeOut, TimeUnit.MILLISECONDS)
+                        .build();
+                mTimeoutClients.put(key, client);
+            }
+            return client;
+        }
+    }
+
     public void execute(final RequestCall requestCall, Callback callback) {
         if (callback == null)
             callback = Callback.CALLBACK_DEFAULT;
-        final Callback finalCallback = callback;
         final int id = requestCall.getOkHttpRequest().getId();
+        // FileCallBack 边读边写入磁盘, 与其他请求合并会把整个响应体读入内存, 因此不参与去重
+        final String dedupKey = requestCall.isDeduplicate() && !(callback instanceof FileCallBack)
+                ? InFlightRequests.key(requestCall.getRequest()) : null;
+
+        if (dedupKey != null && mInFlightRequests.attach(dedupKey, requestCall, callback, id)) {
+            // 登记挂载请求自己的 Call, 使它可以按 tag、group、owner 单独取消
+            registerCall(requestCall.getCall(), requestCall.getGroup(), requestCall.getOwner());
+            return;
+        }
+        OfflineQueue offlineQueue = mOfflineQueue;
+        if (offlineQueue != null && !offlineQueue.isOnline() && canQueueOffline(requestCall)) {
+            queueOffline(requestCall, callback, id, new IOException("network unavailable"));
+            return;
+        }
+
+        executeAttempt(requestCall, callback, id, dedupKey);
+    }
+
+    private boolean canQueueOffline(RequestCall requestCall) {
+        String method = requestCall.getRequest().method();
+        return requestCall.isOffline() && !"GET".equals(method) && !"HEAD".equals(method);
+    }
+
+    /**
+     * 网络不通导致的失败, 网络恢复后重放可能成功; TLS 握手失败、证书错误等重放也不会成功的错误不算在内
+     */
+    private static boolean isConnectivityError(IOException e) {
+        return e instanceof UnknownHostException
+                || e instanceof ConnectException
+                || e instanceof SocketTimeoutException;
+    }
 
-        requestCall.getCall().enqueue(new okhttp3.Callback() {
+    /**
+     * 放入离线队列, 成功时以 {@link OfflineQueuedException} 回调失败, 否则以原来的异常回调失败
+     */
+    private void queueOffline(RequestCall requestCall, Callback callback, int id, IOException cause) {
+        IOException e = cause;
+        try {
+            e = new OfflineQueuedException(mOfflineQueue.add(requestCall.getRequest()), cause);
+        } catch (IOException ignored) {
+        }
+        sendFailResultCallback(requestCall.getCall(), e, callback, id);
+    }
+
+    private void executeAttempt(final RequestCall requestCall, final Callback callback, final int id,
+                                final String dedupKey) {
+        final String host = requestCall.getRequest().url().host();
+        final CircuitBreaker circuitBreaker = mCircuitBreaker;
+        if (circuitBreaker != null && !circuitBreaker.allowRequest(host)) {
+            sendFailResultCallback(requestCall.getCall(), new IOException("circuit breaker is open for host : " + host),
+                    callback, id, dedupKey);
+            return;
+        }
+
+        enqueue(requestCall, new okhttp3.Callback() {
             @Override
             public void onFailure(Call call, final IOException e) {
-                sendFailResultCallback(call, e, finalCallback, id);
+                if (circuitBreaker != null && !call.isCanceled()) {
+                    circuitBreaker.onFailure(host);
+                }
+                if (scheduleRetry(requestCall, callback, id, dedupKey, null, e)) {
+                    return;
+                }
+                OfflineQueue offlineQueue = mOfflineQueue;
+                if (offlineQueue != null && !call.isCanceled() && canQueueOffline(requestCall)
+                        && (!offlineQueue.isOnline() || isConnectivityError(e))) {
+                    queueOffline(requestCall, callback, id, e);
+                    return;
+                }
+                sendFailResultCallback(call, e, callback, id, dedupKey);
             }
 
             @Override
             public void onResponse(final Call call, final Response response) {
                 try {
-                    if (call.isCanceled()) {
-                        sendFailResultCallback(call, new IOException("Canceled!"), finalCallback, id);
+                    if (circuitBreaker != null) {
+                        if (response.code() >= 500) circuitBreaker.onFailure(host);
+                        else circuitBreaker.onSuccess(host);
+                    }
+                    if (!response.isSuccessful() && scheduleRetry(requestCall, callback, id, dedupKey, response, null)) {
                         return;
                     }
-
-                    if (!finalCallback.validateReponse(response, id)) {
-                        sendFailResultCallback(call, new IOException("request failed , reponse's code is : " + response.code()), finalCallback, id);
+                    if (dedupKey != null && call.isCanceled()) {
+                        sendFailResultCallback(call, new IOException("Canceled!"), callback, id, dedupKey);
                         return;
                     }
 
-                    Object o = finalCallback.parseNetworkResponse(response, id);
-                    sendSuccessResultCallback(o, finalCallback, id);
-                } catch (Exception e) {
-                    sendFailResultCallback(call, e, finalCallback, id);
+                    List<InFlightRequests.Follower> followers = detachFollowers(dedupKey, null);
+                    if (followers.isEmpty()) {
+                        handleResponse(call, response, callback, id);
+                    } else {
+                        fanOutResponse(call, response, callback, id, followers);
+                    }
                 } finally {
                     if (response.body() != null)
                         response.body().close();
@@ -139,6 +363,256 @@ public class OkHttpUtils {
         });
     }
 
+    /**
+     * 按照 {@link RetryPolicy} 延时重试 <br/>
+     * 退避期间上一次的 Call 依旧登记在 {@link CallRegistry} 中, 因此仍然可以按 tag、group、owner 取消
+     *
+     * @return true 表示已经安排重试
+     */
+    private boolean scheduleRetry(final RequestCall requestCall, final Callback callback, final int id,
+                                  final String dedupKey, Response response, IOException e) {
+        RetryPolicy policy = requestCall.getRetryPolicy();
+        final Call call = requestCall.getCall();
+        if (policy == null || call.isCanceled()
+                || !policy.shouldRetry(call.request(), requestCall.getAttempt(), response, e)) {
+            return false;
+        }
+
+        long delay = policy.delayMillis(requestCall.getAttempt(), response);
+        registerCall(call, requestCall.getGroup(), requestCall.getOwner());
+        NetScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mCallRegistry.unregister(call);
+                if (call.isCanceled()) {
+                    sendFailResultCallback(call, new IOException("Canceled!"), callback, id, dedupKey);
+                    return;
+                }
+                requestCall.newAttempt();
+                executeAttempt(requestCall, callback, id, dedupKey);
+            }
+        }, delay);
+        return true;
+    }
+
+    public void enqueue(RequestCall requestCall, okhttp3.Callback responseCallback) {
+        enqueue(requestCall.getCall(), requestCall.getGroup(), requestCall.getOwner(),
+                requestCall.getPriority(), responseCallback);
+    }
+
+    public void enqueue(Call call, Object group, Object owner, okhttp3.Callback responseCallback) {
+        enqueue(call, group, owner, Priority.NORMAL, responseCallback);
+    }
+
+    /**
+     * 所有异步请求的入队入口 <br/>
+     * 请求在执行期间登记在 {@link CallRegistry} 中以便按 tag、group、owner 取消,
+     * 并经过 {@link PriorityDispatcher} 按优先级排队后才交给 OkHttp
+     */
+    public void enqueue(final Call call, Object group, Object owner, final Priority priority,
+                        final okhttp3.Callback responseCallback) {
+        registerCall(call, group, owner);
+        final String host = call.request().url().host();
+        mDispatcher.enqueue(priority, host, new Runnable() {
+            @Override
+            public void run() {
+                call.enqueue(new okhttp3.Callback() {
+                    @Override
+                    public void onFailure(Call call, IOException e) {
+                        mCallRegistry.unregister(call);
+                        try {
+                            responseCallback.onFailure(call, e);
+                        } finally {
+                            mDispatcher.finished(priority, host);
+                        }
+                    }
+
+                    @Override
+                    public void onResponse(Call call, Response response) throws IOException {
+                        mCallRegistry.unregister(call);
+                        try {
+                            responseCallback.onResponse(call, response);
+                        } finally {
+                            mDispatcher.finished(priority, host);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void registerCall(Call call, Object group, Object owner) {
+        Object tag = call.request().tag();
+        mCallRegistry.register(call, tag == call.request() ? null : tag, group, owner);
+    }
+
+    /**
+     * @param circuitBreaker 按 host 熔断, 传 null 关闭熔断 (默认关闭)
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        mCircuitBreaker = circuitBreaker;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return mCircuitBreaker;
+    }
+
+    /**
+     * 设置离线请求队列, 只有开启了 {@link RequestCall#offline(boolean)} 的请求会进入队列, null 表示关闭
+     */
+    public void setOfflineQueue(OfflineQueue offlineQueue) {
+        mOfflineQueue = offlineQueue;
+    }
+
+    public OfflineQueue getOfflineQueue() {
+        return mOfflineQueue;
+    }
+
+    public PriorityDispatcher getDispatcher() {
+        return mDispatcher;
+    }
+
+    private void handleResponse(Call call, Response response, Callback callback, int id) {
+        try {
+            if (call.isCanceled()) {
+                sendFailResultCallback(call, new IOException("Canceled!"), callback, id);
+                return;
+            }
+
+            if (!callback.validateReponse(response, id)) {
+                sendFailResultCallback(call, new IOException("request failed , reponse's code is : " + response.code()), callback, id);
+                return;
+            }
+
+            Object o = callback.parseNetworkResponse(response, id);
+            sendSuccessResultCallback(o, callback, id);
+        } catch (Exception e) {
+            sendFailResultCallback(call, e, callback, id);
+        }
+    }
+
+    /**
+     * 把去重请求的结果分发给所有挂载的 Callback <br/>
+     * 全部是同一个 Callback 实例时只解析一次; 否则在响应体长度已知且不超过 {@link InFlightRequests#MAX_SHARED_BODY}
+     * 时先把响应体读入内存, 再由每个 Callback 各自解析, 这样每个 Callback 都会收到自己的 inProgress;
+     * 响应体过大或者长度未知时, 挂载的请求改为各自单独发出, 发出的请求照常流式处理
+     */
+    private void fanOutResponse(Call call, Response response, Callback callback, int id,
+                                List<InFlightRequests.Follower> followers) {
+        boolean sameCallback = true;
+        for (InFlightRequests.Follower follower : followers) {
+            if (follower.callback != callback) {
+                sameCallback = false;
+                break;
+            }
+        }
+
+        if (sameCallback) {
+            try {
+                if (call.isCanceled()) {
+                    throw new IOException("Canceled!");
+                }
+                if (!callback.validateReponse(response, id)) {
+                    throw new IOException("request failed , reponse's code is : " + response.code());
+                }
+                Object o = callback.parseNetworkResponse(response, id);
+                sendSuccessResultCallback(o, callback, id);
+                for (InFlightRequests.Follower follower : followers) {
+                    sendSuccessResultCallback(o, follower.callback, follower.id);
+                }
+            } catch (Exception e) {
+                sendFailResultCallback(call, e, callback, id);
+                for (InFlightRequests.Follower follower : followers) {
+                    sendFailResultCallback(call, e, follower.callback, follower.id);
+                }
+            }
+            return;
+        }
+
+        long contentLength = response.body() != null ? response.body().contentLength() : 0;
+        if (contentLength < 0 || contentLength > InFlightRequests.MAX_SHARED_BODY) {
+            for (InFlightRequests.Follower follower : followers) {
+                executeAttempt(follower.requestCall, follower.callback, follower.id, null);
+            }
+            handleResponse(call, response, callback, id);
+            return;
+        }
+
+        byte[] bytes;
+        MediaType contentType = response.body() != null ? response.body().contentType() : null;
+        try {
+            bytes = response.body() != null ? response.body().bytes() : new byte[0];
+        } catch (IOException e) {
+            sendFailResultCallback(call, e, callback, id);
+            for (InFlightRequests.Follower follower : followers) {
+                sendFailResultCallback(call, e, follower.callback, follower.id);
+            }
+            return;
+        }
+        handleResponse(call, response.newBuilder().body(ResponseBody.create(contentType, bytes)).build(), callback, id);
+        for (InFlightRequests.Follower follower : followers) {
+            Response copy = response.newBuilder().body(ResponseBody.create(contentType, bytes)).build();
+            handleResponse(call, copy, follower.callback, follower.id);
+        }
+    }
+
+    public InFlightRequests getInFlightRequests() {
+        return mInFlightRequests;
+    }
+
+
+    /**
+     * 失败结果同时分发给挂载在该请求上的去重请求 <br/>
+     * 发出的请求是被取消的时候只影响它自己, 挂载的请求由 {@link #handOff(String)} 接替发出
+     */
+    private void sendFailResultCallback(Call call, Exception e, Callback callback, int id, String dedupKey) {
+        sendFailResultCallback(call, e, callback, id);
+        if (dedupKey == null) return;
+        if (call != null && call.isCanceled()) {
+            handOff(dedupKey);
+            return;
+        }
+        for (InFlightRequests.Follower follower : detachFollowers(dedupKey, null)) {
+            sendFailResultCallback(call, e, follower.callback, follower.id);
+        }
+    }
+
+    /**
+     * 请求结束时取出挂载的去重请求并注销它们的 Call, 已经单独取消的请求直接回调失败
+     *
+     * @param followers 为 null 时从 {@link InFlightRequests} 中取出
+     * @return 未取消的挂载请求
+     */
+    private List<InFlightRequests.Follower> detachFollowers(String dedupKey, List<InFlightRequests.Follower> followers) {
+        if (followers == null) {
+            if (dedupKey == null) return Collections.<InFlightRequests.Follower>emptyList();
+            followers = mInFlightRequests.detach(dedupKey);
+        }
+        List<InFlightRequests.Follower> live = new ArrayList<>(followers.size());
+        for (InFlightRequests.Follower follower : followers) {
+            Call followerCall = follower.requestCall.getCall();
+            mCallRegistry.unregister(followerCall);
+            if (followerCall.isCanceled()) {
+                sendFailResultCallback(followerCall, new IOException("Canceled!"), follower.callback, follower.id);
+            } else {
+                live.add(follower);
+            }
+        }
+        return live;
+    }
+
+    /**
+     * 发出的请求被取消, 由第一个未取消的挂载请求以它自己的 Call 重新发出, 其余请求改为挂载在它上面
+     */
+    private void handOff(String dedupKey) {
+        List<InFlightRequests.Follower> canceled = new ArrayList<>();
+        InFlightRequests.Follower next = mInFlightRequests.handOff(dedupKey, canceled);
+        detachFollowers(dedupKey, canceled);
+        if (next != null) {
+            mCallRegistry.unregister(next.requestCall.getCall());
+            executeAttempt(next.requestCall, next.callback, next.id, dedupKey);
+        }
+    }
 
     public void sendFailResultCallback(final Call call, final Exception e, final Callback callback, final int id) {
         if (callback == null) return;
@@ -163,17 +637,24 @@ public class OkHttpUtils {
         });
     }
 
+    public CallRegistry getCallRegistry() {
+        return mCallRegistry;
+    }
+
     public void cancelTag(Object tag) {
-        for (Call call : mOkHttpClient.dispatcher().queuedCalls()) {
-            if (tag.equals(call.request().tag())) {
-                call.cancel();
-            }
-        }
-        for (Call call : mOkHttpClient.dispatcher().runningCalls()) {
-            if (tag.equals(call.request().tag())) {
-                call.cancel();
-            }
-        }
+        RequestBatch.cancelTag(tag);
+        mCallRegistry.cancelTag(tag);
+    }
+
+    public void cancelGroup(Object group) {
+        mCallRegistry.cancelGroup(group);
+    }
+
+    /**
+     * 取消某个生命周期持有者 (例如 Activity) 发出的所有请求
+     */
+    public void cancelOwner(Object owner) {
+        mCallRegistry.cancelOwner(owner);
     }
 
     public static class METHOD {
@@ -0,0 +1,248 @@
+package com.hitomi.basic.net.adaptive;
+
+import com.hitomi.basic.net.OkHttpUtils;
+import com.hitomi.basic.net.request.PriorityDispatcher;
+
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * 根据网络类型以及实测吞吐量调整请求策略 <br/>
+ * <ul>
+ * <li>吞吐量：{@link #networkInterceptor()} 统计每个响应体的下载速度, 以指数加权移动平均 (EWMA) 平滑</li>
+ * <li>网络类型：由 NetworkManager 在网络切换时通过 {@link #onNetworkChanged(NetworkClass, boolean)} 推送,
+ * 作为没有足够样本时的估计值, 网络切换后重新采样</li>
+ * <li>据此给出图片质量、预加载深度以及最大并发数, 绑定 {@link PriorityDispatcher} 后自动调整其并发数</li>
+ * </ul>
+ * {@link OkHttpUtils#initClient(okhttp3.OkHttpClient)} 创建的单例会自动添加 {@link #networkInterceptor()}
+ * 并绑定自己的 PriorityDispatcher, 自行创建的 OkHttpUtils 需要手动调用
+ */
+public class AdaptivePolicy {
+    /**
+     * 小于该大小的响应体主要受延迟影响, 不作为吞吐量样本
+     */
+    private static final long MIN_SAMPLE_BYTES = 16 * 1024;
+    private static final int MIN_SAMPLES = 3;
+    private static final double ALPHA = 0.25;
+
+    private static volatile AdaptivePolicy sInstance;
+
+    private double ewmaKbps;
+    private int samples;
+    private NetworkClass prior = NetworkClass.GOOD;
+    private boolean metered;
+    private volatile NetworkClass current = NetworkClass.GOOD;
+
+    private PriorityDispatcher dispatcher;
+    private int dispatcherDefaultMax;
+
+    private final CopyOnWriteArrayList<OnNetworkClassChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final Interceptor networkInterceptor = new Interceptor() {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Response response = chain.proceed(chain.request());
+            final ResponseBody body = response.body();
+            if (body == null) return response;
+
+            BufferedSource source = Okio.buffer(new ForwardingSource(body.source()) {
+                // 从第一次读取开始计时, 响应头到达之后迟迟不读取 (例如回调排队) 的时间不计入
+                private long start = -1;
+                private long bytes;
+                private boolean sampled;
+
+                @Override
+                public long read(Buffer sink, long byteCount) throws IOException {
+                    if (start == -1) {
+                        start = System.currentTimeMillis();
+                    }
+                    long read = super.read(sink, byteCount);
+                    if (read == -1) {
+                        sample();
+                    } else {
+                        bytes += read;
+                    }
+                    return read;
+                }
+
+                private void sample() {
+                    if (sampled) return;
+                    sampled = true;
+                    addSample(bytes, System.currentTimeMillis() - start);
+                }
+            });
+            return response.newBuilder()
+                    .body(ResponseBody.create(body.contentType(), body.contentLength(), source))
+                    .build();
+        }
+    };
+
+    public interface OnNetworkClassChangeListener {
+        /**
+         * 在 {@link OkHttpUtils#getDelivery()} 中回调
+         */
+        void onNetworkClassChanged(NetworkClass networkClass);
+    }
+
+    public static AdaptivePolicy getInstance() {
+        if (sInstance == null) {
+            synchronized (AdaptivePolicy.class) {
+                if (sInstance == null) {
+                    sInstance = new AdaptivePolicy();
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * 需要作为网络拦截器添加到 OkHttpClient 中, 只统计完整读取的响应体
+     */
+    public Interceptor networkInterceptor() {
+        return networkInterceptor;
+    }
+
+    /**
+     * 网络切换时调用, 丢弃之前的吞吐量样本
+     *
+     * @param prior   按照网络类型估计的等级
+     * @param metered 是否按流量计费
+     */
+    public void onNetworkChanged(NetworkClass prior, boolean metered) {
+        synchronized (this) {
+            this.prior = prior;
+            this.metered = metered;
+            samples = 0;
+            ewmaKbps = 0;
+        }
+        update();
+    }
+
+    void addSample(long bytes, long millis) {
+        if (bytes < MIN_SAMPLE_BYTES || millis <= 0) return;
+        double kbps = bytes * 8.0 / millis;
+        synchronized (this) {
+            ewmaKbps = samples == 0 ? kbps : ALPHA * kbps + (1 - ALPHA) * ewmaKbps;
+            samples++;
+        }
+        update();
+    }
+
+    private void update() {
+        final NetworkClass networkClass;
+        PriorityDispatcher target;
+        int maxRequests;
+        synchronized (this) {
+            networkClass = samples >= MIN_SAMPLES ? NetworkClass.of(ewmaKbps) : prior;
+            if (networkClass == current) return;
+            current = networkClass;
+            target = dispatcher;
+            maxRequests = getMaxParallelRequests(networkClass);
+        }
+        if (target != null) {
+            target.setMaxRequests(maxRequests);
+        }
+        for (final OnNetworkClassChangeListener listener : listeners) {
+            OkHttpUtils.getInstance().getDelivery().execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onNetworkClassChanged(networkClass);
+                }
+            });
+        }
+    }
+
+    public NetworkClass getNetworkClass() {
+        return current;
+    }
+
+    /**
+     * @return 平滑后的下行吞吐量, 样本不足时返回 -1
+     */
+    public synchronized double getThroughputKbps() {
+        return samples >= MIN_SAMPLES ? ewmaKbps : -1;
+    }
+
+    public synchronized boolean isMetered() {
+        return metered;
+    }
+
+    /**
+     * 按照当前网络等级从低到高选择图片规格, 例如 choose("_s.jpg", "_m.jpg", "_l.jpg", ".jpg")
+     */
+    public <T> T choose(T poor, T moderate, T good, T excellent) {
+        switch (current) {
+            case POOR:
+                return poor;
+            case MODERATE:
+                return moderate;
+            case GOOD:
+                return good;
+            default:
+                return excellent;
+        }
+    }
+
+    /**
+     * @return 列表等场景预加载的页数 / 条目批数, 计费网络下减半
+     */
+    public int getPrefetchDepth() {
+        int depth = choose(0, 1, 3, 5);
+        return isMetered() ? depth / 2 : depth;
+    }
+
+    public int getMaxParallelRequests() {
+        return getMaxParallelRequests(current);
+    }
+
+    private int getMaxParallelRequests(NetworkClass networkClass) {
+        switch (networkClass) {
+            case POOR:
+                return 2;
+            case MODERATE:
+                return 4;
+            default:
+                return dispatcherDefaultMax > 0 ? dispatcherDefaultMax : 64;
+        }
+    }
+
+    /**
+     * 按照网络等级调整 dispatcher 的最大并发数, 传入 null 解除绑定并恢复原来的并发数
+     */
+    public void bindDispatcher(PriorityDispatcher dispatcher) {
+        PriorityDispatcher previous;
+        int previousMax;
+        int maxRequests = 0;
+        synchronized (this) {
+            previous = this.dispatcher;
+            previousMax = dispatcherDefaultMax;
+            this.dispatcher = dispatcher;
+            if (dispatcher != null) {
+                dispatcherDefaultMax = previous == dispatcher ? previousMax : dispatcher.getMaxRequests();
+                maxRequests = getMaxParallelRequests(current);
+            }
+        }
+        if (previous != null && previous != dispatcher) {
+            previous.setMaxRequests(previousMax);
+        }
+        if (dispatcher != null) {
+            dispatcher.setMaxRequests(maxRequests);
+        }
+    }
+
+    public void addOnNetworkClassChangeListener(OnNetworkClassChangeListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeOnNetworkClassChangeListener(OnNetworkClassChangeListener listener) {
+        listeners.remove(listener);
+    }
+}
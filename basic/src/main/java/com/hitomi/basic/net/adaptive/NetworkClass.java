@@ -0,0 +1,30 @@
+package com.hitomi.basic.net.adaptive;
+
+/**
+ * 网络质量等级, 按照实测下行吞吐量划分
+ */
+public enum NetworkClass {
+    /**
+     * 低于 150 kbps
+     */
+    POOR,
+    /**
+     * 150 ~ 550 kbps
+     */
+    MODERATE,
+    /**
+     * 550 ~ 2000 kbps
+     */
+    GOOD,
+    /**
+     * 高于 2000 kbps
+     */
+    EXCELLENT;
+
+    static NetworkClass of(double kbps) {
+        if (kbps < 150) return POOR;
+        if (kbps < 550) return MODERATE;
+        if (kbps < 2000) return GOOD;
+        return EXCELLENT;
+    }
+}
@@ -0,0 +1,86 @@
+package com.hitomi.basic.net.builder;
+
+import com.hitomi.basic.net.download.DownloadCall;
+import com.hitomi.basic.net.utils.Exceptions;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 断点续传、多线程分段下载
+ */
+public class DownloadBuilder {
+    private String url;
+    private Object tag;
+    private Map<String, String> headers;
+    private int id;
+    private String destFileDir;
+    private String destFileName;
+    private int segments = 3;
+    private String md5;
+
+    public DownloadBuilder id(int id) {
+        this.id = id;
+        return this;
+    }
+
+    public DownloadBuilder url(String url) {
+        this.url = url;
+        return this;
+    }
+
+    public DownloadBuilder tag(Object tag) {
+        this.tag = tag;
+        return this;
+    }
+
+    public DownloadBuilder headers(Map<String, String> headers) {
+        this.headers = headers;
+        return this;
+    }
+
+    public DownloadBuilder addHeader(String key, String val) {
+        if (this.headers == null) {
+            headers = new LinkedHashMap<>();
+        }
+        headers.put(key, val);
+        return this;
+    }
+
+    /**
+     * @param destFileDir  目标文件存储的文件夹路径
+     * @param destFileName 目标文件存储的文件名
+     */
+    public DownloadBuilder dest(String destFileDir, String destFileName) {
+        this.destFileDir = destFileDir;
+        this.destFileName = destFileName;
+        return this;
+    }
+
+    /**
+     * 并行下载的最大分段数, 文件较小时会自动减少分段
+     */
+    public DownloadBuilder segments(int segments) {
+        this.segments = segments;
+        return this;
+    }
+
+    /**
+     * 下载完成后用于校验文件完整性的 md5
+     */
+    public DownloadBuilder md5(String md5) {
+        this.md5 = md5;
+        return this;
+    }
+
+    public DownloadCall build() {
+        if (url == null) {
+            Exceptions.illegalArgument("url can not be null.");
+        }
+        if (destFileDir == null || destFileName == null) {
+            Exceptions.illegalArgument("dest file can not be null.");
+        }
+        return new DownloadCall(url, tag, headers, id, new File(destFileDir, destFileName), segments, md5);
+    }
+}
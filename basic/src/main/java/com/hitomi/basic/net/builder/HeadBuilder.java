@@ -10,6 +10,6 @@ import com.hitomi.basic.net.request.RequestCall;
 public class HeadBuilder extends GetBuilder {
     @Override
     public RequestCall build() {
-        return new OtherRequest(null, null, OkHttpUtils.METHOD.HEAD, url, tag, params, headers, id).build();
+        return decorate(new OtherRequest(null, null, OkHttpUtils.METHOD.HEAD, url, tag, params, headers, id).build());
     }
 }
@@ -1,6 +1,8 @@
 package com.hitomi.basic.net.builder;
 
+import com.hitomi.basic.net.request.Priority;
 import com.hitomi.basic.net.request.RequestCall;
+import com.hitomi.basic.net.request.RetryPolicy;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -14,6 +16,8 @@ public abstract class OkHttpRequestBuilder<T extends OkHttpRequestBuilder> {
     protected Map<String, String> headers;
     protected Map<String, String> params;
     protected int id;
+    protected Priority priority = Priority.NORMAL;
+    protected RetryPolicy retryPolicy;
 
     public T id(int id) {
         this.id = id;
@@ -44,5 +48,28 @@ public abstract class OkHttpRequestBuilder<T extends OkHttpRequestBuilder> {
         return (T) this;
     }
 
+    /**
+     * 请求的优先级, 默认为 {@link Priority#NORMAL}
+     */
+    public T priority(Priority priority) {
+        this.priority = priority;
+        return (T) this;
+    }
+
+    /**
+     * 失败后的重试策略, 默认不重试
+     */
+    public T retry(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return (T) this;
+    }
+
     public abstract RequestCall build();
+
+    /**
+     * 把构建器上与执行相关的配置应用到 RequestCall 上
+     */
+    protected RequestCall decorate(RequestCall requestCall) {
+        return requestCall.priority(priority).retryPolicy(retryPolicy);
+    }
 }
@@ -27,7 +27,7 @@ public class PostFileBuilder extends OkHttpRequestBuilder<PostFileBuilder> {
 
     @Override
     public RequestCall build() {
-        return new PostFileRequest(url, tag, params, headers, file, mediaType, id).build();
+        return decorate(new PostFileRequest(url, tag, params, headers, file, mediaType, id).build());
     }
 
 
@@ -14,10 +14,19 @@ import java.util.Map;
  */
 public class PostFormBuilder extends OkHttpRequestBuilder<PostFormBuilder> implements HasParamsable {
     private List<FileInput> files = new ArrayList<>();
+    private boolean compress;
+
+    /**
+     * 使用 gzip 压缩请求体, 服务端需要支持 Content-Encoding: gzip
+     */
+    public PostFormBuilder compress() {
+        this.compress = true;
+        return this;
+    }
 
     @Override
     public RequestCall build() {
-        return new PostFormRequest(url, tag, params, headers, files, id).build();
+        return decorate(new PostFormRequest(url, tag, params, headers, files, id).compress(compress).build());
     }
 
     public PostFormBuilder files(String key, Map<String, File> files) {
@@ -11,6 +11,7 @@ import okhttp3.MediaType;
 public class PostStringBuilder extends OkHttpRequestBuilder<PostStringBuilder> {
     private String content;
     private MediaType mediaType;
+    private boolean compress;
 
 
     public PostStringBuilder content(String content) {
@@ -23,9 +24,17 @@ public class PostStringBuilder extends OkHttpRequestBuilder<PostStringBuilder> {
         return this;
     }
 
+    /**
+     * 使用 gzip 压缩请求体, 服务端需要支持 Content-Encoding: gzip
+     */
+    public PostStringBuilder compress() {
+        this.compress = true;
+        return this;
+    }
+
     @Override
     public RequestCall build() {
-        return new PostStringRequest(url, tag, params, headers, content, mediaType, id).build();
+        return decorate(new PostStringRequest(url, tag, params, headers, content, mediaType, id).compress(compress).build());
     }
 
 
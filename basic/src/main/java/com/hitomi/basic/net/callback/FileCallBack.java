@@ -3,16 +3,28 @@ package com.hitomi.basic.net.callback;
 import com.hitomi.basic.net.OkHttpUtils;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 
 import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
 
 /**
  * Created by zhy on 15/12/15.
  */
 public abstract class FileCallBack extends Callback<File> {
+    /**
+     * 每次从网络读取的最大字节数
+     */
+    private static final long SEGMENT_SIZE = 64 * 1024;
+    /**
+     * 进度回调的节流, 两次回调之间至少间隔 PROGRESS_INTERVAL 并且至少前进总长度的 1/PROGRESS_STEPS,
+     * 读取结束时总会回调一次最终进度
+     */
+    private static final long PROGRESS_INTERVAL = 200;
+    private static final long PROGRESS_STEPS = 500;
     /**
      * 目标文件存储的文件夹路径
      */
@@ -36,51 +48,61 @@ public abstract class FileCallBack extends Callback<File> {
 
 
     public File saveFile(Response response, final int id) throws IOException {
-        InputStream is = null;
-        byte[] buf = new byte[2048];
-        int len = 0;
-        FileOutputStream fos = null;
+        BufferedSource source = response.body().source();
+        BufferedSink sink = null;
         try {
-            is = response.body().byteStream();
             final long total = response.body().contentLength();
 
             long sum = 0;
+            long lastProgressTime = 0;
+            long lastProgressBytes = 0;
 
             File dir = new File(destFileDir);
             if (!dir.exists()) {
                 dir.mkdirs();
             }
             File file = new File(dir, destFileName);
-            fos = new FileOutputStream(file);
-            while ((len = is.read(buf)) != -1) {
+            sink = Okio.buffer(Okio.sink(file));
+            // 直接把 source 中的 Segment 转移到 sink 的缓冲区, 避免经过 byte[] 的逐块拷贝
+            Buffer buffer = sink.buffer();
+            long len;
+            while ((len = source.read(buffer, SEGMENT_SIZE)) != -1) {
                 sum += len;
-                fos.write(buf, 0, len);
-                final long finalSum = sum;
-                OkHttpUtils.getInstance().getDelivery().execute(new Runnable() {
-                    @Override
-                    public void run() {
-
-                        inProgress(finalSum * 1.0f / total, total, id);
-                    }
-                });
+                sink.emitCompleteSegments();
+                long now = System.currentTimeMillis();
+                if (now - lastProgressTime >= PROGRESS_INTERVAL
+                        && sum - lastProgressBytes >= total / PROGRESS_STEPS) {
+                    lastProgressTime = now;
+                    lastProgressBytes = sum;
+                    postProgress(sum, total, id);
+                }
+            }
+            sink.flush();
+            if (sum != lastProgressBytes) {
+                postProgress(sum, total, id);
             }
-            fos.flush();
 
             return file;
 
         } finally {
             try {
                 response.body().close();
-                if (is != null) is.close();
-            } catch (IOException e) {
-            }
-            try {
-                if (fos != null) fos.close();
+                if (sink != null) sink.close();
             } catch (IOException e) {
             }
 
         }
     }
 
+    private void postProgress(final long sum, final long total, final int id) {
+        OkHttpUtils.getInstance().getDelivery().execute(new Runnable() {
+            @Override
+            public void run() {
+
+                inProgress(sum * 1.0f / total, total, id);
+            }
+        });
+    }
+
 
 }
@@ -3,7 +3,11 @@ package com.hitomi.basic.net.cookie;
 import com.hitomi.basic.net.cookie.store.CookieStore;
 import com.hitomi.basic.net.utils.Exceptions;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import okhttp3.Cookie;
 import okhttp3.CookieJar;
@@ -11,9 +15,30 @@ import okhttp3.HttpUrl;
 
 /**
  * Created by zhy on 16/3/10.
+ * <p>
+ * loadForRequest 的结果按 (host, path, 是否 https) 缓存, 收到新的 cookie 或调用 {@link #invalidate()} 后失效,
+ * 缓存中最早过期的 cookie 过期后也会失效; 绕过本类直接修改 CookieStore 后需要调用 {@link #invalidate()}
  */
 public class CookieJarImpl implements CookieJar {
+    private static final int MAX_CACHE_SIZE = 128;
+
     private CookieStore cookieStore;
+    private final Map<String, Entry> cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_CACHE_SIZE;
+        }
+    };
+
+    private static class Entry {
+        final List<Cookie> cookies;
+        final long expiresAt;
+
+        Entry(List<Cookie> cookies, long expiresAt) {
+            this.cookies = cookies;
+            this.expiresAt = expiresAt;
+        }
+    }
 
     public CookieJarImpl(CookieStore cookieStore) {
         if (cookieStore == null) Exceptions.illegalArgument("cookieStore can not be null.");
@@ -23,11 +48,33 @@ public class CookieJarImpl implements CookieJar {
     @Override
     public synchronized void saveFromResponse(HttpUrl url, List<Cookie> cookies) {
         cookieStore.add(url, cookies);
+        cache.clear();
     }
 
     @Override
     public synchronized List<Cookie> loadForRequest(HttpUrl url) {
-        return cookieStore.get(url);
+        String key = (url.isHttps() ? "s:" : ":") + url.host() + url.encodedPath();
+        long now = System.currentTimeMillis();
+        Entry entry = cache.get(key);
+        if (entry != null && entry.expiresAt >= now) {
+            return entry.cookies;
+        }
+
+        List<Cookie> cookies = cookieStore.get(url);
+        long expiresAt = Long.MAX_VALUE;
+        for (Cookie cookie : cookies) {
+            expiresAt = Math.min(expiresAt, cookie.expiresAt());
+        }
+        cookies = Collections.unmodifiableList(new ArrayList<>(cookies));
+        cache.put(key, new Entry(cookies, expiresAt));
+        return cookies;
+    }
+
+    /**
+     * 清空 loadForRequest 的缓存
+     */
+    public synchronized void invalidate() {
+        cache.clear();
     }
 
     public CookieStore getCookieStore() {
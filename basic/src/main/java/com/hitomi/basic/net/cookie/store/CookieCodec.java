@@ -0,0 +1,107 @@
+package com.hitomi.basic.net.cookie.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import okhttp3.Cookie;
+import okio.ByteString;
+
+/**
+ * Cookie 的紧凑二进制编码, 同一个 host 的所有 cookie 编码为一个 Base64 字符串 <br/>
+ * 格式：版本号、数量, 然后每个 cookie 依次为 name、value、expiresAt、domain、path、flags <br/>
+ * Base64 使用 Okio 的实现, 输出与 android.util.Base64 的 NO_WRAP 相同, 不依赖 Android 也可以在 JVM 上测试
+ */
+class CookieCodec {
+    private static final int VERSION = 1;
+
+    private static final int FLAG_SECURE = 1;
+    private static final int FLAG_HTTP_ONLY = 1 << 1;
+    private static final int FLAG_HOST_ONLY = 1 << 2;
+
+    private CookieCodec() {
+    }
+
+    static String encode(Collection<Cookie> cookies) {
+        return ByteString.of(toBytes(cookies)).base64();
+    }
+
+    /**
+     * @return 数据损坏时返回空集合
+     */
+    static List<Cookie> decode(String encoded) {
+        ByteString bytes = encoded == null ? null : ByteString.decodeBase64(encoded);
+        if (bytes == null) {
+            return new ArrayList<Cookie>();
+        }
+        return fromBytes(bytes.toByteArray());
+    }
+
+    static byte[] toBytes(Collection<Cookie> cookies) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * cookies.size() + 8);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(VERSION);
+            out.writeInt(cookies.size());
+            for (Cookie cookie : cookies) {
+                out.writeUTF(cookie.name());
+                out.writeUTF(cookie.value());
+                out.writeLong(cookie.expiresAt());
+                out.writeUTF(cookie.domain());
+                out.writeUTF(cookie.path());
+                int flags = 0;
+                if (cookie.secure()) flags |= FLAG_SECURE;
+                if (cookie.httpOnly()) flags |= FLAG_HTTP_ONLY;
+                if (cookie.hostOnly()) flags |= FLAG_HOST_ONLY;
+                out.writeByte(flags);
+            }
+            out.flush();
+        } catch (IOException e) {
+            // ByteArrayOutputStream 不会抛出 IOException
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return 数据损坏时返回空集合
+     */
+    static List<Cookie> fromBytes(byte[] data) {
+        List<Cookie> cookies = new ArrayList<>();
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readByte() != VERSION) return cookies;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                String value = in.readUTF();
+                long expiresAt = in.readLong();
+                String domain = in.readUTF();
+                String path = in.readUTF();
+                int flags = in.readByte();
+
+                Cookie.Builder builder = new Cookie.Builder()
+                        .name(name)
+                        .value(value)
+                        .expiresAt(expiresAt)
+                        .path(path);
+                if ((flags & FLAG_HOST_ONLY) != 0) {
+                    builder.hostOnlyDomain(domain);
+                } else {
+                    builder.domain(domain);
+                }
+                if ((flags & FLAG_SECURE) != 0) builder.secure();
+                if ((flags & FLAG_HTTP_ONLY) != 0) builder.httpOnly();
+                cookies.add(builder.build());
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            cookies.clear();
+        }
+        return cookies;
+    }
+}
@@ -0,0 +1,180 @@
+package com.hitomi.basic.net.cookie.store;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Cookie;
+import okhttp3.HttpUrl;
+
+/**
+ * 按可注册域名 (如 a.b.example.com -> example.com) 索引的 cookie 集合 <br/>
+ * 查询时只需遍历同一可注册域名下的 cookie, 再按 RFC 6265 的域名、路径、secure 规则
+ * ({@link Cookie#matches(HttpUrl)}) 过滤; 过期时间保存在最小堆中, 清理过期 cookie 为 O(log n)
+ */
+class CookieIndex {
+    /**
+     * 常见的二级后缀, 如 com.cn、co.uk, 此时可注册域名取最后三段
+     */
+    private static final Set<String> SECOND_LEVEL = new HashSet<>();
+
+    static {
+        String[] labels = {"com", "net", "org", "gov", "edu", "co", "ac", "or", "ne", "go", "mil"};
+        for (String label : labels) {
+            SECOND_LEVEL.add(label);
+        }
+    }
+
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Cookie>> domains = new ConcurrentHashMap<>();
+    private final PriorityQueue<Cookie> expiry = new PriorityQueue<>(16, new Comparator<Cookie>() {
+        @Override
+        public int compare(Cookie lhs, Cookie rhs) {
+            return lhs.expiresAt() < rhs.expiresAt() ? -1 : (lhs.expiresAt() == rhs.expiresAt() ? 0 : 1);
+        }
+    });
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * 没有公共后缀列表, 采用启发式规则：IP 地址或单段主机名原样返回, 否则取最后两段,
+     * 倒数第二段为常见二级后缀且顶级域为两个字母 (国家域名) 时取最后三段
+     */
+    static String registrableDomain(String host) {
+        if (host.indexOf(':') >= 0 || Character.isDigit(host.charAt(host.length() - 1))) return host;
+        int last = host.lastIndexOf('.');
+        if (last <= 0) return host;
+        int second = host.lastIndexOf('.', last - 1);
+        if (second < 0) return host;
+        String tld = host.substring(last + 1);
+        String sld = host.substring(second + 1, last);
+        if (tld.length() == 2 && SECOND_LEVEL.contains(sld)) {
+            int third = host.lastIndexOf('.', second - 1);
+            return third < 0 ? host : host.substring(third + 1);
+        }
+        return host.substring(second + 1);
+    }
+
+    static String token(Cookie cookie) {
+        return cookie.name() + ';' + cookie.domain() + ';' + cookie.path();
+    }
+
+    /**
+     * @return 被替换的旧 cookie, 没有时返回 null
+     */
+    Cookie put(Cookie cookie) {
+        Cookie old = domainCookies(registrableDomain(cookie.domain()), true).put(token(cookie), cookie);
+        if (old == null) {
+            size.incrementAndGet();
+        }
+        if (cookie.persistent()) {
+            synchronized (expiry) {
+                expiry.add(cookie);
+                // 被替换或删除的旧条目留在堆中, 数量过多时按当前内容重建
+                if (expiry.size() > 64 && expiry.size() > size.get() * 2) {
+                    rebuildExpiry();
+                }
+            }
+        }
+        return old;
+    }
+
+    boolean remove(Cookie cookie) {
+        ConcurrentHashMap<String, Cookie> map = domains.get(registrableDomain(cookie.domain()));
+        // 堆中的旧条目在 pruneExpired 时按引用校验后忽略, 不在这里线性删除
+        if (map != null && map.remove(token(cookie)) != null) {
+            size.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    List<Cookie> get(HttpUrl url) {
+        List<Cookie> ret = new ArrayList<>();
+        ConcurrentHashMap<String, Cookie> map = domains.get(registrableDomain(url.host()));
+        if (map == null) return ret;
+        long now = System.currentTimeMillis();
+        for (Cookie cookie : map.values()) {
+            if (cookie.expiresAt() >= now && cookie.matches(url)) {
+                ret.add(cookie);
+            }
+        }
+        return ret;
+    }
+
+    Collection<Cookie> domainCookies(String domain) {
+        ConcurrentHashMap<String, Cookie> map = domains.get(domain);
+        return map == null ? new ArrayList<Cookie>() : map.values();
+    }
+
+    Set<String> domains() {
+        return domains.keySet();
+    }
+
+    List<Cookie> all() {
+        List<Cookie> ret = new ArrayList<>();
+        for (ConcurrentHashMap<String, Cookie> map : domains.values()) {
+            ret.addAll(map.values());
+        }
+        return ret;
+    }
+
+    void clear() {
+        domains.clear();
+        size.set(0);
+        synchronized (expiry) {
+            expiry.clear();
+        }
+    }
+
+    private void rebuildExpiry() {
+        expiry.clear();
+        for (ConcurrentHashMap<String, Cookie> map : domains.values()) {
+            for (Cookie cookie : map.values()) {
+                if (cookie.persistent()) {
+                    expiry.add(cookie);
+                }
+            }
+        }
+    }
+
+    /**
+     * 移除所有已过期的 cookie
+     *
+     * @return 有 cookie 被移除的可注册域名
+     */
+    Set<String> pruneExpired() {
+        Set<String> changed = new HashSet<>();
+        long now = System.currentTimeMillis();
+        while (true) {
+            Cookie cookie;
+            synchronized (expiry) {
+                cookie = expiry.peek();
+                if (cookie == null || cookie.expiresAt() >= now) break;
+                expiry.poll();
+            }
+            String domain = registrableDomain(cookie.domain());
+            ConcurrentHashMap<String, Cookie> map = domains.get(domain);
+            // 只移除仍然是同一个实例的 cookie, 已被替换的旧条目直接丢弃
+            if (map != null && map.remove(token(cookie), cookie)) {
+                size.decrementAndGet();
+                changed.add(domain);
+            }
+        }
+        return changed;
+    }
+
+    private ConcurrentHashMap<String, Cookie> domainCookies(String domain, boolean create) {
+        ConcurrentHashMap<String, Cookie> map = domains.get(domain);
+        if (map == null && create) {
+            ConcurrentHashMap<String, Cookie> created = new ConcurrentHashMap<>();
+            map = domains.putIfAbsent(domain, created);
+            if (map == null) map = created;
+        }
+        return map;
+    }
+}
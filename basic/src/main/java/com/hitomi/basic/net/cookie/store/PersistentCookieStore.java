@@ -2,21 +2,24 @@ package com.hitomi.basic.net.cookie.store;
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.text.TextUtils;
 import android.util.Log;
 
+import com.hitomi.basic.net.utils.NetScheduler;
+
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import okhttp3.Cookie;
 import okhttp3.HttpUrl;
@@ -45,9 +48,27 @@ public class PersistentCookieStore implements CookieStore {
     private static final String LOG_TAG = "PersistentCookieStore";
     private static final String COOKIE_PREFS = "CookiePrefsFile";
     private static final String COOKIE_NAME_PREFIX = "cookie_";
+    /**
+     * 新格式的 key 前缀, 每个可注册域名一条记录, value 为 {@link CookieCodec} 编码的该域名下全部持久 cookie
+     */
+    private static final String HOST_PREFIX = "host_";
+    /**
+     * 写入合并的延迟, 一次响应 (以及紧随其后的响应) 设置的所有 cookie 只写一次
+     */
+    private static final long PERSIST_DELAY = 300;
 
-    private final HashMap<String, ConcurrentHashMap<String, Cookie>> cookies;
+    private final CookieIndex cookies = new CookieIndex();
     private final SharedPreferences cookiePrefs;
+    private final Set<String> dirtyDomains = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> legacyKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicBoolean persistScheduled = new AtomicBoolean();
+    private final Runnable persistTask = new Runnable() {
+        @Override
+        public void run() {
+            persistScheduled.set(false);
+            persist();
+        }
+    };
 
     /**
      * Construct a persistent cookie store.
@@ -55,26 +76,64 @@ public class PersistentCookieStore implements CookieStore {
      * @param context Context to attach cookie store to
      */
     public PersistentCookieStore(Context context) {
-        cookiePrefs = context.getSharedPreferences(COOKIE_PREFS, 0);
-        cookies = new HashMap<String, ConcurrentHashMap<String, Cookie>>();
+        this(context.getSharedPreferences(COOKIE_PREFS, 0));
+    }
+
+    /**
+     * 直接使用指定的 SharedPreferences, 便于在 JVM 上测试
+     */
+    PersistentCookieStore(SharedPreferences prefs) {
+        cookiePrefs = prefs;
 
         // Load any previously stored cookies into the store
         Map<String, ?> prefsMap = cookiePrefs.getAll();
         for (Map.Entry<String, ?> entry : prefsMap.entrySet()) {
-            if (((String) entry.getValue()) != null && !((String) entry.getValue()).startsWith(COOKIE_NAME_PREFIX)) {
-                String[] cookieNames = TextUtils.split((String) entry.getValue(), ",");
-                for (String name : cookieNames) {
-                    String encodedCookie = cookiePrefs.getString(COOKIE_NAME_PREFIX + name, null);
-                    if (encodedCookie != null) {
-                        Cookie decodedCookie = decodeCookie(encodedCookie);
-                        if (decodedCookie != null) {
-                            if (!cookies.containsKey(entry.getKey()))
-                                cookies.put(entry.getKey(), new ConcurrentHashMap<String, Cookie>());
-                            cookies.get(entry.getKey()).put(name, decodedCookie);
-                        }
+            if (!(entry.getValue() instanceof String)) continue;
+            String key = entry.getKey();
+            String value = (String) entry.getValue();
+            if (key.startsWith(HOST_PREFIX)) {
+                String domain = key.substring(HOST_PREFIX.length());
+                for (Cookie cookie : CookieCodec.decode(value)) {
+                    if (!isCookieExpired(cookie)) {
+                        load(cookie, domain, key);
                     }
                 }
+            } else if (!key.startsWith(COOKIE_NAME_PREFIX)) {
+                loadLegacy(key, value);
+            }
+        }
+        if (!legacyKeys.isEmpty()) {
+            schedulePersist();
+        }
+    }
 
+    /**
+     * 迁移旧格式：host -> 逗号分隔的 cookie 名称, cookie_名称 -> ObjectOutputStream 序列化后的十六进制字符串
+     */
+    private void loadLegacy(String host, String names) {
+        legacyKeys.add(host);
+        for (String name : names.split(",")) {
+            if (name.length() == 0) continue;
+            legacyKeys.add(COOKIE_NAME_PREFIX + name);
+            String encodedCookie = cookiePrefs.getString(COOKIE_NAME_PREFIX + name, null);
+            if (encodedCookie == null) continue;
+            Cookie decodedCookie = decodeCookie(encodedCookie);
+            if (decodedCookie != null && !isCookieExpired(decodedCookie)) {
+                load(decodedCookie, null, null);
+            }
+        }
+    }
+
+    /**
+     * 旧数据按 host 保存, 与 cookie 所属的可注册域名不一致时写入新的 key 并删除旧 key
+     */
+    private void load(Cookie cookie, String storedDomain, String storedKey) {
+        cookies.put(cookie);
+        String domain = CookieIndex.registrableDomain(cookie.domain());
+        if (!domain.equals(storedDomain)) {
+            dirtyDomains.add(domain);
+            if (storedKey != null) {
+                legacyKeys.add(storedKey);
             }
         }
     }
@@ -83,31 +142,17 @@ public class PersistentCookieStore implements CookieStore {
         return cookie.expiresAt() < System.currentTimeMillis();
     }
 
+    /**
+     * 会话 cookie 只保存在内存中, 过期的 cookie (服务端用来删除 cookie) 会移除同名 cookie
+     */
     protected void add(HttpUrl uri, Cookie cookie) {
-        String name = getCookieToken(cookie);
-
-        if (cookie.persistent()) {
-            if (!cookies.containsKey(uri.host())) {
-                cookies.put(uri.host(), new ConcurrentHashMap<String, Cookie>());
-            }
-            cookies.get(uri.host()).put(name, cookie);
+        if (isCookieExpired(cookie)) {
+            if (!cookies.remove(cookie)) return;
         } else {
-            if (cookies.containsKey(uri.host())) {
-                cookies.get(uri.host()).remove(name);
-            } else {
-                return;
-            }
+            Cookie old = cookies.put(cookie);
+            if (!cookie.persistent() && (old == null || !old.persistent())) return;
         }
-
-        // Save cookie into persistent store
-        SharedPreferences.Editor prefsWriter = cookiePrefs.edit();
-        prefsWriter.putString(uri.host(), TextUtils.join(",", cookies.get(uri.host()).keySet()));
-        prefsWriter.putString(COOKIE_NAME_PREFIX + name, encodeCookie(new SerializableHttpCookie(cookie)));
-        prefsWriter.apply();
-    }
-
-    protected String getCookieToken(Cookie cookie) {
-        return cookie.name() + cookie.domain();
+        dirtyDomains.add(CookieIndex.registrableDomain(cookie.domain()));
     }
 
     @Override
@@ -115,65 +160,92 @@ public class PersistentCookieStore implements CookieStore {
         for (Cookie cookie : cookies) {
             add(uri, cookie);
         }
+        if (!dirtyDomains.isEmpty()) {
+            schedulePersist();
+        }
     }
 
+    /**
+     * 返回同一可注册域名下与 uri 的域名、路径、协议匹配的 cookie,
+     * 过期的 cookie 在读取时跳过, 等到下一次写入时再从存储中清除
+     */
     @Override
     public List<Cookie> get(HttpUrl uri) {
-        ArrayList<Cookie> ret = new ArrayList<Cookie>();
-        if (cookies.containsKey(uri.host())) {
-            Collection<Cookie> cookies = this.cookies.get(uri.host()).values();
-            for (Cookie cookie : cookies) {
-                if (isCookieExpired(cookie)) {
-                    remove(uri, cookie);
-                } else {
-                    ret.add(cookie);
-                }
-            }
-        }
-
-        return ret;
+        return cookies.get(uri);
     }
 
     @Override
     public boolean removeAll() {
+        cookies.clear();
+        dirtyDomains.clear();
+        legacyKeys.clear();
         SharedPreferences.Editor prefsWriter = cookiePrefs.edit();
         prefsWriter.clear();
         prefsWriter.apply();
-        cookies.clear();
         return true;
     }
 
-
     @Override
     public boolean remove(HttpUrl uri, Cookie cookie) {
-        String name = getCookieToken(cookie);
-
-        if (cookies.containsKey(uri.host()) && cookies.get(uri.host()).containsKey(name)) {
-            cookies.get(uri.host()).remove(name);
-
-            SharedPreferences.Editor prefsWriter = cookiePrefs.edit();
-            if (cookiePrefs.contains(COOKIE_NAME_PREFIX + name)) {
-                prefsWriter.remove(COOKIE_NAME_PREFIX + name);
-            }
-            prefsWriter.putString(uri.host(), TextUtils.join(",", cookies.get(uri.host()).keySet()));
-            prefsWriter.apply();
-
-            return true;
-        } else {
-            return false;
-        }
+        if (!cookies.remove(cookie)) return false;
+        dirtyDomains.add(CookieIndex.registrableDomain(cookie.domain()));
+        schedulePersist();
+        return true;
     }
 
     @Override
     public List<Cookie> getCookies() {
-        ArrayList<Cookie> ret = new ArrayList<Cookie>();
-        for (String key : cookies.keySet())
-            ret.addAll(cookies.get(key).values());
+        return cookies.all();
+    }
 
-        return ret;
+    private void schedulePersist() {
+        if (persistScheduled.compareAndSet(false, true)) {
+            NetScheduler.schedule(persistTask, PERSIST_DELAY);
+        }
     }
 
+    /**
+     * 立即写入尚未持久化的修改, 不等待合并写入的延迟
+     */
+    void flush() {
+        persist();
+    }
+
+    /**
+     * 把发生变化的域名一次性写入 SharedPreferences, 同时清除已过期的 cookie 以及旧格式的数据
+     */
+    private synchronized void persist() {
+        dirtyDomains.addAll(cookies.pruneExpired());
+        if (dirtyDomains.isEmpty() && legacyKeys.isEmpty()) return;
 
+        SharedPreferences.Editor prefsWriter = cookiePrefs.edit();
+        for (String key : legacyKeys) {
+            prefsWriter.remove(key);
+        }
+        legacyKeys.clear();
+
+        Iterator<String> iterator = dirtyDomains.iterator();
+        while (iterator.hasNext()) {
+            String domain = iterator.next();
+            iterator.remove();
+            List<Cookie> persistent = new ArrayList<>();
+            for (Cookie cookie : cookies.domainCookies(domain)) {
+                if (cookie.persistent() && !isCookieExpired(cookie)) {
+                    persistent.add(cookie);
+                }
+            }
+            if (persistent.isEmpty()) {
+                prefsWriter.remove(HOST_PREFIX + domain);
+            } else {
+                prefsWriter.putString(HOST_PREFIX + domain, CookieCodec.encode(persistent));
+            }
+        }
+        prefsWriter.apply();
+    }
+
+    /**
+     * 旧版本使用的编码方式, 目前只用于迁移旧数据
+     */
     protected String encodeCookie(SerializableHttpCookie cookie) {
         if (cookie == null)
             return null;
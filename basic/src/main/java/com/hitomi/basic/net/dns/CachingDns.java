@@ -0,0 +1,118 @@
+package com.hitomi.basic.net.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Dns;
+
+/**
+ * 带 TTL 的进程内 DNS 缓存 <br/>
+ * 缓存过期后重新解析, 解析失败时 (如网络切换的瞬间) 在 staleMillis 内继续使用过期的结果 <br/>
+ * 最多缓存 {@link #MAX_CACHE_SIZE} 个域名, 超出时淘汰最久未使用的域名
+ */
+public class CachingDns implements Dns {
+    private static final int MAX_CACHE_SIZE = 128;
+
+    private final Dns delegate;
+    private final long ttlMillis;
+    private final long staleMillis;
+    private final Map<String, Entry> cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_CACHE_SIZE;
+        }
+    };
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private static class Entry {
+        final List<InetAddress> addresses;
+        final long resolvedAt;
+
+        Entry(List<InetAddress> addresses, long resolvedAt) {
+            this.addresses = addresses;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+
+    public CachingDns() {
+        this(Dns.SYSTEM, 60_000, 10 * 60_000);
+    }
+
+    /**
+     * @param ttlMillis   缓存有效时间
+     * @param staleMillis 解析失败时, 过期多久以内的结果仍然可以使用
+     */
+    public CachingDns(Dns delegate, long ttlMillis, long staleMillis) {
+        this.delegate = delegate;
+        this.ttlMillis = ttlMillis;
+        this.staleMillis = staleMillis;
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        long now = System.currentTimeMillis();
+        Entry entry;
+        synchronized (cache) {
+            entry = cache.get(hostname);
+        }
+        if (entry != null && now - entry.resolvedAt < ttlMillis) {
+            hits.incrementAndGet();
+            return entry.addresses;
+        }
+
+        misses.incrementAndGet();
+        try {
+            List<InetAddress> addresses = delegate.lookup(hostname);
+            synchronized (cache) {
+                cache.put(hostname, new Entry(addresses, System.currentTimeMillis()));
+            }
+            return addresses;
+        } catch (UnknownHostException e) {
+            if (entry != null && now - entry.resolvedAt < ttlMillis + staleMillis) {
+                return entry.addresses;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 预先解析, 结果放入缓存
+     */
+    public void prefetch(String hostname) {
+        try {
+            lookup(hostname);
+        } catch (UnknownHostException ignored) {
+        }
+    }
+
+    public void evict(String hostname) {
+        synchronized (cache) {
+            cache.remove(hostname);
+        }
+    }
+
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+}
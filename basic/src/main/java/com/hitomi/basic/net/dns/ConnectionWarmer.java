@@ -0,0 +1,142 @@
+package com.hitomi.basic.net.dns;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Connection;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 在后台预先解析域名, 并可选地预先建立连接 <br/>
+ * 默认只做域名解析, 不会发出任何请求; OkHttp 没有单独建立连接的接口, 只有通过 {@link #setHeadPath(String)}
+ * 开启后才会向每个 host 的该路径发送一个真实的 HEAD 请求, 由此建立的连接留在 OkHttp 的连接池中供之后的请求复用 <br/>
+ * <b>注意：HEAD 请求会出现在服务端的访问日志和统计中, 建议指向一个专门的轻量接口 (例如 "/ping")</b> <br/>
+ * 需要把 {@link #networkInterceptor()} 添加到 OkHttpClient 中才能统计预热连接的复用情况
+ */
+public class ConnectionWarmer {
+    private static final Object WARM_TAG = new Object();
+
+    private final CachingDns dns;
+    private volatile String headPath;
+    private final Map<Connection, Boolean> warmedConnections = new WeakHashMap<>();
+    private final AtomicLong warmed = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+
+    private final Interceptor networkInterceptor = new Interceptor() {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Request request = chain.request();
+            Connection connection = chain.connection();
+            if (connection != null) {
+                synchronized (warmedConnections) {
+                    if (request.tag() == WARM_TAG) {
+                        if (warmedConnections.put(connection, Boolean.TRUE) == null) {
+                            warmed.incrementAndGet();
+                        }
+                    } else {
+                        requests.incrementAndGet();
+                        if (warmedConnections.containsKey(connection)) {
+                            reused.incrementAndGet();
+                        }
+                    }
+                }
+            }
+            return chain.proceed(request);
+        }
+    };
+
+    /**
+     * @param dns 可以为 null, 此时只预建连接
+     */
+    public ConnectionWarmer(CachingDns dns) {
+        this.dns = dns;
+    }
+
+    public Interceptor networkInterceptor() {
+        return networkInterceptor;
+    }
+
+    /**
+     * @param headPath 预热时发送 HEAD 请求的路径, 例如 "/ping"; null 表示只解析域名, 不发出请求 (默认)
+     */
+    public void setHeadPath(String headPath) {
+        this.headPath = headPath;
+    }
+
+    public String getHeadPath() {
+        return headPath;
+    }
+
+    /**
+     * 域名解析是阻塞的, 在 client 的 Dispatcher 线程池中执行, 不占用 NetScheduler 的定时线程
+     *
+     * @param hosts 域名 (默认 https) 或者完整的 url, 如 "api.example.com"、"http://img.example.com:8080"
+     */
+    public void warmUp(final OkHttpClient client, String... hosts) {
+        for (String host : hosts) {
+            final HttpUrl url = HttpUrl.parse(host.contains("://") ? host : "https://" + host);
+            if (url == null) continue;
+            client.dispatcher().executorService().execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (dns != null) {
+                        dns.prefetch(url.host());
+                    } else {
+                        try {
+                            client.dns().lookup(url.host());
+                        } catch (UnknownHostException ignored) {
+                        }
+                    }
+                    String path = headPath;
+                    if (path == null) return;
+                    Request request = new Request.Builder()
+                            .url(url.newBuilder().encodedPath(path.startsWith("/") ? path : "/" + path).build())
+                            .head()
+                            .tag(WARM_TAG)
+                            .build();
+                    client.newCall(request).enqueue(new Callback() {
+                        @Override
+                        public void onFailure(Call call, IOException e) {
+                        }
+
+                        @Override
+                        public void onResponse(Call call, Response response) throws IOException {
+                            response.body().close();
+                        }
+                    });
+                }
+            });
+        }
+    }
+
+    /**
+     * @return 预热成功的连接数
+     */
+    public long getWarmedConnectionCount() {
+        return warmed.get();
+    }
+
+    /**
+     * @return 预热之外的网络请求数
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * @return 复用了预热连接的请求数
+     */
+    public long getReusedCount() {
+        return reused.get();
+    }
+}
@@ -0,0 +1,600 @@
+package com.hitomi.basic.net.download;
+
+import com.hitomi.basic.net.OkHttpUtils;
+import com.hitomi.basic.net.callback.Callback;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import okhttp3.Call;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 支持断点续传的多线程分段下载 <br/>
+ * <ul>
+ * <li>先使用 Range: bytes=0-0 探测文件大小以及服务端是否支持 Range</li>
+ * <li>支持 Range 时将文件切分为多段并行下载, 每一段通过 FileChannel 按位置写入同一个临时文件</li>
+ * <li>每一段的进度定期持久化到 sidecar 文件, 进程被杀死后再次下载只会请求缺失的部分</li>
+ * <li>需要校验 md5 时在写入的同时增量计算 (见 {@link StreamingMd5}), 计算状态随分段记录一起持久化,
+ * 下载完成后不需要再把整个文件读一遍</li>
+ * <li>下载完成后校验文件长度以及 md5 (可选), 通过后重命名为目标文件</li>
+ * <li>分段请求没有返回 206 说明服务端资源已经变化, 取消其他分段后丢弃本地记录, 重新探测并从头下载一次</li>
+ * </ul>
+ */
+public class DownloadCall {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+    /**
+     * 进度在写入线程中节流, 两次回调之间至少间隔 PROGRESS_INTERVAL 并且至少前进总长度的 1/PROGRESS_STEPS
+     * (不少于 PROGRESS_MIN_BYTES), 主线程每秒最多收到几次进度消息
+     */
+    private static final long PROGRESS_INTERVAL = 200;
+    private static final long PROGRESS_STEPS = 500;
+    private static final long PROGRESS_MIN_BYTES = 16 * 1024;
+    private static final long SAVE_INTERVAL = 1000;
+
+    private final String url;
+    private final Object tag;
+    private final Map<String, String> headers;
+    private final int id;
+    private final File destFile;
+    private final File tempFile;
+    private final File recordFile;
+    private final int segmentCount;
+    private final String md5;
+
+    private final List<Call> calls = new ArrayList<>();
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private final AtomicInteger remaining = new AtomicInteger();
+    private final AtomicLong streamed = new AtomicLong();
+    private final AtomicBoolean restarted = new AtomicBoolean();
+    /**
+     * 写入临时文件时持有读锁, 重新开始时持有写锁, 保证旧的分段线程不会再写入重新开始后的文件
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private Callback callback;
+    /**
+     * 每次重新开始加一, 请求回调只处理发出时所属的那一代, 旧的回调直接忽略
+     */
+    private volatile int generation;
+    private volatile DownloadRecord record;
+    private int recordGeneration;
+    private volatile StreamingMd5 digest;
+    /**
+     * 在探测线程中写入, 在分段线程中读取
+     */
+    private volatile long total = -1;
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+    private long lastProgressTime;
+    private long lastProgressBytes;
+    private long lastSaveTime;
+
+    public DownloadCall(String url, Object tag, Map<String, String> headers, int id,
+                        File destFile, int segmentCount, String md5) {
+        this.url = url;
+        this.tag = tag;
+        this.headers = headers;
+        this.id = id;
+        this.destFile = destFile;
+        this.segmentCount = Math.max(1, segmentCount);
+        this.md5 = md5;
+        tempFile = new File(destFile.getPath() + ".tmp");
+        recordFile = new File(destFile.getPath() + ".cfg");
+    }
+
+    /**
+     * 可以在主线程调用, 读取断点记录、打开临时文件等磁盘操作都在 OkHttp 的线程池中执行
+     */
+    public void execute(Callback<File> callback) {
+        this.callback = callback == null ? Callback.CALLBACK_DEFAULT : callback;
+        this.callback.onBefore(newRequest().build(), id);
+
+        final int gen = generation;
+        OkHttpUtils.getInstance().getOkHttpClient().dispatcher().executorService().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (finished.get()) return;
+                try {
+                    resumeOrProbe(gen);
+                } catch (RuntimeException e) {
+                    failIfCurrent(gen, null, e);
+                }
+            }
+        });
+    }
+
+    private void resumeOrProbe(int gen) {
+        File dir = destFile.getParentFile();
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+        }
+
+        DownloadRecord saved = DownloadRecord.load(recordFile, url);
+        if (saved != null && tempFile.length() == saved.total) {
+            total = saved.total;
+            if (md5 != null) {
+                digest = StreamingMd5.restore(saved.getDigestState());
+            }
+            recordGeneration = gen;
+            record = saved;
+            startSegments(null, gen);
+            return;
+        }
+        probe();
+    }
+
+    private void probe() {
+        final int gen = generation;
+        enqueue(newRequest().header("Range", "bytes=0-0").build(), new okhttp3.Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                failIfCurrent(gen, call, e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try {
+                    if (response.code() == 206) {
+                        long length = parseTotal(response.header("Content-Range"));
+                        response.body().close();
+                        if (length > 0) {
+                            total = length;
+                            int count = (int) Math.max(1, Math.min(segmentCount, length / MIN_SEGMENT_SIZE));
+                            if (md5 != null) {
+                                digest = new StreamingMd5();
+                            }
+                            recordGeneration = gen;
+                            record = new DownloadRecord(url, response.header("ETag"),
+                                    response.header("Last-Modified"), length, count);
+                            startSegments(call, gen);
+                        } else {
+                            downloadWhole(gen);
+                        }
+                    } else if (response.isSuccessful()) {
+                        // 服务端不支持 Range, 直接使用探测请求的响应单线程下载
+                        writeWhole(gen, call, response);
+                    } else {
+                        failIfCurrent(gen, call, new DownloadException(DownloadException.HTTP_STATUS, response.code(),
+                                "request failed , reponse's code is : " + response.code()));
+                    }
+                } catch (Exception e) {
+                    failIfCurrent(gen, call, e);
+                } finally {
+                    response.body().close();
+                }
+            }
+        });
+    }
+
+    public void cancel() {
+        fail(null, new DownloadException(DownloadException.CANCELED, "Canceled!"));
+    }
+
+    public File getDestFile() {
+        return destFile;
+    }
+
+    private void downloadWhole(final int gen) {
+        enqueue(newRequest().build(), new okhttp3.Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                failIfCurrent(gen, call, e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try {
+                    if (!response.isSuccessful()) {
+                        throw new DownloadException(DownloadException.HTTP_STATUS, response.code(),
+                                "request failed , reponse's code is : " + response.code());
+                    }
+                    writeWhole(gen, call, response);
+                } catch (Exception e) {
+                    failIfCurrent(gen, call, e);
+                } finally {
+                    response.body().close();
+                }
+            }
+        });
+    }
+
+    private void writeWhole(int gen, Call call, Response response) throws IOException {
+        total = response.body().contentLength();
+        recordFile.delete();
+        if (md5 != null) {
+            digest = new StreamingMd5();
+        }
+        synchronized (this) {
+            try {
+                randomAccessFile = new RandomAccessFile(tempFile, "rw");
+                randomAccessFile.setLength(0);
+            } catch (IOException e) {
+                throw diskError(e);
+            }
+            channel = randomAccessFile.getChannel();
+        }
+
+        InputStream is = response.body().byteStream();
+        byte[] buf = new byte[BUFFER_SIZE];
+        long position = 0;
+        int len;
+        while (!finished.get() && (len = is.read(buf)) != -1) {
+            position += write(gen, buf, len, position);
+            streamed.addAndGet(len);
+            onBytesWritten();
+        }
+        if (!finished.get()) {
+            complete(call);
+        }
+    }
+
+    private void startSegments(Call call, int gen) {
+        DownloadRecord r = record;
+        try {
+            synchronized (this) {
+                randomAccessFile = new RandomAccessFile(tempFile, "rw");
+                if (randomAccessFile.length() != r.total) {
+                    randomAccessFile.setLength(r.total);
+                }
+                channel = randomAccessFile.getChannel();
+            }
+            r.save(recordFile);
+        } catch (IOException e) {
+            fail(call, diskError(e));
+            return;
+        }
+
+        int pending = 0;
+        for (int i = 0; i < r.segmentCount(); i++) {
+            if (!r.isSegmentComplete(i)) pending++;
+        }
+        remaining.set(pending);
+        if (pending == 0) {
+            complete(call);
+            return;
+        }
+        for (int i = 0; i < r.segmentCount(); i++) {
+            if (!r.isSegmentComplete(i)) {
+                downloadSegment(r, gen, i);
+            }
+        }
+    }
+
+    private void downloadSegment(final DownloadRecord r, final int gen, final int index) {
+        Request.Builder builder = newRequest()
+                .header("Range", "bytes=" + r.position(index) + "-" + r.ends[index]);
+        if (r.validator() != null) {
+            builder.header("If-Range", r.validator());
+        }
+
+        enqueue(builder.build(), new okhttp3.Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                failIfCurrent(gen, call, e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try {
+                    if (response.code() != 206) {
+                        restart(gen, call, response.code());
+                        return;
+                    }
+                    writeSegment(r, gen, index, response.body().byteStream());
+                    if (finished.get()) return;
+                    if (!r.isSegmentComplete(index)) {
+                        throw new DownloadException(DownloadException.INCOMPLETE, "segment " + index + " incomplete");
+                    }
+                    if (segmentFinished(r, gen)) {
+                        complete(call);
+                    }
+                } catch (Exception e) {
+                    failIfCurrent(gen, call, e);
+                } finally {
+                    response.body().close();
+                }
+            }
+        });
+    }
+
+    /**
+     * 服务端资源已经变化或者不再支持 Range <br/>
+     * 第一次发生时取消其他分段, 等它们停止写入后丢弃本地记录, 重新探测并从头下载; 再次发生时下载失败
+     */
+    private void restart(int gen, Call call, int code) {
+        boolean retry;
+        lock.writeLock().lock();
+        try {
+            // 其他分段已经触发了重新开始, 或者下载已经结束
+            if (gen != generation || finished.get()) return;
+            retry = restarted.compareAndSet(false, true);
+            if (retry) {
+                generation++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (!retry) {
+            fail(call, new DownloadException(DownloadException.RESOURCE_CHANGED, code,
+                    "resource changed , reponse's code is : " + code));
+            recordFile.delete();
+            tempFile.delete();
+            return;
+        }
+
+        synchronized (calls) {
+            for (Call c : calls) {
+                c.cancel();
+            }
+            calls.clear();
+        }
+        closeFile();
+        recordFile.delete();
+        tempFile.delete();
+        digest = null;
+        total = -1;
+        streamed.set(0);
+        synchronized (this) {
+            lastProgressBytes = 0;
+        }
+        probe();
+    }
+
+    private void writeSegment(DownloadRecord r, int gen, int index, InputStream is) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        long position = r.position(index);
+        long end = r.ends[index];
+        int len;
+        while (!finished.get() && position <= end
+                && (len = is.read(buf, 0, (int) Math.min(buf.length, end - position + 1))) != -1) {
+            position += write(gen, buf, len, position);
+            r.advance(index, len);
+            onBytesWritten();
+        }
+    }
+
+    private int write(int gen, byte[] buf, int len, long offset) throws IOException {
+        lock.readLock().lock();
+        try {
+            if (gen != generation) {
+                throw new DownloadException(DownloadException.CANCELED, "Canceled!");
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(buf, 0, len);
+            long position = offset;
+            try {
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            } catch (IOException e) {
+                throw diskError(e);
+            }
+            StreamingMd5 d = digest;
+            if (d != null) {
+                d.onWrite(offset, buf, len);
+            }
+            return len;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 一段下载完成后, 把 md5 的计算位置推进到已经连续下载完成的位置
+     *
+     * @return true 表示所有分段都已完成
+     */
+    private boolean segmentFinished(DownloadRecord r, int gen) throws IOException {
+        lock.readLock().lock();
+        try {
+            if (gen != generation) return false;
+            StreamingMd5 d = digest;
+            if (d != null) {
+                try {
+                    d.catchUp(channel, r.contiguous(d.position()));
+                } catch (IOException e) {
+                    throw diskError(e);
+                }
+            }
+            return remaining.decrementAndGet() == 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private String finishDigest() throws IOException {
+        StreamingMd5 d = digest;
+        if (d == null) {
+            d = new StreamingMd5();
+        }
+        try {
+            d.catchUp(channel, channel.size());
+        } catch (IOException e) {
+            throw diskError(e);
+        }
+        return d.hexDigest();
+    }
+
+    private void onBytesWritten() {
+        long now = System.currentTimeMillis();
+        long current = downloaded();
+        boolean publish = false;
+        boolean save = false;
+        synchronized (this) {
+            if (now - lastProgressTime >= PROGRESS_INTERVAL
+                    && current - lastProgressBytes >= Math.max(PROGRESS_MIN_BYTES, total / PROGRESS_STEPS)) {
+                lastProgressTime = now;
+                lastProgressBytes = current;
+                publish = true;
+            }
+            if (record != null && now - lastSaveTime >= SAVE_INTERVAL) {
+                lastSaveTime = now;
+                save = true;
+            }
+        }
+        if (publish) {
+            postProgress(current, total);
+        }
+        if (save) {
+            saveRecordQuietly();
+        }
+    }
+
+    private long downloaded() {
+        DownloadRecord r = record;
+        return r != null && recordGeneration == generation ? r.downloaded() : streamed.get();
+    }
+
+    private void complete(Call call) {
+        if (!finished.compareAndSet(false, true)) return;
+        try {
+            String actual = md5 != null ? finishDigest() : null;
+            closeFile();
+            if (total > 0 && tempFile.length() != total) {
+                throw new DownloadException(DownloadException.INCOMPLETE,
+                        "download incomplete : " + tempFile.length() + "/" + total);
+            }
+            if (md5 != null && !md5.equalsIgnoreCase(actual)) {
+                tempFile.delete();
+                recordFile.delete();
+                throw new DownloadException(DownloadException.VERIFY, "md5 verify failed");
+            }
+            if (destFile.exists()) {
+                destFile.delete();
+            }
+            if (!tempFile.renameTo(destFile)) {
+                throw new DownloadException(DownloadException.DISK_IO, "can not rename " + tempFile + " to " + destFile);
+            }
+            recordFile.delete();
+            postProgress(total, total);
+            OkHttpUtils.getInstance().sendSuccessResultCallback(destFile, callback, id);
+        } catch (IOException e) {
+            OkHttpUtils.getInstance().sendFailResultCallback(callOrDefault(call), e, callback, id);
+        }
+    }
+
+    /**
+     * 旧的一代请求在重新开始之后失败属于正常情况, 直接忽略
+     */
+    private void failIfCurrent(int gen, Call call, Exception e) {
+        if (gen == generation) {
+            fail(call, e);
+        }
+    }
+
+    private void fail(Call call, Exception e) {
+        if (!finished.compareAndSet(false, true)) return;
+        synchronized (calls) {
+            for (Call c : calls) {
+                c.cancel();
+            }
+        }
+        saveRecordQuietly();
+        closeFile();
+        OkHttpUtils.getInstance().sendFailResultCallback(callOrDefault(call), e, callback, id);
+    }
+
+    /**
+     * 取消或者写文件失败时可能还没有可用的 Call, 这时交给 Callback 最近发出的请求,
+     * 一个请求也没有发出时交给一个未执行的、代表本次下载的 Call
+     */
+    private Call callOrDefault(Call call) {
+        if (call != null) return call;
+        synchronized (calls) {
+            if (!calls.isEmpty()) {
+                return calls.get(calls.size() - 1);
+            }
+        }
+        return OkHttpUtils.getInstance().getOkHttpClient().newCall(newRequest().build());
+    }
+
+    private void enqueue(Request request, okhttp3.Callback responseCallback) {
+        Call call = OkHttpUtils.getInstance().getOkHttpClient().newCall(request);
+        synchronized (calls) {
+            calls.add(call);
+        }
+        if (finished.get()) {
+            call.cancel();
+        }
+        OkHttpUtils.getInstance().enqueue(call, null, null, responseCallback);
+    }
+
+    private Request.Builder newRequest() {
+        Request.Builder builder = new Request.Builder().url(url).tag(tag);
+        if (headers != null) {
+            for (String key : headers.keySet()) {
+                builder.header(key, headers.get(key));
+            }
+        }
+        return builder;
+    }
+
+    private void postProgress(final long current, final long total) {
+        if (total <= 0) return;
+        OkHttpUtils.getInstance().getDelivery().execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.inProgress(current * 1.0f / total, total, id);
+            }
+        });
+    }
+
+    private void saveRecordQuietly() {
+        DownloadRecord r = record;
+        // 重新开始之后旧的记录已经作废, 不再写回
+        if (r == null || recordGeneration != generation) return;
+        StreamingMd5 d = digest;
+        if (d != null) {
+            r.setDigestState(d.exportState());
+        }
+        try {
+            r.save(recordFile);
+        } catch (IOException ignored) {
+        }
+    }
+
+    private synchronized void closeFile() {
+        if (randomAccessFile != null) {
+            try {
+                randomAccessFile.close();
+            } catch (IOException ignored) {
+            }
+            randomAccessFile = null;
+        }
+    }
+
+    private static DownloadException diskError(IOException e) {
+        DownloadException exception = new DownloadException(DownloadException.DISK_IO, e.getMessage());
+        exception.initCause(e);
+        return exception;
+    }
+
+    /**
+     * 解析 Content-Range: bytes 0-0/12345
+     */
+    private static long parseTotal(String contentRange) {
+        if (contentRange == null) return -1;
+        int slash = contentRange.lastIndexOf('/');
+        if (slash < 0) return -1;
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
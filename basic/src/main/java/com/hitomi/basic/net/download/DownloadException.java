@@ -0,0 +1,58 @@
+package com.hitomi.basic.net.download;
+
+import java.io.IOException;
+
+/**
+ * {@link DownloadCall} 下载失败的原因, 网络本身的异常依旧以原始的 IOException 回调
+ */
+public class DownloadException extends IOException {
+
+    /**
+     * 服务端返回了错误的 HTTP 状态码, 见 {@link #getCode()}
+     */
+    public static final int HTTP_STATUS = 1;
+    /**
+     * 续传时服务端资源已经变化, 本地记录已作废
+     */
+    public static final int RESOURCE_CHANGED = 2;
+    /**
+     * 下载的长度与服务端声明的长度不一致
+     */
+    public static final int INCOMPLETE = 3;
+    /**
+     * md5 校验失败, 临时文件已删除
+     */
+    public static final int VERIFY = 4;
+    /**
+     * 本地文件读写失败
+     */
+    public static final int DISK_IO = 5;
+    /**
+     * 调用了 {@link DownloadCall#cancel()}
+     */
+    public static final int CANCELED = 6;
+
+    private final int reason;
+    private final int code;
+
+    public DownloadException(int reason, String message) {
+        this(reason, -1, message);
+    }
+
+    public DownloadException(int reason, int code, String message) {
+        super(message);
+        this.reason = reason;
+        this.code = code;
+    }
+
+    public int getReason() {
+        return reason;
+    }
+
+    /**
+     * @return HTTP 状态码, 与状态码无关的失败返回 -1
+     */
+    public int getCode() {
+        return code;
+    }
+}
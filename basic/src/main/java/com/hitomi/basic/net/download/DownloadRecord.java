@@ -0,0 +1,209 @@
+package com.hitomi.basic.net.download;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * 分段下载的进度记录 <br/>
+ * 以 sidecar 文件的形式与临时文件存放在一起, 进程被杀死后依旧可以从记录中恢复每一段的下载进度
+ */
+class DownloadRecord {
+    private static final int MAGIC = 0x444C5231; // "DLR1"
+
+    final String url;
+    final String etag;
+    final String lastModified;
+    final long total;
+    final long[] starts;
+    final long[] ends;
+    final long[] done;
+    /**
+     * 下载时增量计算的 md5 状态, 见 {@link StreamingMd5#exportState()}
+     */
+    private byte[] digestState;
+
+    DownloadRecord(String url, String etag, String lastModified, long total, int segmentCount) {
+        this.url = url;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.total = total;
+        starts = new long[segmentCount];
+        ends = new long[segmentCount];
+        done = new long[segmentCount];
+
+        long segmentSize = total / segmentCount;
+        for (int i = 0; i < segmentCount; i++) {
+            starts[i] = i * segmentSize;
+            ends[i] = i == segmentCount - 1 ? total - 1 : (i + 1) * segmentSize - 1;
+        }
+    }
+
+    private DownloadRecord(String url, String etag, String lastModified, long total,
+                           long[] starts, long[] ends, long[] done) {
+        this.url = url;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.total = total;
+        this.starts = starts;
+        this.ends = ends;
+        this.done = done;
+    }
+
+    int segmentCount() {
+        return starts.length;
+    }
+
+    /**
+     * 第 index 段下一个需要下载的字节位置
+     */
+    synchronized long position(int index) {
+        return starts[index] + done[index];
+    }
+
+    synchronized boolean isSegmentComplete(int index) {
+        return starts[index] + done[index] > ends[index];
+    }
+
+    synchronized void advance(int index, long bytes) {
+        done[index] += bytes;
+    }
+
+    synchronized long downloaded() {
+        long sum = 0;
+        for (long d : done) {
+            sum += d;
+        }
+        return sum;
+    }
+
+    /**
+     * @return 从 from 开始连续下载完成的数据的结束位置 (不包含)
+     */
+    synchronized long contiguous(long from) {
+        for (int i = 0; i < starts.length; i++) {
+            if (from > ends[i]) continue;
+            if (from < starts[i]) return from;
+            long reached = starts[i] + done[i];
+            if (reached <= from) return from;
+            from = reached;
+            if (reached <= ends[i]) return from;
+        }
+        return from;
+    }
+
+    synchronized void setDigestState(byte[] state) {
+        digestState = state;
+    }
+
+    synchronized byte[] getDigestState() {
+        return digestState;
+    }
+
+    synchronized boolean isComplete() {
+        for (int i = 0; i < starts.length; i++) {
+            if (starts[i] + done[i] <= ends[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * If-Range 请求头的值, 服务端资源发生变化时会返回 200 而不是 206
+     */
+    String validator() {
+        if (etag != null) return etag;
+        return lastModified;
+    }
+
+    /**
+     * 先写临时文件再重命名, 避免进程在写入途中被杀死导致记录损坏
+     */
+    synchronized void save(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp));
+        try {
+            out.writeInt(MAGIC);
+            out.writeUTF(url);
+            out.writeUTF(etag == null ? "" : etag);
+            out.writeUTF(lastModified == null ? "" : lastModified);
+            out.writeLong(total);
+            out.writeInt(starts.length);
+            for (int i = 0; i < starts.length; i++) {
+                out.writeLong(starts[i]);
+                out.writeLong(ends[i]);
+                out.writeLong(done[i]);
+            }
+            out.writeInt(digestState == null ? 0 : digestState.length);
+            if (digestState != null) {
+                out.write(digestState);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("can not save download record : " + file);
+            }
+        }
+    }
+
+    /**
+     * @return 记录不存在、已损坏或者与 url 不匹配时返回 null
+     */
+    static DownloadRecord load(File file, String url) {
+        if (!file.isFile()) return null;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            if (in.readInt() != MAGIC) return null;
+            String recordUrl = in.readUTF();
+            if (!recordUrl.equals(url)) return null;
+            String etag = in.readUTF();
+            String lastModified = in.readUTF();
+            long total = in.readLong();
+            int count = in.readInt();
+            if (count <= 0 || total <= 0) return null;
+            long[] starts = new long[count];
+            long[] ends = new long[count];
+            long[] done = new long[count];
+            for (int i = 0; i < count; i++) {
+                starts[i] = in.readLong();
+                ends[i] = in.readLong();
+                done[i] = in.readLong();
+            }
+            DownloadRecord record = new DownloadRecord(recordUrl, etag.length() == 0 ? null : etag,
+                    lastModified.length() == 0 ? null : lastModified, total, starts, ends, done);
+            record.digestState = readDigestState(in);
+            return record;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * 旧版本的记录没有 md5 状态
+     */
+    private static byte[] readDigestState(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            if (length <= 0 || length > 1024) return null;
+            byte[] state = new byte[length];
+            in.readFully(state);
+            return state;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+}
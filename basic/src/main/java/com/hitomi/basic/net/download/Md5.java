@@ -0,0 +1,144 @@
+package com.hitomi.basic.net.download;
+
+/**
+ * 可以导出 / 恢复中间状态的 md5 实现 (RFC 1321) <br/>
+ * MessageDigest 的中间状态无法持久化, 断点续传时需要从上次计算到的位置继续, 所以这里单独实现
+ */
+final class Md5 {
+    private static final int[] SHIFTS = {7, 12, 17, 22, 5, 9, 14, 20, 4, 11, 16, 23, 6, 10, 15, 21};
+    private static final int[] K = new int[64];
+    private static final int STATE_SIZE = 4 * 4 + 8 + 64;
+
+    static {
+        for (int i = 0; i < 64; i++) {
+            K[i] = (int) (long) (Math.abs(Math.sin(i + 1)) * 4294967296L);
+        }
+    }
+
+    private int a = 0x67452301;
+    private int b = 0xefcdab89;
+    private int c = 0x98badcfe;
+    private int d = 0x10325476;
+    private long count;
+    private final byte[] buffer = new byte[64];
+    private final int[] x = new int[16];
+
+    void update(byte[] input, int offset, int length) {
+        int index = (int) (count & 63);
+        count += length;
+        if (index > 0) {
+            int fill = 64 - index;
+            if (length < fill) {
+                System.arraycopy(input, offset, buffer, index, length);
+                return;
+            }
+            System.arraycopy(input, offset, buffer, index, fill);
+            transform(buffer, 0);
+            offset += fill;
+            length -= fill;
+        }
+        while (length >= 64) {
+            transform(input, offset);
+            offset += 64;
+            length -= 64;
+        }
+        if (length > 0) {
+            System.arraycopy(input, offset, buffer, 0, length);
+        }
+    }
+
+    /**
+     * @return 16 进制小写的摘要, 不影响当前状态, 之后依旧可以继续 update
+     */
+    String hexDigest() {
+        Md5 copy = restore(exportState());
+        long bits = count << 3;
+        byte[] padding = new byte[((55 - (int) (count & 63)) & 63) + 1 + 8];
+        padding[0] = (byte) 0x80;
+        for (int i = 0; i < 8; i++) {
+            padding[padding.length - 8 + i] = (byte) (bits >>> (8 * i));
+        }
+        copy.update(padding, 0, padding.length);
+
+        StringBuilder sb = new StringBuilder(32);
+        for (int word : new int[]{copy.a, copy.b, copy.c, copy.d}) {
+            for (int i = 0; i < 4; i++) {
+                int v = (word >>> (8 * i)) & 0xff;
+                sb.append(Character.forDigit(v >>> 4, 16)).append(Character.forDigit(v & 0xf, 16));
+            }
+        }
+        return sb.toString();
+    }
+
+    byte[] exportState() {
+        byte[] state = new byte[STATE_SIZE];
+        putInt(state, 0, a);
+        putInt(state, 4, b);
+        putInt(state, 8, c);
+        putInt(state, 12, d);
+        putInt(state, 16, (int) (count >>> 32));
+        putInt(state, 20, (int) count);
+        System.arraycopy(buffer, 0, state, 24, 64);
+        return state;
+    }
+
+    /**
+     * @return state 格式不正确时返回 null
+     */
+    static Md5 restore(byte[] state) {
+        if (state == null || state.length != STATE_SIZE) return null;
+        Md5 md5 = new Md5();
+        md5.a = getInt(state, 0);
+        md5.b = getInt(state, 4);
+        md5.c = getInt(state, 8);
+        md5.d = getInt(state, 12);
+        md5.count = ((long) getInt(state, 16) << 32) | (getInt(state, 20) & 0xffffffffL);
+        System.arraycopy(state, 24, md5.buffer, 0, 64);
+        return md5;
+    }
+
+    private void transform(byte[] block, int offset) {
+        for (int i = 0; i < 16; i++, offset += 4) {
+            x[i] = (block[offset] & 0xff) | (block[offset + 1] & 0xff) << 8
+                    | (block[offset + 2] & 0xff) << 16 | (block[offset + 3] & 0xff) << 24;
+        }
+        int a = this.a, b = this.b, c = this.c, d = this.d;
+        for (int i = 0; i < 64; i++) {
+            int f, g;
+            if (i < 16) {
+                f = (b & c) | (~b & d);
+                g = i;
+            } else if (i < 32) {
+                f = (d & b) | (~d & c);
+                g = (5 * i + 1) & 15;
+            } else if (i < 48) {
+                f = b ^ c ^ d;
+                g = (3 * i + 5) & 15;
+            } else {
+                f = c ^ (b | ~d);
+                g = (7 * i) & 15;
+            }
+            int tmp = d;
+            d = c;
+            c = b;
+            b += Integer.rotateLeft(a + f + K[i] + x[g], SHIFTS[(i >> 4) << 2 | (i & 3)]);
+            a = tmp;
+        }
+        this.a += a;
+        this.b += b;
+        this.c += c;
+        this.d += d;
+    }
+
+    private static void putInt(byte[] out, int offset, int v) {
+        out[offset] = (byte) (v >>> 24);
+        out[offset + 1] = (byte) (v >>> 16);
+        out[offset + 2] = (byte) (v >>> 8);
+        out[offset + 3] = (byte) v;
+    }
+
+    private static int getInt(byte[] in, int offset) {
+        return (in[offset] & 0xff) << 24 | (in[offset + 1] & 0xff) << 16
+                | (in[offset + 2] & 0xff) << 8 | (in[offset + 3] & 0xff);
+    }
+}
@@ -0,0 +1,98 @@
+package com.hitomi.basic.net.download;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 下载过程中增量计算 md5, 避免下载完成后再把整个文件读一遍 <br/>
+ * 分段并行下载时数据是乱序写入的, 这里只对从 0 开始连续的前缀 [0, position) 计算摘要:
+ * <ul>
+ * <li>恰好写在 position 处的数据直接计算</li>
+ * <li>超前写入的数据先忽略, 等前面的空洞补齐后再通过 {@link #catchUp(FileChannel, long)} 从文件中读回 (通常还在页缓存中)</li>
+ * <li>已经计算过的位置被续传重新写入时忽略, 所以持久化的状态可以比分段记录更新</li>
+ * </ul>
+ */
+class StreamingMd5 {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Md5 md5;
+    private volatile long position;
+
+    StreamingMd5() {
+        this(new Md5(), 0);
+    }
+
+    private StreamingMd5(Md5 md5, long position) {
+        this.md5 = md5;
+        this.position = position;
+    }
+
+    /**
+     * @return state 为空或者已损坏时从头开始计算
+     */
+    static StreamingMd5 restore(byte[] state) {
+        if (state != null && state.length > 8) {
+            byte[] md5State = new byte[state.length - 8];
+            System.arraycopy(state, 8, md5State, 0, md5State.length);
+            Md5 md5 = Md5.restore(md5State);
+            if (md5 != null) {
+                long position = 0;
+                for (int i = 0; i < 8; i++) {
+                    position = position << 8 | (state[i] & 0xff);
+                }
+                return new StreamingMd5(md5, position);
+            }
+        }
+        return new StreamingMd5();
+    }
+
+    /**
+     * 数据已经写入文件 offset 处之后调用
+     */
+    void onWrite(long offset, byte[] buf, int len) {
+        // position 只增不减, 超前的数据不需要加锁就可以忽略
+        if (offset > position) return;
+        synchronized (this) {
+            long skip = position - offset;
+            if (skip < 0 || skip >= len) return;
+            md5.update(buf, (int) skip, (int) (len - skip));
+            position = offset + len;
+        }
+    }
+
+    /**
+     * 从文件中读取 [position, end) 计算摘要, 调用方保证这部分数据已经写入
+     */
+    synchronized void catchUp(FileChannel channel, long end) throws IOException {
+        if (end <= position) return;
+        byte[] buf = new byte[(int) Math.min(BUFFER_SIZE, end - position)];
+        while (position < end) {
+            ByteBuffer buffer = ByteBuffer.wrap(buf, 0, (int) Math.min(buf.length, end - position));
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                throw new IOException("unexpected end of file at " + position);
+            }
+            md5.update(buf, 0, read);
+            position += read;
+        }
+    }
+
+    long position() {
+        return position;
+    }
+
+    synchronized byte[] exportState() {
+        byte[] md5State = md5.exportState();
+        byte[] state = new byte[8 + md5State.length];
+        for (int i = 0; i < 8; i++) {
+            state[i] = (byte) (position >>> (56 - 8 * i));
+        }
+        System.arraycopy(md5State, 0, state, 8, md5State.length);
+        return state;
+    }
+
+    synchronized String hexDigest() {
+        return md5.hexDigest();
+    }
+}
@@ -3,7 +3,13 @@ package com.hitomi.basic.net.log;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.hitomi.basic.net.request.CountingRequestBody;
+
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import okhttp3.Headers;
 import okhttp3.Interceptor;
@@ -13,14 +19,49 @@ import okhttp3.RequestBody;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
 import okio.Buffer;
+import okio.BufferedSource;
 
 /**
  * Created by zhy on 16/3/1.
+ * <p>
+ * 日志级别为 {@link Level#NONE} 或者本次请求未被采样时不会构造任何字符串;
+ * 响应体最多只预读 maxBodyBytes 个字节, 不会被消费; 长度未知或者超过 maxBodyBytes 的请求体不输出, 避免为了日志把请求体多写一遍;
+ * 日志在单独的线程中输出, 不占用网络线程
  */
 public class LoggerInterceptor implements Interceptor {
     public static final String TAG = "OkHttpUtils";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    /**
+     * Log 单条日志的长度上限
+     */
+    private static final int MAX_LOG_LENGTH = 4000;
+
+    private static ExecutorService logExecutor;
+
+    public enum Level {
+        /**
+         * 不输出日志
+         */
+        NONE,
+        /**
+         * 请求方法、url、响应码以及耗时
+         */
+        BASIC,
+        /**
+         * 另外输出请求头、响应头
+         */
+        HEADERS,
+        /**
+         * 另外输出文本类型的请求体、响应体
+         */
+        BODY
+    }
+
     private String tag;
     private boolean showResponse;
+    private volatile Level level = Level.BODY;
+    private volatile long maxBodyBytes = 4096;
+    private volatile float sampleRate = 1f;
 
     public LoggerInterceptor(String tag, boolean showResponse) {
         if (TextUtils.isEmpty(tag)) {
@@ -34,77 +75,123 @@ public class LoggerInterceptor implements Interceptor {
         this(tag, false);
     }
 
+    public LoggerInterceptor(String tag, Level level) {
+        this(tag, true);
+        this.level = level;
+    }
+
+    public LoggerInterceptor setLevel(Level level) {
+        this.level = level;
+        return this;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * 请求体、响应体最多输出的字节数, 默认 4096
+     */
+    public LoggerInterceptor setMaxBodyBytes(long maxBodyBytes) {
+        this.maxBodyBytes = Math.max(0, maxBodyBytes);
+        return this;
+    }
+
+    /**
+     * 采样率 0~1, 只有被采样的请求才会输出日志, 默认 1
+     */
+    public LoggerInterceptor setSampleRate(float sampleRate) {
+        this.sampleRate = Math.max(0, Math.min(1, sampleRate));
+        return this;
+    }
+
     @Override
     public Response intercept(Chain chain) throws IOException {
         Request request = chain.request();
-        logForRequest(request);
-        Response response = chain.proceed(request);
-        return logForResponse(response);
+        Level level = this.level;
+        if (level == Level.NONE || sampleRate < 1 && Math.random() >= sampleRate) {
+            return chain.proceed(request);
+        }
+
+        logForRequest(request, level);
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException e) {
+            emit("<-- HTTP FAILED : " + request.url() + " , " + e);
+            throw e;
+        }
+        logForResponse(response, level, (System.nanoTime() - start) / 1000000);
+        return response;
     }
 
-    private Response logForResponse(Response response) {
+    private void logForResponse(Response response, Level level, long tookMs) {
         try {
             //===>response log
-            Log.e(tag, "========response'log=======");
-            Response.Builder builder = response.newBuilder();
-            Response clone = builder.build();
-            Log.e(tag, "url : " + clone.request().url());
-            Log.e(tag, "code : " + clone.code());
-            Log.e(tag, "protocol : " + clone.protocol());
-            if (!TextUtils.isEmpty(clone.message()))
-                Log.e(tag, "message : " + clone.message());
-
-            if (showResponse) {
-                ResponseBody body = clone.body();
+            StringBuilder log = new StringBuilder("========response'log=======\n");
+            log.append("url : ").append(response.request().url()).append('\n');
+            log.append("code : ").append(response.code()).append('\n');
+            log.append("took : ").append(tookMs).append("ms\n");
+            if (level.compareTo(Level.HEADERS) >= 0) {
+                log.append("protocol : ").append(response.protocol()).append('\n');
+                if (!TextUtils.isEmpty(response.message()))
+                    log.append("message : ").append(response.message()).append('\n');
+                Headers headers = response.headers();
+                if (headers != null && headers.size() > 0) {
+                    log.append("headers : ").append(headers.toString()).append('\n');
+                }
+            }
+
+            if (level == Level.BODY && showResponse) {
+                ResponseBody body = response.body();
                 if (body != null) {
                     MediaType mediaType = body.contentType();
                     if (mediaType != null) {
-                        Log.e(tag, "responseBody's contentType : " + mediaType.toString());
+                        log.append("responseBody's contentType : ").append(mediaType).append('\n');
                         if (isText(mediaType)) {
-                            String resp = body.string();
-                            Log.e(tag, "responseBody's content : " + resp);
-
-                            body = ResponseBody.create(mediaType, resp);
-                            return response.newBuilder().body(body).build();
+                            log.append("responseBody's content : ").append(peekBody(body, mediaType, maxBodyBytes)).append('\n');
                         } else {
-                            Log.e(tag, "responseBody's content : " + " maybe [file part] , too large too print , ignored!");
+                            log.append("responseBody's content : ").append(" maybe [file part] , too large too print , ignored!\n");
                         }
                     }
                 }
             }
 
-            Log.e(tag, "========response'log=======end");
+            log.append("========response'log=======end");
+            emit(log.toString());
         } catch (Exception e) {
 //            e.printStackTrace();
         }
-
-        return response;
     }
 
-    private void logForRequest(Request request) {
+    private void logForRequest(Request request, Level level) {
         try {
-            String url = request.url().toString();
-            Headers headers = request.headers();
-
-            Log.e(tag, "========request'log=======");
-            Log.e(tag, "method : " + request.method());
-            Log.e(tag, "url : " + url);
-            if (headers != null && headers.size() > 0) {
-                Log.e(tag, "headers : " + headers.toString());
+            StringBuilder log = new StringBuilder("========request'log=======\n");
+            log.append("method : ").append(request.method()).append('\n');
+            log.append("url : ").append(request.url()).append('\n');
+            if (level.compareTo(Level.HEADERS) >= 0) {
+                Headers headers = request.headers();
+                if (headers != null && headers.size() > 0) {
+                    log.append("headers : ").append(headers.toString()).append('\n');
+                }
             }
             RequestBody requestBody = request.body();
-            if (requestBody != null) {
+            if (level == Level.BODY && requestBody != null) {
                 MediaType mediaType = requestBody.contentType();
                 if (mediaType != null) {
-                    Log.e(tag, "requestBody's contentType : " + mediaType.toString());
-                    if (isText(mediaType)) {
-                        Log.e(tag, "requestBody's content : " + bodyToString(request));
+                    log.append("requestBody's contentType : ").append(mediaType).append('\n');
+                    if (request.header("Content-Encoding") != null) {
+                        log.append("requestBody's content : ").append(" encoded body omitted\n");
+                    } else if (isText(mediaType)) {
+                        log.append("requestBody's content : ").append(bodyToString(requestBody, mediaType, maxBodyBytes)).append('\n');
                     } else {
-                        Log.e(tag, "requestBody's content : " + " maybe [file part] , too large too print , ignored!");
+                        log.append("requestBody's content : ").append(" maybe [file part] , too large too print , ignored!\n");
                     }
                 }
             }
-            Log.e(tag, "========request'log=======end");
+            log.append("========request'log=======end");
+            emit(log.toString());
         } catch (Exception e) {
 //            e.printStackTrace();
         }
@@ -125,14 +212,65 @@ public class LoggerInterceptor implements Interceptor {
         return false;
     }
 
-    private String bodyToString(final Request request) {
+    /**
+     * 只预读响应体的前 max 个字节, 数据仍然留在 source 的缓冲区中供调用方读取 <br/>
+     * 多请求一个字节用来判断响应体是否超过 max
+     */
+    static String peekBody(ResponseBody body, MediaType mediaType, long max) throws IOException {
+        BufferedSource source = body.source();
+        source.request(max + 1);
+        Buffer buffer = source.buffer();
+        long count = Math.min(max, buffer.size());
+        Buffer copy = new Buffer();
+        buffer.copyTo(copy, 0, count);
+        String content = copy.readString(mediaType.charset(UTF8));
+        return buffer.size() > max ? content + "...(truncated)" : content;
+    }
+
+    /**
+     * 只输出长度已知且不超过 max 的请求体 <br/>
+     * 请求体只能通过 writeTo 完整写出, 大的请求体 (例如上传文件) 为了日志多写一遍代价太大;
+     * 带上传进度的请求体写入的是被包装的请求体, 进度不会被日志触发
+     */
+    static String bodyToString(RequestBody requestBody, MediaType mediaType, long max) {
+        if (requestBody instanceof CountingRequestBody) {
+            requestBody = ((CountingRequestBody) requestBody).getDelegate();
+        }
         try {
-            final Request copy = request.newBuilder().build();
-            final Buffer buffer = new Buffer();
-            copy.body().writeTo(buffer);
-            return buffer.readUtf8();
+            long length = requestBody.contentLength();
+            if (length < 0 || length > max) {
+                return (length < 0 ? "unknown-length" : length + "-byte") + " body omitted";
+            }
+            Buffer buffer = new Buffer();
+            requestBody.writeTo(buffer);
+            return buffer.readString(mediaType.charset(UTF8));
         } catch (final IOException e) {
             return "something error when show requestBody.";
         }
     }
+
+    private void emit(final String log) {
+        logExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < log.length(); i += MAX_LOG_LENGTH) {
+                    Log.e(tag, log.substring(i, Math.min(log.length(), i + MAX_LOG_LENGTH)));
+                }
+            }
+        });
+    }
+
+    private static synchronized ExecutorService logExecutor() {
+        if (logExecutor == null) {
+            logExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "OkHttpUtils Logger");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return logExecutor;
+    }
 }
@@ -0,0 +1,89 @@
+package com.hitomi.basic.net.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个 host 或单个路由的统计数据
+ */
+public class EndpointStats {
+    /**
+     * 从请求开始到响应体读取完毕
+     */
+    public final LatencyHistogram total = new LatencyHistogram();
+    /**
+     * 建立连接 (DNS + TCP + TLS) 的耗时, 只统计新建的连接
+     */
+    public final LatencyHistogram connect = new LatencyHistogram();
+    /**
+     * 请求发出到收到响应头
+     */
+    public final LatencyHistogram ttfb = new LatencyHistogram();
+    /**
+     * 收到响应头到响应体读取完毕
+     */
+    public final LatencyHistogram body = new LatencyHistogram();
+
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong reusedConnections = new AtomicLong();
+    private final AtomicLong newConnections = new AtomicLong();
+    private final ConcurrentHashMap<Integer, AtomicLong> statusCodes = new ConcurrentHashMap<>();
+
+    void record(MetricsInterceptor.Sample sample) {
+        total.record(sample.totalMillis);
+        ttfb.record(sample.ttfbMillis);
+        body.record(sample.bodyMillis);
+        if (sample.reusedConnection) {
+            reusedConnections.incrementAndGet();
+        } else {
+            newConnections.incrementAndGet();
+            connect.record(sample.connectMillis);
+        }
+        bytesIn.addAndGet(sample.bytesIn);
+        if (sample.bytesOut > 0) {
+            bytesOut.addAndGet(sample.bytesOut);
+        }
+        AtomicLong counter = statusCodes.get(sample.code);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = statusCodes.putIfAbsent(sample.code, created);
+            if (counter == null) counter = created;
+        }
+        counter.incrementAndGet();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    /**
+     * @return 0~1, 没有请求时返回 0
+     */
+    public float getConnectionReuseRate() {
+        long reused = reusedConnections.get();
+        long all = reused + newConnections.get();
+        return all == 0 ? 0 : reused * 1f / all;
+    }
+
+    public Map<Integer, Long> getStatusCodes() {
+        Map<Integer, Long> codes = new TreeMap<>();
+        for (Map.Entry<Integer, AtomicLong> entry : statusCodes.entrySet()) {
+            codes.put(entry.getKey(), entry.getValue().get());
+        }
+        return codes;
+    }
+
+    @Override
+    public String toString() {
+        return "total[" + total + "] ttfb[" + ttfb + "] body[" + body + "] connect[" + connect + "]"
+                + " reuse=" + (int) (getConnectionReuseRate() * 100) + "%"
+                + " in=" + bytesIn.get() + "B out=" + bytesOut.get() + "B codes=" + getStatusCodes();
+    }
+}
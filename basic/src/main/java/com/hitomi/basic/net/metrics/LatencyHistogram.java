@@ -0,0 +1,73 @@
+package com.hitomi.basic.net.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 固定分桶的耗时直方图, 线程安全且记录时不分配内存
+ */
+public class LatencyHistogram {
+    /**
+     * 每个桶的上界 (毫秒), 最后一个桶收集所有更大的值
+     */
+    private static final long[] BOUNDS = {
+            1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, Long.MAX_VALUE
+    };
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long millis) {
+        if (millis < 0) return;
+        int i = 0;
+        while (millis > BOUNDS[i]) {
+            i++;
+        }
+        buckets.incrementAndGet(i);
+        count.incrementAndGet();
+        sum.addAndGet(millis);
+        long current;
+        while (millis > (current = max.get())) {
+            if (max.compareAndSet(current, millis)) break;
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMean() {
+        long c = count.get();
+        return c == 0 ? 0 : sum.get() / c;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile 0~100
+     * @return 所在桶的上界, 最后一个桶返回最大值
+     */
+    public long getPercentile(double percentile) {
+        long c = count.get();
+        if (c == 0) return 0;
+        long target = (long) Math.ceil(c * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += buckets.get(i);
+            if (seen >= target) {
+                return BOUNDS[i] == Long.MAX_VALUE ? max.get() : Math.min(BOUNDS[i], max.get());
+            }
+        }
+        return max.get();
+    }
+
+    @Override
+    public String toString() {
+        return "n=" + getCount() + " p50=" + getPercentile(50) + "ms p90=" + getPercentile(90)
+                + "ms p99=" + getPercentile(99) + "ms max=" + getMax() + "ms";
+    }
+}
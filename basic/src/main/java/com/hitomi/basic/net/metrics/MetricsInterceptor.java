@@ -0,0 +1,153 @@
+package com.hitomi.basic.net.metrics;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import okhttp3.Connection;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * 请求耗时统计拦截器, 需要同时作为应用拦截器和网络拦截器添加:
+ * <pre>
+ * MetricsInterceptor metrics = new MetricsInterceptor(NetMetrics.getDefault());
+ * builder.addInterceptor(metrics).addNetworkInterceptor(metrics.networkInterceptor());
+ * </pre>
+ * OkHttp 3.5 没有 EventListener, 各阶段耗时按如下方式估算:
+ * <ul>
+ * <li>建立连接：应用拦截器开始到网络拦截器开始的时间 (只统计新建的连接, 包含 DNS、TCP、TLS)</li>
+ * <li>首字节：{@link Response#receivedResponseAtMillis()} - {@link Response#sentRequestAtMillis()}</li>
+ * <li>响应体：收到响应头到响应体读取完毕 (或被关闭)</li>
+ * </ul>
+ * 从缓存返回的响应不经过网络拦截器, 不计入统计
+ */
+public class MetricsInterceptor implements Interceptor {
+    private final NetMetrics metrics;
+    private final ThreadLocal<Long> callStart = new ThreadLocal<>();
+    private final Map<Connection, Boolean> seenConnections = new WeakHashMap<>();
+    private final Interceptor networkInterceptor = new Interceptor() {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            return interceptNetwork(chain);
+        }
+    };
+
+    static class Sample {
+        String host;
+        String route;
+        int code;
+        long connectMillis = -1;
+        long ttfbMillis = -1;
+        long bodyMillis = -1;
+        long totalMillis = -1;
+        long bytesIn;
+        long bytesOut;
+        boolean reusedConnection;
+    }
+
+    public MetricsInterceptor(NetMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public Interceptor networkInterceptor() {
+        return networkInterceptor;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        // 重定向、重试都在同一个线程的同一次 proceed 中完成, 以最外层的开始时间为准
+        boolean outermost = callStart.get() == null;
+        if (outermost) {
+            callStart.set(System.currentTimeMillis());
+        }
+        try {
+            return chain.proceed(chain.request());
+        } finally {
+            if (outermost) {
+                callStart.remove();
+            }
+        }
+    }
+
+    private Response interceptNetwork(Chain chain) throws IOException {
+        long networkStart = System.currentTimeMillis();
+        Long start = callStart.get();
+        final long sampleStart = start == null ? networkStart : start;
+
+        Request request = chain.request();
+        final Sample sample = new Sample();
+        sample.host = request.url().host();
+        sample.route = NetMetrics.route(request.url());
+        sample.reusedConnection = markConnection(chain.connection());
+        if (!sample.reusedConnection && start != null) {
+            sample.connectMillis = networkStart - start;
+        }
+        RequestBody requestBody = request.body();
+        if (requestBody != null) {
+            sample.bytesOut = requestBody.contentLength();
+        }
+
+        Response response = chain.proceed(request);
+        sample.code = response.code();
+        final long headersAt = response.receivedResponseAtMillis();
+        sample.ttfbMillis = headersAt - response.sentRequestAtMillis();
+
+        final ResponseBody body = response.body();
+        if (body == null) {
+            sample.totalMillis = headersAt - sampleStart;
+            metrics.record(sample);
+            return response;
+        }
+
+        BufferedSource source = Okio.buffer(new ForwardingSource(body.source()) {
+            private boolean recorded;
+
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                long read = super.read(sink, byteCount);
+                if (read == -1) {
+                    finish();
+                } else {
+                    sample.bytesIn += read;
+                }
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                finish();
+                super.close();
+            }
+
+            private void finish() {
+                if (recorded) return;
+                recorded = true;
+                long now = System.currentTimeMillis();
+                sample.bodyMillis = now - headersAt;
+                sample.totalMillis = now - sampleStart;
+                metrics.record(sample);
+            }
+        });
+        return response.newBuilder()
+                .body(ResponseBody.create(body.contentType(), body.contentLength(), source))
+                .build();
+    }
+
+    /**
+     * @return 该连接之前是否已经被使用过
+     */
+    private boolean markConnection(Connection connection) {
+        if (connection == null) return false;
+        synchronized (seenConnections) {
+            return seenConnections.put(connection, Boolean.TRUE) != null;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.hitomi.basic.net.metrics;
+
+import android.util.Log;
+
+import com.hitomi.basic.net.utils.NetScheduler;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+
+/**
+ * 进程内的网络统计注册表, 按 host 以及路由 (host + 路径, 数字或 ID 形式的路径段替换为 {id}) 分别统计 <br/>
+ * 可以随时查询, 也可以通过 {@link #startDump(long)} 定时输出到日志
+ */
+public class NetMetrics {
+    public static final String TAG = "NetMetrics";
+    /**
+     * 路由数量上限, 防止路径中未能识别的变量导致无限增长, 超出后归入 host + "/*"
+     */
+    private static final int MAX_ROUTES = 256;
+
+    private static volatile NetMetrics sDefault;
+
+    private final ConcurrentHashMap<String, EndpointStats> hosts = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, EndpointStats> routes = new ConcurrentHashMap<>();
+    private ScheduledFuture<?> dumpFuture;
+
+    public static NetMetrics getDefault() {
+        if (sDefault == null) {
+            synchronized (NetMetrics.class) {
+                if (sDefault == null) {
+                    sDefault = new NetMetrics();
+                }
+            }
+        }
+        return sDefault;
+    }
+
+    /**
+     * 在 builder 上同时添加应用拦截器和网络拦截器
+     */
+    public OkHttpClient.Builder install(OkHttpClient.Builder builder) {
+        MetricsInterceptor interceptor = new MetricsInterceptor(this);
+        return builder.addInterceptor(interceptor)
+                .addNetworkInterceptor(interceptor.networkInterceptor());
+    }
+
+    void record(MetricsInterceptor.Sample sample) {
+        stats(hosts, sample.host).record(sample);
+        String route = sample.route;
+        if (routes.size() >= MAX_ROUTES && !routes.containsKey(route)) {
+            route = sample.host + "/*";
+        }
+        stats(routes, route).record(sample);
+    }
+
+    private static EndpointStats stats(ConcurrentHashMap<String, EndpointStats> map, String key) {
+        EndpointStats stats = map.get(key);
+        if (stats == null) {
+            EndpointStats created = new EndpointStats();
+            stats = map.putIfAbsent(key, created);
+            if (stats == null) stats = created;
+        }
+        return stats;
+    }
+
+    /**
+     * @return 没有记录时返回 null
+     */
+    public EndpointStats getHostStats(String host) {
+        return hosts.get(host);
+    }
+
+    /**
+     * @param route 形如 "api.example.com/user/{id}/profile"
+     */
+    public EndpointStats getRouteStats(String route) {
+        return routes.get(route);
+    }
+
+    public Map<String, EndpointStats> getAllHostStats() {
+        return new TreeMap<>(hosts);
+    }
+
+    public Map<String, EndpointStats> getAllRouteStats() {
+        return new TreeMap<>(routes);
+    }
+
+    public void reset() {
+        hosts.clear();
+        routes.clear();
+    }
+
+    /**
+     * 每隔 periodMillis 把统计数据输出到日志, 重复调用会替换之前的定时任务
+     */
+    public synchronized void startDump(long periodMillis) {
+        stopDump();
+        dumpFuture = NetScheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                dump();
+            }
+        }, periodMillis);
+    }
+
+    public synchronized void stopDump() {
+        if (dumpFuture != null) {
+            dumpFuture.cancel(false);
+            dumpFuture = null;
+        }
+    }
+
+    public void dump() {
+        if (hosts.isEmpty()) return;
+        Log.i(TAG, "========net metrics=======");
+        for (Map.Entry<String, EndpointStats> entry : getAllHostStats().entrySet()) {
+            Log.i(TAG, "host " + entry.getKey() + " : " + entry.getValue());
+        }
+        for (Map.Entry<String, EndpointStats> entry : getAllRouteStats().entrySet()) {
+            Log.i(TAG, "route " + entry.getKey() + " : " + entry.getValue());
+        }
+        Log.i(TAG, "========net metrics=======end");
+    }
+
+    static String route(HttpUrl url) {
+        StringBuilder route = new StringBuilder(url.host());
+        List<String> segments = url.pathSegments();
+        for (String segment : segments) {
+            if (segment.isEmpty()) continue;
+            route.append('/').append(isIdentifier(segment) ? "{id}" : segment);
+        }
+        return route.toString();
+    }
+
+    /**
+     * 纯数字, 或者长度不小于 16 的十六进制串 / UUID
+     */
+    private static boolean isIdentifier(String segment) {
+        boolean digits = true;
+        boolean hex = segment.length() >= 16;
+        for (int i = 0; i < segment.length() && (digits || hex); i++) {
+            char c = segment.charAt(i);
+            if (c < '0' || c > '9') digits = false;
+            if (Character.digit(c, 16) < 0 && c != '-') hex = false;
+        }
+        return digits || hex;
+    }
+}
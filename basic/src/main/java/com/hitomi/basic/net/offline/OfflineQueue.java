@@ -0,0 +1,489 @@
+package com.hitomi.basic.net.offline;
+
+import com.hitomi.basic.net.OkHttpUtils;
+import com.hitomi.basic.net.request.CountingRequestBody;
+import com.hitomi.basic.net.request.GzipRequestBody;
+import com.hitomi.basic.net.utils.NetScheduler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+
+/**
+ * 离线请求队列 <br/>
+ * 网络不可用时, 开启了 {@link com.hitomi.basic.net.request.RequestCall#offline(boolean)} 的 POST、PUT、DELETE 等请求
+ * 被追加写入文件, 网络恢复后按照入队顺序重放:
+ * <ul>
+ * <li>文件只追加写入：入队写一条 ADD 记录, 重放完成写一条 DONE 记录 (墓碑), 墓碑过多时重写整个文件</li>
+ * <li>每个请求带有 Idempotency-Key 请求头, 相同 key 的请求只入队一次, 服务端也可以据此去重</li>
+ * <li>每次取出一批请求依次发送, 网络异常、408、429 以及 5xx 时停止重放并指数退避, 其余响应码视为处理完成</li>
+ * </ul>
+ */
+public class OfflineQueue {
+    public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
+    private static final int MAGIC = 0x4F464C51;
+    private static final byte TYPE_ADD = 1;
+    private static final byte TYPE_DONE = 2;
+    private static final int BATCH_SIZE = 10;
+    private static final int MAX_BODY_SIZE = 2 * 1024 * 1024;
+    private static final long BASE_BACKOFF = 2_000;
+    private static final long MAX_BACKOFF = 5 * 60_000;
+
+    private final File file;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private int tombstones;
+    private volatile boolean online = true;
+    private volatile ReplayListener replayListener;
+
+    private final AtomicBoolean replaying = new AtomicBoolean();
+    private int failures;
+    private volatile boolean backingOff;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "OkHttpUtils Offline");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final Runnable replayTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                replayLoop();
+            } finally {
+                replaying.set(false);
+            }
+            // 重放结束前刚好入队的请求没能启动新的重放, 这里补上
+            if (!backingOff && size() > 0) {
+                replay();
+            }
+        }
+    };
+
+    public interface ReplayListener {
+        /**
+         * 请求已经重放并得到了响应 (包括 4xx 等不再重试的响应), 在 {@link OkHttpUtils#getDelivery()} 中回调
+         */
+        void onReplayed(String key, int code);
+    }
+
+    private static class Entry {
+        final String key;
+        final String method;
+        final String url;
+        final Headers headers;
+        final String contentType;
+        final byte[] body;
+
+        Entry(String key, String method, String url, Headers headers, String contentType, byte[] body) {
+            this.key = key;
+            this.method = method;
+            this.url = url;
+            this.headers = headers;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        Request toRequest() {
+            RequestBody requestBody = body == null ? null
+                    : RequestBody.create(contentType == null ? null : MediaType.parse(contentType), body);
+            return new Request.Builder()
+                    .url(url)
+                    .headers(headers)
+                    .method(method, requestBody)
+                    .build();
+        }
+    }
+
+    public OfflineQueue(File file) {
+        this.file = file;
+        load();
+    }
+
+    public boolean isOnline() {
+        return online;
+    }
+
+    /**
+     * 由网络状态监听调用, 变为可用时开始重放
+     */
+    public void setOnline(boolean online) {
+        this.online = online;
+        if (online) {
+            synchronized (this) {
+                failures = 0;
+            }
+            replay();
+        }
+    }
+
+    public void setReplayListener(ReplayListener listener) {
+        this.replayListener = listener;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * 把请求写入队列, 请求体会被完整读入内存, 超过 2MB 的请求不能入队 <br/>
+     * 请求已经带有 Idempotency-Key 时沿用 (例如 {@link com.hitomi.basic.net.request.RequestCall#offline(boolean)}
+     * 在第一次发送前生成的 key), 否则自动生成
+     *
+     * @return 请求的 Idempotency-Key
+     */
+    public String add(Request request) throws IOException {
+        String key = request.header(IDEMPOTENCY_KEY);
+        if (key == null) {
+            key = UUID.randomUUID().toString();
+        }
+
+        byte[] body = null;
+        String contentType = null;
+        RequestBody requestBody = unwrap(request.body());
+        if (requestBody != null) {
+            if (requestBody.contentLength() > MAX_BODY_SIZE) {
+                throw new IOException("request body is too large to be queued : " + requestBody.contentLength());
+            }
+            Buffer buffer = new Buffer();
+            requestBody.writeTo(buffer);
+            if (buffer.size() > MAX_BODY_SIZE) {
+                throw new IOException("request body is too large to be queued : " + buffer.size());
+            }
+            body = buffer.readByteArray();
+            MediaType mediaType = requestBody.contentType();
+            contentType = mediaType == null ? null : mediaType.toString();
+        }
+        Headers headers = request.headers().newBuilder().set(IDEMPOTENCY_KEY, key).build();
+        Entry entry = new Entry(key, request.method(), request.url().toString(), headers, contentType, body);
+
+        synchronized (this) {
+            if (entries.containsKey(key)) return key;
+            append(frame(encodeAdd(entry)), true);
+            entries.put(key, entry);
+        }
+        if (online) {
+            replay();
+        }
+        return key;
+    }
+
+    /**
+     * 去掉上传进度的计数包装, 入队时读取请求体不应当再次触发 Callback 的 inProgress
+     */
+    private static RequestBody unwrap(RequestBody body) {
+        if (body instanceof CountingRequestBody) {
+            return unwrap(((CountingRequestBody) body).getDelegate());
+        }
+        if (body instanceof GzipRequestBody) {
+            return new GzipRequestBody(unwrap(((GzipRequestBody) body).getDelegate()));
+        }
+        return body;
+    }
+
+    /**
+     * 开始重放, 已经在重放时忽略
+     */
+    public void replay() {
+        if (online && replaying.compareAndSet(false, true)) {
+            executor.execute(replayTask);
+        }
+    }
+
+    private void replayLoop() {
+        OkHttpClient client = OkHttpUtils.getInstance().getOkHttpClient();
+        while (online) {
+            List<Entry> batch = new ArrayList<>();
+            synchronized (this) {
+                Iterator<Entry> iterator = entries.values().iterator();
+                while (iterator.hasNext() && batch.size() < BATCH_SIZE) {
+                    batch.add(iterator.next());
+                }
+            }
+            if (batch.isEmpty()) return;
+
+            List<String> done = new ArrayList<>();
+            boolean backoff = false;
+            for (Entry entry : batch) {
+                if (!online) break;
+                int code;
+                try {
+                    Response response = client.newCall(entry.toRequest()).execute();
+                    code = response.code();
+                    response.body().close();
+                } catch (IOException e) {
+                    backoff = true;
+                    break;
+                }
+                if (code == 408 || code == 429 || code >= 500) {
+                    backoff = true;
+                    break;
+                }
+                done.add(entry.key);
+                notifyReplayed(entry.key, code);
+            }
+            markDone(done);
+
+            if (backoff) {
+                scheduleBackoff();
+                return;
+            }
+        }
+    }
+
+    private void scheduleBackoff() {
+        long delay;
+        synchronized (this) {
+            delay = BASE_BACKOFF << Math.min(failures, 20);
+            failures++;
+        }
+        backingOff = true;
+        NetScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                backingOff = false;
+                replay();
+            }
+        }, Math.min(delay, MAX_BACKOFF));
+    }
+
+    private void notifyReplayed(final String key, final int code) {
+        final ReplayListener listener = replayListener;
+        if (listener == null) return;
+        OkHttpUtils.getInstance().getDelivery().execute(new Runnable() {
+            @Override
+            public void run() {
+                listener.onReplayed(key, code);
+            }
+        });
+    }
+
+    private synchronized void markDone(List<String> keys) {
+        if (keys.isEmpty()) return;
+        failures = 0;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            for (String key : keys) {
+                if (entries.remove(key) == null) continue;
+                writeRecord(bytes, encodeDone(key));
+                tombstones++;
+            }
+            if (tombstones > 32 && tombstones > entries.size()) {
+                compact();
+            } else {
+                append(bytes.toByteArray(), false);
+            }
+        } catch (IOException e) {
+            // 墓碑没有写入时, 下次启动会再次重放这些请求, 由 Idempotency-Key 保证服务端不会重复处理
+        }
+    }
+
+    /**
+     * @param sync 入队的请求需要落盘后才算提交成功, 墓碑丢失只会导致重复重放, 不需要 sync
+     */
+    private void append(byte[] records, boolean sync) throws IOException {
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(records);
+            if (sync) {
+                out.getFD().sync();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * 只保留未完成的请求, 写入临时文件后替换
+     */
+    private void compact() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeInt(MAGIC);
+            for (Entry entry : entries.values()) {
+                writeRecord(out, encodeAdd(entry));
+            }
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("rename " + tmp + " failed");
+        }
+        tombstones = 0;
+    }
+
+    private synchronized void load() {
+        if (!file.exists() || file.length() < 4) {
+            resetFile();
+            return;
+        }
+        long validLength = 4;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            if (in.readInt() != MAGIC) {
+                in.close();
+                in = null;
+                resetFile();
+                return;
+            }
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || validLength + 4 + length > file.length()) break;
+                byte[] record = new byte[length];
+                in.readFully(record);
+                decode(record);
+                validLength += 4 + length;
+            }
+        } catch (IOException e) {
+            // 读到损坏的记录为止, 后面的数据丢弃
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        if (validLength < file.length()) {
+            truncate(validLength);
+        }
+    }
+
+    private void resetFile() {
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                new DataOutputStream(out).writeInt(MAGIC);
+            } finally {
+                out.close();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void truncate(long length) {
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(length);
+            } finally {
+                raf.close();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void decode(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte type = in.readByte();
+        String key = in.readUTF();
+        if (type == TYPE_DONE) {
+            entries.remove(key);
+            tombstones++;
+            return;
+        }
+        String method = in.readUTF();
+        String url = in.readUTF();
+        Headers.Builder headers = new Headers.Builder();
+        int headerCount = in.readInt();
+        for (int i = 0; i < headerCount; i++) {
+            headers.add(in.readUTF(), in.readUTF());
+        }
+        String contentType = in.readBoolean() ? in.readUTF() : null;
+        byte[] body = null;
+        int bodyLength = in.readInt();
+        if (bodyLength >= 0) {
+            body = new byte[bodyLength];
+            in.readFully(body);
+        }
+        entries.put(key, new Entry(key, method, url, headers.build(), contentType, body));
+    }
+
+    private static byte[] encodeAdd(Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(TYPE_ADD);
+        out.writeUTF(entry.key);
+        out.writeUTF(entry.method);
+        out.writeUTF(entry.url);
+        out.writeInt(entry.headers.size());
+        for (int i = 0; i < entry.headers.size(); i++) {
+            out.writeUTF(entry.headers.name(i));
+            out.writeUTF(entry.headers.value(i));
+        }
+        out.writeBoolean(entry.contentType != null);
+        if (entry.contentType != null) {
+            out.writeUTF(entry.contentType);
+        }
+        if (entry.body == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(entry.body.length);
+            out.write(entry.body);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeDone(String key) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(TYPE_DONE);
+        out.writeUTF(key);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 每条记录为 4 字节长度 + 内容, 进程在写入中途被杀时, 启动时会截掉不完整的尾部
+     */
+    private static void writeRecord(OutputStream out, byte[] record) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(record.length);
+        data.write(record);
+        data.flush();
+    }
+
+    private static byte[] frame(byte[] record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(record.length + 4);
+        writeRecord(bytes, record);
+        return bytes.toByteArray();
+    }
+}
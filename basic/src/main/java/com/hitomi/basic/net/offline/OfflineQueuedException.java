@@ -0,0 +1,23 @@
+package com.hitomi.basic.net.offline;
+
+import java.io.IOException;
+
+/**
+ * 请求因为网络不可用而被放入 {@link OfflineQueue}, 网络恢复后会自动重放 <br/>
+ * Callback 的 onError 收到该异常时, 可以把请求视为 "已提交, 稍后发送"
+ */
+public class OfflineQueuedException extends IOException {
+    private final String key;
+
+    public OfflineQueuedException(String key, IOException cause) {
+        super("request queued for replay when online , idempotency key : " + key, cause);
+        this.key = key;
+    }
+
+    /**
+     * @return 请求的 Idempotency-Key, 与 {@link OfflineQueue.ReplayListener} 中的 key 对应
+     */
+    public String getKey() {
+        return key;
+    }
+}
@@ -0,0 +1,85 @@
+package com.hitomi.basic.net.request;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import okhttp3.Call;
+
+/**
+ * 执行中请求的索引, 以 tag、group、owner (生命周期的持有者, 例如 Activity) 为 key <br/>
+ * 请求入队时注册, 结束时反注册, 取消时只需要访问对应 key 下的请求, 不再线性扫描 Dispatcher 中的所有请求
+ */
+public class CallRegistry {
+    private final Map<Object, Set<Call>> byTag = new HashMap<>();
+    private final Map<Object, Set<Call>> byGroup = new HashMap<>();
+    private final Map<Object, Set<Call>> byOwner = new HashMap<>();
+    private final Map<Call, Object[]> keys = new HashMap<>();
+
+    public synchronized void register(Call call, Object tag, Object group, Object owner) {
+        if (keys.containsKey(call)) return;
+        keys.put(call, new Object[]{tag, group, owner});
+        add(byTag, tag, call);
+        add(byGroup, group, call);
+        add(byOwner, owner, call);
+    }
+
+    public synchronized void unregister(Call call) {
+        Object[] key = keys.remove(call);
+        if (key == null) return;
+        remove(byTag, key[0], call);
+        remove(byGroup, key[1], call);
+        remove(byOwner, key[2], call);
+    }
+
+    public void cancelTag(Object tag) {
+        cancel(snapshot(byTag, tag));
+    }
+
+    public void cancelGroup(Object group) {
+        cancel(snapshot(byGroup, group));
+    }
+
+    public void cancelOwner(Object owner) {
+        cancel(snapshot(byOwner, owner));
+    }
+
+    public synchronized int size() {
+        return keys.size();
+    }
+
+    private synchronized List<Call> snapshot(Map<Object, Set<Call>> index, Object key) {
+        Set<Call> calls = key == null ? null : index.get(key);
+        return calls == null ? new ArrayList<Call>() : new ArrayList<>(calls);
+    }
+
+    private void cancel(List<Call> calls) {
+        for (Call call : calls) {
+            call.cancel();
+        }
+    }
+
+    private static void add(Map<Object, Set<Call>> index, Object key, Call call) {
+        if (key == null) return;
+        Set<Call> calls = index.get(key);
+        if (calls == null) {
+            calls = new LinkedHashSet<>();
+            index.put(key, calls);
+        }
+        calls.add(call);
+    }
+
+    private static void remove(Map<Object, Set<Call>> index, Object key, Call call) {
+        if (key == null) return;
+        Set<Call> calls = index.get(key);
+        if (calls != null) {
+            calls.remove(call);
+            if (calls.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+}
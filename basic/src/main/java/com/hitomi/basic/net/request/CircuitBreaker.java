@@ -0,0 +1,74 @@
+package com.hitomi.basic.net.request;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 按 host 区分的熔断器 <br/>
+ * 连续失败 (网络异常或 5xx) 达到阈值后熔断, 熔断期间该 host 的请求直接失败;
+ * 熔断时间过后放行一个探测请求, 成功则恢复, 失败则继续熔断
+ */
+public class CircuitBreaker {
+    private final int failureThreshold;
+    private final long openMillis;
+    private final Map<String, State> states = new HashMap<>();
+
+    private static class State {
+        int failures;
+        long openedAt = -1;
+        long probeStartedAt = -1;
+    }
+
+    public CircuitBreaker() {
+        this(5, 30_000);
+    }
+
+    /**
+     * @param failureThreshold 连续失败多少次后熔断
+     * @param openMillis       熔断持续时间
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    public synchronized boolean allowRequest(String host) {
+        State state = states.get(host);
+        if (state == null || state.openedAt < 0) return true;
+
+        long now = System.currentTimeMillis();
+        if (now - state.openedAt < openMillis) return false;
+        // 半开状态：同一时间只放行一个探测请求, 探测请求没有结果时超时后允许再次探测
+        if (state.probeStartedAt >= 0 && now - state.probeStartedAt < openMillis) return false;
+        state.probeStartedAt = now;
+        return true;
+    }
+
+    public synchronized void onSuccess(String host) {
+        states.remove(host);
+    }
+
+    public synchronized void onFailure(String host) {
+        State state = states.get(host);
+        if (state == null) {
+            state = new State();
+            states.put(host, state);
+        }
+        long now = System.currentTimeMillis();
+        if (state.probeStartedAt >= 0) {
+            state.probeStartedAt = -1;
+            state.openedAt = now;
+            return;
+        }
+        state.failures++;
+        if (state.failures >= failureThreshold) {
+            state.openedAt = now;
+        }
+    }
+
+    public synchronized boolean isOpen(String host) {
+        State state = states.get(host);
+        return state != null && state.openedAt >= 0
+                && System.currentTimeMillis() - state.openedAt < openMillis;
+    }
+}
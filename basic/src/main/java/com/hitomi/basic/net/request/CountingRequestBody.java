@@ -29,6 +29,10 @@ public class CountingRequestBody extends RequestBody {
         this.listener = listener;
     }
 
+    public RequestBody getDelegate() {
+        return delegate;
+    }
+
     @Override
     public MediaType contentType() {
         return delegate.contentType();
@@ -0,0 +1,43 @@
+package com.hitomi.basic.net.request;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * 以 gzip 流式压缩请求体, 压缩后的长度事先未知, 因此 contentLength 为 -1 (使用 chunked 传输) <br/>
+ * 与 {@link CountingRequestBody} 组合时应当由本类包装计数的请求体, 这样进度按照压缩前的字节数计算
+ */
+public class GzipRequestBody extends RequestBody {
+    private final RequestBody delegate;
+
+    public GzipRequestBody(RequestBody delegate) {
+        this.delegate = delegate;
+    }
+
+    public RequestBody getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return delegate.contentType();
+    }
+
+    @Override
+    public long contentLength() {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        BufferedSink gzipSink = Okio.buffer(new GzipSink(sink));
+        delegate.writeTo(gzipSink);
+        // 关闭 GzipSink 写入 gzip 尾部, 同时会关闭 sink, OkHttp 允许请求体关闭传入的 sink
+        gzipSink.close();
+    }
+}
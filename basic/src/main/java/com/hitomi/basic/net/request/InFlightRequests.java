@@ -0,0 +1,116 @@
+package com.hitomi.basic.net.request;
+
+import com.hitomi.basic.net.callback.Callback;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Request;
+
+/**
+ * 正在执行中的幂等请求 (GET / HEAD) 表 <br/>
+ * 相同 method、url 以及请求头的请求只会有一个真正发出, 其余请求挂载到该请求上等待结果 <br/>
+ * 发出的请求被取消时由第一个未取消的挂载请求接替发出, 见 {@link #handOff(String, List)}
+ */
+public class InFlightRequests {
+    /**
+     * 挂载的请求使用不同的 Callback 时, 响应体不超过该长度才会读入内存共享, 否则挂载的请求各自单独发出
+     */
+    public static final long MAX_SHARED_BODY = 1024 * 1024;
+
+    private final Map<String, List<Follower>> inFlight = new HashMap<>();
+    private final AtomicLong savedCount = new AtomicLong();
+
+    public static class Follower {
+        public final RequestCall requestCall;
+        public final Callback callback;
+        public final int id;
+
+        Follower(RequestCall requestCall, Callback callback, int id) {
+            this.requestCall = requestCall;
+            this.callback = callback;
+            this.id = id;
+        }
+    }
+
+    /**
+     * @return 不可去重的请求返回 null
+     */
+    public static String key(Request request) {
+        String method = request.method();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            return null;
+        }
+        return method + " " + request.url() + "\n" + request.headers();
+    }
+
+    /**
+     * @return true 表示已经有相同的请求在执行, callback 已挂载到该请求上; false 表示调用方需要自己发出请求
+     */
+    public synchronized boolean attach(String key, RequestCall requestCall, Callback callback, int id) {
+        List<Follower> followers = inFlight.get(key);
+        if (followers == null) {
+            inFlight.put(key, new ArrayList<Follower>());
+            return false;
+        }
+        followers.add(new Follower(requestCall, callback, id));
+        savedCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 请求结束时调用, 之后相同的请求会重新发出
+     */
+    public synchronized List<Follower> detach(String key) {
+        List<Follower> followers = inFlight.remove(key);
+        return followers == null ? Collections.<Follower>emptyList() : followers;
+    }
+
+    /**
+     * 发出的请求被取消时调用, 第一个未取消的挂载请求从列表中移出并接替发出, 其余请求继续挂载在同一个 key 上
+     *
+     * @param canceled 已经被取消的挂载请求会被移出并放入该列表, 由调用方回调失败
+     * @return 接替发出的请求; 没有未取消的请求时返回 null, 此时 key 已经移除
+     */
+    public synchronized Follower handOff(String key, List<Follower> canceled) {
+        List<Follower> followers = inFlight.get(key);
+        if (followers == null) {
+            return null;
+        }
+        Follower next = null;
+        Iterator<Follower> iterator = followers.iterator();
+        while (iterator.hasNext()) {
+            Follower follower = iterator.next();
+            if (follower.requestCall.getCall().isCanceled()) {
+                iterator.remove();
+                canceled.add(follower);
+            } else if (next == null) {
+                iterator.remove();
+                next = follower;
+            }
+        }
+        if (next == null) {
+            inFlight.remove(key);
+        } else {
+            // 接替的请求原本是被节省掉的, 现在需要真正发出
+            savedCount.decrementAndGet();
+        }
+        return next;
+    }
+
+    /**
+     * @return 因为去重而节省的请求数
+     */
+    public long getSavedCount() {
+        return savedCount.get();
+    }
+
+    public synchronized int getInFlightCount() {
+        return inFlight.size();
+    }
+}
@@ -18,6 +18,7 @@ public abstract class OkHttpRequest {
     protected Map<String, String> params;
     protected Map<String, String> headers;
     protected int id;
+    protected boolean compress;
 
     protected Request.Builder builder = new Request.Builder();
 
@@ -57,10 +58,22 @@ public abstract class OkHttpRequest {
         return new RequestCall(this);
     }
 
+    /**
+     * 使用 gzip 压缩请求体, 同时设置 Content-Encoding: gzip, 只对有请求体的请求有效
+     */
+    public OkHttpRequest compress(boolean compress) {
+        this.compress = compress;
+        return this;
+    }
+
 
     public Request generateRequest(Callback callback) {
         RequestBody requestBody = buildRequestBody();
         RequestBody wrappedRequestBody = wrapRequestBody(requestBody, callback);
+        if (compress && wrappedRequestBody != null) {
+            wrappedRequestBody = new GzipRequestBody(wrappedRequestBody);
+            builder.header("Content-Encoding", "gzip");
+        }
         Request request = buildRequest(wrappedRequestBody);
         return request;
     }
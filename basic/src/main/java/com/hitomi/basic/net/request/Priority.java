@@ -0,0 +1,11 @@
+package com.hitomi.basic.net.request;
+
+/**
+ * 请求优先级, 由高到低 <br/>
+ * IMMEDIATE 不受 {@link PriorityDispatcher} 的并发限制, 但仍受 OkHttp Dispatcher 上限的约束,
+ * 同时进行的 IMMEDIATE 请求超过 {@link PriorityDispatcher#IMMEDIATE_HEADROOM} 时是尽力而为的;
+ * 其余优先级由 {@link PriorityDispatcher} 排队调度
+ */
+public enum Priority {
+    IMMEDIATE, HIGH, NORMAL, LOW, BACKGROUND
+}
@@ -0,0 +1,228 @@
+package com.hitomi.basic.net.request;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 位于 OkHttp Dispatcher 之前的优先级调度层 <br/>
+ * OkHttp 的 Dispatcher 是 FIFO 的, 请求一旦进入其等待队列便无法插队, 因此这里按照 OkHttp 相同的总并发数以及
+ * 单个 host 并发数先行排队, 只把能够立即执行的请求交给 OkHttp:
+ * <ul>
+ * <li>按优先级出队, 同一优先级内保持 FIFO</li>
+ * <li>饥饿保护：每等待 {@link #AGING_INTERVAL} 毫秒, 请求的有效优先级提升一级</li>
+ * <li>每个优先级可以设置各自的最大并发数</li>
+ * <li>记录每个优先级在队列中的等待时间</li>
+ * </ul>
+ * IMMEDIATE 请求不在这里排队, OkHttp 的上限需要比这里的上限留出余量 (见 {@link #IMMEDIATE_HEADROOM}),
+ * 否则 IMMEDIATE 请求仍会在 OkHttp 的 FIFO 队列中等待
+ */
+public class PriorityDispatcher {
+    public static final long AGING_INTERVAL = 1000;
+    /**
+     * OkHttp Dispatcher 的并发上限应当比本类的上限多出的数量, 同时进行的 IMMEDIATE 请求超过该数量时,
+     * 多出的请求仍会在 OkHttp 中排队, 因此 IMMEDIATE 只是尽力而为
+     */
+    public static final int IMMEDIATE_HEADROOM = 8;
+
+    private static final int LEVELS = Priority.values().length;
+
+    private final List<LinkedList<Waiting>> queues = new ArrayList<>();
+    private final int[] maxPerPriority = new int[LEVELS];
+    private final int[] running = new int[LEVELS];
+    private final Map<String, Integer> runningPerHost = new HashMap<>();
+    private int runningTotal;
+    private int maxRequests;
+    private int maxRequestsPerHost;
+
+    private final long[] waitCount = new long[LEVELS];
+    private final long[] waitTotal = new long[LEVELS];
+    private final long[] waitMax = new long[LEVELS];
+
+    private static class Waiting {
+        final Priority priority;
+        final String host;
+        final Runnable task;
+        final long enqueueTime;
+
+        Waiting(Priority priority, String host, Runnable task, long enqueueTime) {
+            this.priority = priority;
+            this.host = host;
+            this.task = task;
+            this.enqueueTime = enqueueTime;
+        }
+    }
+
+    public PriorityDispatcher(int maxRequests, int maxRequestsPerHost) {
+        this.maxRequests = maxRequests;
+        this.maxRequestsPerHost = maxRequestsPerHost;
+        for (int i = 0; i < LEVELS; i++) {
+            queues.add(new LinkedList<Waiting>());
+            maxPerPriority[i] = Integer.MAX_VALUE;
+        }
+        maxPerPriority[Priority.LOW.ordinal()] = 3;
+        maxPerPriority[Priority.BACKGROUND.ordinal()] = 1;
+    }
+
+    /**
+     * @param task 真正把请求交给 OkHttp 的任务, 请求结束后必须调用 {@link #finished(Priority, String)};
+     *             task 抛出异常时占用的并发数会被释放, 异常继续抛给调用方
+     */
+    public void enqueue(Priority priority, String host, Runnable task) {
+        int p = priority.ordinal();
+        boolean runNow;
+        synchronized (this) {
+            runNow = priority == Priority.IMMEDIATE
+                    || queues.get(p).isEmpty() && hasCapacity(p, host);
+            if (runNow) {
+                onStart(p, host, 0);
+            } else {
+                queues.get(p).add(new Waiting(priority, host, task, System.currentTimeMillis()));
+            }
+        }
+        if (runNow) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                finished(priority, host);
+                throw e;
+            }
+        }
+    }
+
+    public void finished(Priority priority, String host) {
+        List<Waiting> ready;
+        synchronized (this) {
+            int p = priority.ordinal();
+            running[p]--;
+            runningTotal--;
+            Integer count = runningPerHost.get(host);
+            if (count != null && count > 1) {
+                runningPerHost.put(host, count - 1);
+            } else {
+                runningPerHost.remove(host);
+            }
+            ready = promote();
+        }
+        run(ready);
+    }
+
+    public void setMaxRequests(int maxRequests) {
+        List<Waiting> ready;
+        synchronized (this) {
+            this.maxRequests = maxRequests;
+            ready = promote();
+        }
+        run(ready);
+    }
+
+    public synchronized int getMaxRequests() {
+        return maxRequests;
+    }
+
+    public void setMaxRequests(Priority priority, int max) {
+        List<Waiting> ready;
+        synchronized (this) {
+            maxPerPriority[priority.ordinal()] = max;
+            ready = promote();
+        }
+        run(ready);
+    }
+
+    public synchronized int getQueuedCount(Priority priority) {
+        return queues.get(priority.ordinal()).size();
+    }
+
+    public synchronized int getRunningCount(Priority priority) {
+        return running[priority.ordinal()];
+    }
+
+    public synchronized long getAverageWaitMillis(Priority priority) {
+        int p = priority.ordinal();
+        return waitCount[p] == 0 ? 0 : waitTotal[p] / waitCount[p];
+    }
+
+    public synchronized long getMaxWaitMillis(Priority priority) {
+        return waitMax[priority.ordinal()];
+    }
+
+    private boolean hasCapacity(int p, String host) {
+        if (runningTotal >= maxRequests || running[p] >= maxPerPriority[p]) return false;
+        Integer count = runningPerHost.get(host);
+        return count == null || count < maxRequestsPerHost;
+    }
+
+    private void onStart(int p, String host, long waited) {
+        running[p]++;
+        runningTotal++;
+        Integer count = runningPerHost.get(host);
+        runningPerHost.put(host, count == null ? 1 : count + 1);
+
+        waitCount[p]++;
+        waitTotal[p] += waited;
+        if (waited > waitMax[p]) {
+            waitMax[p] = waited;
+        }
+    }
+
+    /**
+     * 在锁外执行出队的请求, 某个 task 抛出异常时释放它的并发数并继续执行其余的请求, 最后抛出第一个异常
+     */
+    private void run(List<Waiting> ready) {
+        RuntimeException failure = null;
+        for (Waiting waiting : ready) {
+            try {
+                waiting.task.run();
+            } catch (RuntimeException e) {
+                finished(waiting.priority, waiting.host);
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * 取出所有可以执行的请求, 每次在各优先级中选择 (优先级 * AGING_INTERVAL + 入队时间) 最小的请求
+     */
+    private List<Waiting> promote() {
+        List<Waiting> ready = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        while (runningTotal < maxRequests) {
+            int bestPriority = -1;
+            Waiting best = null;
+            long bestKey = Long.MAX_VALUE;
+            for (int p = 0; p < LEVELS; p++) {
+                if (running[p] >= maxPerPriority[p]) continue;
+                for (Waiting waiting : queues.get(p)) {
+                    if (!hasCapacity(p, waiting.host)) continue;
+                    long key = p * AGING_INTERVAL + waiting.enqueueTime;
+                    if (key < bestKey) {
+                        bestKey = key;
+                        best = waiting;
+                        bestPriority = p;
+                    }
+                    break;
+                }
+            }
+            if (best == null) break;
+
+            Iterator<Waiting> iterator = queues.get(bestPriority).iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next() == best) {
+                    iterator.remove();
+                    break;
+                }
+            }
+            onStart(bestPriority, best.host, now - best.enqueueTime);
+            ready.add(best);
+        }
+        return ready;
+    }
+}
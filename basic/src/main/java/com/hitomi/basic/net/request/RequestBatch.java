@@ -0,0 +1,343 @@
+package com.hitomi.basic.net.request;
+
+import com.hitomi.basic.net.OkHttpUtils;
+import com.hitomi.basic.net.callback.Callback;
+import com.hitomi.basic.net.callback.FileCallBack;
+import com.hitomi.basic.net.utils.NetScheduler;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+
+import okhttp3.Call;
+import okhttp3.Response;
+
+/**
+ * 并发执行一组 RequestCall, 所有结果通过一次回调线程的调度一起返回 <br/>
+ * <ul>
+ * <li>{@link Mode#ALL_OF}：所有请求结束后回调</li>
+ * <li>{@link Mode#ANY_OF}：任意一个请求成功后回调, 其余请求被取消</li>
+ * <li>{@link Mode#FIRST_N}：前 n 个请求成功后回调, 其余请求被取消</li>
+ * </ul>
+ * 每个请求自己的 Callback 依旧负责解析响应, 并在批量回调之前收到 onResponse/onError 与 onAfter <br/>
+ * 请求与单独执行时一样经过 {@link OkHttpUtils#execute(RequestCall, Callback)}, 去重、重试、熔断、离线队列以及
+ * 按 tag、group、owner 取消同样生效; 使用 FileCallBack 的请求不参与去重
+ */
+public class RequestBatch {
+    /**
+     * 执行中且设置了 tag 的批次, 以 tag 为 key
+     */
+    private static final Map<Object, Set<RequestBatch>> RUNNING = new HashMap<>();
+
+    public enum Mode {
+        ALL_OF, ANY_OF, FIRST_N
+    }
+
+    public interface BatchCallback {
+        /**
+         * UI Thread
+         *
+         * @param results 与 add 的顺序一致
+         */
+        void onComplete(List<Result> results);
+    }
+
+    public static class Result {
+        public final int index;
+        public final RequestCall requestCall;
+        private Object response;
+        private Exception error;
+        private boolean done;
+
+        Result(int index, RequestCall requestCall) {
+            this.index = index;
+            this.requestCall = requestCall;
+        }
+
+        public boolean isSuccessful() {
+            return done && error == null;
+        }
+
+        public Object getResponse() {
+            return response;
+        }
+
+        public Exception getError() {
+            return error;
+        }
+    }
+
+    private final List<Result> results = new ArrayList<>();
+    private final List<Callback> callbacks = new ArrayList<>();
+    private final LinkedList<Integer> pending = new LinkedList<>();
+
+    private Mode mode = Mode.ALL_OF;
+    private int required;
+    private int maxConcurrency = 4;
+    private long timeout;
+    private Object tag;
+
+    private BatchCallback batchCallback;
+    private ScheduledFuture<?> timeoutFuture;
+    private int running;
+    private int succeeded;
+    private int failed;
+    private boolean finished;
+
+    public RequestBatch add(RequestCall requestCall) {
+        return add(requestCall, null);
+    }
+
+    public RequestBatch add(RequestCall requestCall, Callback callback) {
+        results.add(new Result(results.size(), requestCall));
+        callbacks.add(callback == null ? Callback.CALLBACK_DEFAULT : callback);
+        return this;
+    }
+
+    public RequestBatch allOf() {
+        mode = Mode.ALL_OF;
+        return this;
+    }
+
+    public RequestBatch anyOf() {
+        mode = Mode.ANY_OF;
+        required = 1;
+        return this;
+    }
+
+    public RequestBatch firstN(int n) {
+        mode = Mode.FIRST_N;
+        required = n;
+        return this;
+    }
+
+    /**
+     * 同时执行的最大请求数
+     */
+    public RequestBatch maxConcurrency(int maxConcurrency) {
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        return this;
+    }
+
+    /**
+     * 整个批次的超时时间, 超时后未完成的请求被取消并以 InterruptedIOException 结束
+     */
+    public RequestBatch timeout(long timeoutMillis) {
+        this.timeout = timeoutMillis;
+        return this;
+    }
+
+    /**
+     * {@link OkHttpUtils#cancelTag(Object)} 时会取消整个批次
+     */
+    public RequestBatch tag(Object tag) {
+        this.tag = tag;
+        return this;
+    }
+
+    public void execute(BatchCallback callback) {
+        batchCallback = callback;
+        if (mode != Mode.ALL_OF) {
+            required = Math.min(Math.max(1, required), results.size());
+        }
+
+        for (int i = 0; i < results.size(); i++) {
+            RequestCall requestCall = results.get(i).requestCall;
+            Callback c = callbacks.get(i);
+            if (c instanceof FileCallBack) {
+                // MemberCallback 包装之后 OkHttpUtils 无法识别 FileCallBack, 在这里关闭去重
+                requestCall.deduplicate(false);
+            }
+            requestCall.buildCall(c);
+            c.onBefore(requestCall.getRequest(), requestCall.getOkHttpRequest().getId());
+            pending.add(i);
+        }
+
+        if (tag != null) {
+            synchronized (RUNNING) {
+                Set<RequestBatch> batches = RUNNING.get(tag);
+                if (batches == null) {
+                    batches = new HashSet<>();
+                    RUNNING.put(tag, batches);
+                }
+                batches.add(this);
+            }
+        }
+        if (timeout > 0) {
+            timeoutFuture = NetScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    finish(new InterruptedIOException("batch timeout"));
+                }
+            }, timeout);
+        }
+
+        if (results.isEmpty()) {
+            finish(null);
+            return;
+        }
+        startPending();
+    }
+
+    public void cancel() {
+        finish(new IOException("Canceled!"));
+    }
+
+    public Object getTag() {
+        return tag;
+    }
+
+    public static void cancelTag(Object tag) {
+        List<RequestBatch> batches;
+        synchronized (RUNNING) {
+            Set<RequestBatch> running = tag == null ? null : RUNNING.get(tag);
+            if (running == null) return;
+            batches = new ArrayList<>(running);
+        }
+        for (RequestBatch batch : batches) {
+            batch.cancel();
+        }
+    }
+
+    private void startPending() {
+        List<Integer> toStart = new ArrayList<>();
+        synchronized (this) {
+            while (!finished && running < maxConcurrency && !pending.isEmpty()) {
+                toStart.add(pending.removeFirst());
+                running++;
+            }
+        }
+        for (int index : toStart) {
+            start(index);
+        }
+    }
+
+    private void start(int index) {
+        Result result = results.get(index);
+        OkHttpUtils.getInstance().execute(result.requestCall, new MemberCallback(result, callbacks.get(index)));
+    }
+
+    /**
+     * 解析交给请求自己的 Callback, 结果先记录在批次中, 批次结束时再统一回调
+     */
+    private class MemberCallback extends Callback {
+        private final Result result;
+        private final Callback callback;
+
+        MemberCallback(Result result, Callback callback) {
+            this.result = result;
+            this.callback = callback;
+        }
+
+        @Override
+        public boolean validateReponse(Response response, int id) {
+            return callback.validateReponse(response, id);
+        }
+
+        @Override
+        public Object parseNetworkResponse(Response response, int id) throws Exception {
+            return callback.parseNetworkResponse(response, id);
+        }
+
+        @Override
+        public void onError(Call call, Exception e, int id) {
+            onResult(result, null, e);
+        }
+
+        @Override
+        public void onResponse(Object response, int id) {
+            onResult(result, response, null);
+        }
+    }
+
+    private void onResult(Result result, Object response, Exception error) {
+        boolean complete;
+        synchronized (this) {
+            if (finished) return;
+            result.done = true;
+            result.response = response;
+            result.error = error;
+            running--;
+            if (error == null) succeeded++;
+            else failed++;
+
+            if (mode == Mode.ALL_OF) {
+                complete = succeeded + failed == results.size();
+            } else {
+                // 剩余的请求即使全部成功也不可能满足要求时同样结束
+                complete = succeeded >= required || results.size() - failed < required;
+            }
+        }
+        if (complete) {
+            finish(null);
+        } else {
+            startPending();
+        }
+    }
+
+    /**
+     * @param reason 未完成请求的失败原因, null 表示正常结束
+     */
+    private void finish(Exception reason) {
+        synchronized (this) {
+            if (finished) return;
+            finished = true;
+            pending.clear();
+            for (Result result : results) {
+                if (!result.done) {
+                    result.done = true;
+                    result.error = reason != null ? reason : new IOException("Canceled!");
+                }
+            }
+        }
+        for (Result result : results) {
+            Call call = result.requestCall.getCall();
+            if (call != null && !result.isSuccessful()) {
+                call.cancel();
+            }
+        }
+        deliver();
+    }
+
+    private void deliver() {
+        if (timeoutFuture != null) {
+            timeoutFuture.cancel(false);
+        }
+        if (tag != null) {
+            synchronized (RUNNING) {
+                Set<RequestBatch> batches = RUNNING.get(tag);
+                if (batches != null && batches.remove(this) && batches.isEmpty()) {
+                    RUNNING.remove(tag);
+                }
+            }
+        }
+        final List<Result> snapshot = Collections.unmodifiableList(new ArrayList<>(results));
+        OkHttpUtils.getInstance().getDelivery().execute(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < snapshot.size(); i++) {
+                    Result result = snapshot.get(i);
+                    Callback callback = callbacks.get(i);
+                    int id = result.requestCall.getOkHttpRequest().getId();
+                    if (result.error == null) {
+                        callback.onResponse(result.response, id);
+                    } else {
+                        callback.onError(result.requestCall.getCall(), result.error, id);
+                    }
+                    callback.onAfter(id);
+                }
+                if (batchCallback != null) {
+                    batchCallback.onComplete(snapshot);
+                }
+            }
+        });
+    }
+}
@@ -2,12 +2,12 @@ package com.hitomi.basic.net.request;
 
 import com.hitomi.basic.net.OkHttpUtils;
 import com.hitomi.basic.net.callback.Callback;
+import com.hitomi.basic.net.offline.OfflineQueue;
 
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
+import java.util.UUID;
 
 import okhttp3.Call;
-import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 
@@ -23,8 +23,13 @@ public class RequestCall {
     private long readTimeOut;
     private long writeTimeOut;
     private long connTimeOut;
-
-    private OkHttpClient clone;
+    private boolean deduplicate;
+    private Object group;
+    private Object owner;
+    private Priority priority = Priority.NORMAL;
+    private RetryPolicy retryPolicy;
+    private boolean offline;
+    private int attempt = 1;
 
     public RequestCall(OkHttpRequest request) {
         this.okHttpRequest = request;
@@ -45,6 +50,92 @@ public class RequestCall {
         return this;
     }
 
+    /**
+     * 开启后, 与正在执行中的相同 GET / HEAD 请求合并, 只发出一次网络请求, 结果分发给所有 Callback <br/>
+     * 使用 FileCallBack 的请求不参与合并
+     */
+    public RequestCall deduplicate(boolean deduplicate) {
+        this.deduplicate = deduplicate;
+        return this;
+    }
+
+    public boolean isDeduplicate() {
+        return deduplicate;
+    }
+
+    /**
+     * 请求所属的分组, 可通过 {@link OkHttpUtils#cancelGroup(Object)} 一次取消
+     */
+    public RequestCall group(Object group) {
+        this.group = group;
+        return this;
+    }
+
+    public Object getGroup() {
+        return group;
+    }
+
+    /**
+     * 请求的生命周期持有者 (例如 Activity), 可通过 {@link OkHttpUtils#cancelOwner(Object)} 一次取消
+     */
+    public RequestCall owner(Object owner) {
+        this.owner = owner;
+        return this;
+    }
+
+    public Object getOwner() {
+        return owner;
+    }
+
+    public RequestCall priority(Priority priority) {
+        this.priority = priority == null ? Priority.NORMAL : priority;
+        return this;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    public RequestCall retryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * 开启后, POST、PUT、DELETE 等非 GET / HEAD 请求因网络不可用而失败时放入 {@link OkHttpUtils#getOfflineQueue()},
+     * 网络恢复后自动重放, Callback 收到 {@link com.hitomi.basic.net.offline.OfflineQueuedException} <br/>
+     * 网络可用时只有域名解析失败、连接失败以及超时会放入队列, 其他错误 (例如证书错误) 照常回调失败 <br/>
+     * 这类请求在第一次发出前就会带上 Idempotency-Key 请求头, 重放时沿用同一个值, 服务端据此去重
+     */
+    public RequestCall offline(boolean offline) {
+        this.offline = offline;
+        return this;
+    }
+
+    public boolean isOffline() {
+        return offline;
+    }
+
+    /**
+     * @return 当前是第几次执行, 从 1 开始
+     */
+    public int getAttempt() {
+        return attempt;
+    }
+
+    /**
+     * 为重试创建一个新的 Call
+     */
+    public Call newAttempt() {
+        call = call.clone();
+        attempt++;
+        return call;
+    }
+
     public Call buildCall(Callback callback) {
         request = generateRequest(callback);
 
@@ -53,13 +144,9 @@ public class RequestCall {
             writeTimeOut = writeTimeOut > 0 ? writeTimeOut : OkHttpUtils.DEFAULT_MILLISECONDS;
             connTimeOut = connTimeOut > 0 ? connTimeOut : OkHttpUtils.DEFAULT_MILLISECONDS;
 
-            clone = OkHttpUtils.getInstance().getOkHttpClient().newBuilder()
-                    .readTimeout(readTimeOut, TimeUnit.MILLISECONDS)
-                    .writeTimeout(writeTimeOut, TimeUnit.MILLISECONDS)
-                    .connectTimeout(connTimeOut, TimeUnit.MILLISECONDS)
-                    .build();
-
-            call = clone.newCall(request);
+            call = OkHttpUtils.getInstance()
+                    .getOkHttpClient(connTimeOut, readTimeOut, writeTimeOut)
+                    .newCall(request);
         } else {
             call = OkHttpUtils.getInstance().getOkHttpClient().newCall(request);
         }
@@ -67,7 +154,15 @@ public class RequestCall {
     }
 
     private Request generateRequest(Callback callback) {
-        return okHttpRequest.generateRequest(callback);
+        Request request = okHttpRequest.generateRequest(callback);
+        // 第一次发送可能在服务端已经处理后才超时, 重放必须与第一次使用同一个 key
+        if (offline && !"GET".equals(request.method()) && !"HEAD".equals(request.method())
+                && request.header(OfflineQueue.IDEMPOTENCY_KEY) == null) {
+            request = request.newBuilder()
+                    .header(OfflineQueue.IDEMPOTENCY_KEY, UUID.randomUUID().toString())
+                    .build();
+        }
+        return request;
     }
 
     public void execute(Callback callback) {
@@ -94,7 +189,13 @@ public class RequestCall {
 
     public Response execute() throws IOException {
         buildCall(null);
-        return call.execute();
+        CallRegistry registry = OkHttpUtils.getInstance().getCallRegistry();
+        registry.register(call, okHttpRequest.tag, group, owner);
+        try {
+            return call.execute();
+        } finally {
+            registry.unregister(call);
+        }
     }
 
     public void cancel() {
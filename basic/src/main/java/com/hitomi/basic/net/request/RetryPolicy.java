@@ -0,0 +1,140 @@
+package com.hitomi.basic.net.request;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * 请求失败后的重试策略：指数退避 + 随机抖动 <br/>
+ * 默认只重试幂等请求 (GET、HEAD、PUT、DELETE、OPTIONS 以及带有 Idempotency-Key 请求头的请求),
+ * 只在网络异常或者 408、429、500、502、503、504 时重试
+ */
+public class RetryPolicy {
+    private static final Random RANDOM = new Random();
+    private static final Set<String> IDEMPOTENT_METHODS =
+            new HashSet<>(Arrays.asList("GET", "HEAD", "PUT", "DELETE", "OPTIONS"));
+
+    private final int maxAttempts;
+    private final long baseDelay;
+    private final long maxDelay;
+    private final float jitter;
+    private final Set<Integer> retryableCodes;
+    private final boolean retryOnIOException;
+    private final boolean retryNonIdempotent;
+
+    private RetryPolicy(Builder builder) {
+        maxAttempts = builder.maxAttempts;
+        baseDelay = builder.baseDelay;
+        maxDelay = builder.maxDelay;
+        jitter = builder.jitter;
+        retryableCodes = builder.retryableCodes;
+        retryOnIOException = builder.retryOnIOException;
+        retryNonIdempotent = builder.retryNonIdempotent;
+    }
+
+    /**
+     * @param attempt  已经执行的次数, 从 1 开始
+     * @param response 失败的响应, 网络异常时为 null
+     * @param e        网络异常, 有响应时为 null
+     */
+    public boolean shouldRetry(Request request, int attempt, Response response, IOException e) {
+        if (attempt >= maxAttempts) return false;
+        if (!retryNonIdempotent && !isIdempotent(request)) return false;
+        if (e != null) return retryOnIOException;
+        return response != null && retryableCodes.contains(response.code());
+    }
+
+    /**
+     * 第 attempt 次失败之后的等待时间, 服务端返回 Retry-After (秒) 时优先使用
+     */
+    public long delayMillis(int attempt, Response response) {
+        if (response != null) {
+            String retryAfter = response.header("Retry-After");
+            if (retryAfter != null) {
+                try {
+                    return Math.min(maxDelay, Long.parseLong(retryAfter.trim()) * 1000);
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        long delay = baseDelay << Math.min(attempt - 1, 30);
+        if (delay <= 0 || delay > maxDelay) {
+            delay = maxDelay;
+        }
+        float random;
+        synchronized (RANDOM) {
+            random = RANDOM.nextFloat();
+        }
+        return (long) (delay * (1 - jitter * random));
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    private static boolean isIdempotent(Request request) {
+        return IDEMPOTENT_METHODS.contains(request.method()) || request.header("Idempotency-Key") != null;
+    }
+
+    public static class Builder {
+        private int maxAttempts = 3;
+        private long baseDelay = 500;
+        private long maxDelay = 30_000;
+        private float jitter = 0.5f;
+        private Set<Integer> retryableCodes = new HashSet<>(Arrays.asList(408, 429, 500, 502, 503, 504));
+        private boolean retryOnIOException = true;
+        private boolean retryNonIdempotent;
+
+        /**
+         * 最多执行的次数 (包含第一次)
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            this.maxAttempts = Math.max(1, maxAttempts);
+            return this;
+        }
+
+        /**
+         * 退避时间：baseDelay * 2^(attempt - 1), 不超过 maxDelay
+         */
+        public Builder backoff(long baseDelay, long maxDelay) {
+            this.baseDelay = baseDelay;
+            this.maxDelay = maxDelay;
+            return this;
+        }
+
+        /**
+         * 抖动比例 0~1, 实际等待时间在 [delay * (1 - jitter), delay] 之间随机
+         */
+        public Builder jitter(float jitter) {
+            this.jitter = Math.max(0, Math.min(1, jitter));
+            return this;
+        }
+
+        public Builder retryableCodes(Integer... codes) {
+            this.retryableCodes = new HashSet<>(Arrays.asList(codes));
+            return this;
+        }
+
+        public Builder retryOnIOException(boolean retry) {
+            this.retryOnIOException = retry;
+            return this;
+        }
+
+        /**
+         * 是否重试 POST、PATCH 等非幂等请求, 默认 false
+         */
+        public Builder retryNonIdempotent(boolean retry) {
+            this.retryNonIdempotent = retry;
+            return this;
+        }
+
+        public RetryPolicy create() {
+            return new RetryPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.hitomi.basic.net.utils;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 网络层共享的定时器, 用于超时、重试退避等延时任务 <br/>
+ * 只有一个守护线程, 任务本身应当足够轻量
+ */
+public class NetScheduler {
+    private static ScheduledThreadPoolExecutor executor;
+
+    private NetScheduler() {
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor executor() {
+        if (executor == null) {
+            executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "OkHttpUtils Scheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    public static ScheduledFuture<?> schedule(Runnable runnable, long delayMillis) {
+        return executor().schedule(runnable, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static ScheduledFuture<?> scheduleAtFixedRate(Runnable runnable, long periodMillis) {
+        return executor().scheduleAtFixedRate(runnable, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static void execute(Runnable runnable) {
+        executor().execute(runnable);
+    }
+}
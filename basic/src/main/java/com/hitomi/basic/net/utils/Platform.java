@@ -20,13 +20,33 @@ import android.os.Handler;
 import android.os.Looper;
 
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * 回调线程的提供者 <br/>
+ * Android 上默认回调到主线程, JVM 上默认回调到一个共享的单线程池 (保证回调顺序且不会为每个回调新建线程池),
+ * 也可以通过 {@link #setCallbackExecutor(Executor)} 改为 {@link #DIRECT} 或者自定义的 Executor
+ */
 public class Platform {
+    /**
+     * 直接在网络线程中回调
+     */
+    public static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
     private static final Platform PLATFORM = findPlatform();
 
+    private Executor callbackExecutor;
+    private ThreadPoolExecutor sharedExecutor;
+
     public static Platform get() {
-        L.e(PLATFORM.getClass().toString());
         return PLATFORM;
     }
 
@@ -41,19 +61,54 @@ public class Platform {
         return new Platform();
     }
 
-    public Executor defaultCallbackExecutor() {
-        return Executors.newCachedThreadPool();
+    public synchronized Executor defaultCallbackExecutor() {
+        if (sharedExecutor == null) {
+            sharedExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "OkHttpUtils Callback");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            sharedExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sharedExecutor;
+    }
+
+    public synchronized Executor callbackExecutor() {
+        return callbackExecutor != null ? callbackExecutor : defaultCallbackExecutor();
+    }
+
+    /**
+     * @param executor 回调使用的 Executor, 传 null 恢复为默认
+     */
+    public synchronized void setCallbackExecutor(Executor executor) {
+        callbackExecutor = executor;
+    }
+
+    /**
+     * 关闭共享的回调线程池, 之后的回调会重新创建
+     */
+    public synchronized void shutdown() {
+        if (sharedExecutor != null) {
+            sharedExecutor.shutdown();
+            sharedExecutor = null;
+        }
     }
 
     public void execute(Runnable runnable) {
-        defaultCallbackExecutor().execute(runnable);
+        callbackExecutor().execute(runnable);
     }
 
 
     static class Android extends Platform {
+        private final Executor mainThreadExecutor = new MainThreadExecutor();
+
         @Override
         public Executor defaultCallbackExecutor() {
-            return new MainThreadExecutor();
+            return mainThreadExecutor;
         }
 
         static class MainThreadExecutor implements Executor {
@@ -13,6 +13,7 @@ import com.hitomi.basic.manager.hook.HookManager;
 import com.hitomi.basic.manager.hook.ListenerManager;
 import com.hitomi.basic.model.AppExitEvent;
 import com.hitomi.basic.net.OkHttpUtils;
+import com.hitomi.basic.net.offline.OfflineQueue;
 import com.hitomi.basic.view.slideback.SlideBackHelper;
 
 import org.greenrobot.eventbus.EventBus;
@@ -56,22 +57,35 @@ public abstract class BaseActivity extends AppCompatActivity implements UIHandle
                 @Override
                 public void onWifiAvailable() {
                     endHook();
+                    setOfflineQueueOnline(true);
                 }
 
                 @Override
                 public void onMobileNetAvailable() {
                     endHook();
+                    setOfflineQueueOnline(true);
                 }
 
                 @Override
                 public void onNetworkUnavailable() {
                     startHook();
+                    setOfflineQueueOnline(false);
                 }
             };
             NetworkManager.getInstance().setNetworkChangeListener(onNetworkStatusChangeListener);
         }
     }
 
+    /**
+     * 同步离线请求队列的网络状态, 网络恢复时开始重放离线期间的请求
+     */
+    private void setOfflineQueueOnline(boolean online) {
+        OfflineQueue offlineQueue = OkHttpUtils.getInstance().getOfflineQueue();
+        if (offlineQueue != null) {
+            offlineQueue.setOnline(online);
+        }
+    }
+
     /**
      * 开启 View 监听器相关的钩子函数, 修改全局状态
      */
@@ -116,6 +130,7 @@ public abstract class BaseActivity extends AppCompatActivity implements UIHandle
         super.onDestroy(); // 销毁或反注册资源, 预防 OOM
         EventBus.getDefault().unregister(this);
         OkHttpUtils.getInstance().cancelTag(this.getClass().getSimpleName());
+        OkHttpUtils.getInstance().cancelOwner(this);
     }
 
 }
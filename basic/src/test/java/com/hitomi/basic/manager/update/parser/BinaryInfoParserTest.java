@@ -0,0 +1,162 @@
+package com.hitomi.basic.manager.update.parser;
+
+import com.hitomi.basic.manager.update.UpdateInfo;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BinaryInfoParserTest {
+    private static final byte[] MD5 = {
+            (byte) 0xd4, 0x1d, (byte) 0x8c, (byte) 0xd9, (byte) 0x8f, 0x00, (byte) 0xb2, 0x04,
+            (byte) 0xe9, (byte) 0x80, 0x09, (byte) 0x98, (byte) 0xec, (byte) 0xf8, 0x42, 0x7e
+    };
+
+    private final BinaryInfoParser parser = new BinaryInfoParser();
+
+    @Test
+    public void parsesEveryField() throws Exception {
+        Descriptor d = new Descriptor()
+                .intField(1, 42, 4)
+                .string(2, "2.1.0")
+                .string(3, "http://example.com/app.apk")
+                .string(4, "修复若干问题")
+                .longField(5, 5L * 1024 * 1024 * 1024, 8)
+                .bytes(6, MD5)
+                .intField(7, 0x05, 1)
+                .intField(16, 41, 2)
+                .string(17, "http://example.com/41-42.patch")
+                .bytes(18, MD5)
+                .longField(19, 123456, 4)
+                .bytes(20, MD5)
+                .end();
+
+        UpdateInfo info = parser.parse(d.stream());
+
+        assertEquals(42, info.getVersionCode());
+        assertEquals("2.1.0", info.getVersionName());
+        assertEquals("http://example.com/app.apk", info.getUrl());
+        assertEquals("修复若干问题", info.getUpdateContent());
+        assertEquals(5L * 1024 * 1024 * 1024, info.getSize());
+        assertEquals("d41d8cd98f00b204e9800998ecf8427e", info.getMd5());
+        assertTrue(info.isForce());
+        assertFalse(info.isAutoInstall());
+        assertTrue(info.isIgnorable());
+
+        UpdateInfo.Patch patch = info.getPatch();
+        assertEquals(41, patch.getBaseVersionCode());
+        assertEquals("http://example.com/41-42.patch", patch.getUrl());
+        assertEquals("d41d8cd98f00b204e9800998ecf8427e", patch.getMd5());
+        assertEquals(123456, patch.getSize());
+        assertEquals("d41d8cd98f00b204e9800998ecf8427e", patch.getTargetMd5());
+    }
+
+    @Test
+    public void skipsUnknownTagsAndLeavesPatchNull() throws Exception {
+        Descriptor d = new Descriptor()
+                .bytes(99, new byte[300])
+                .intField(1, 7, 1)
+                .string(200, "future")
+                .end();
+
+        UpdateInfo info = parser.parse(d.stream());
+
+        assertEquals(7, info.getVersionCode());
+        assertNull(info.getPatch());
+        // 未出现 flags 字段时保持默认值
+        assertFalse(info.isForce());
+        assertTrue(info.isAutoInstall());
+        assertTrue(info.isIgnorable());
+    }
+
+    @Test
+    public void stopsAtEndTag() throws Exception {
+        Descriptor d = new Descriptor()
+                .intField(1, 3, 1)
+                .end()
+                .intField(1, 4, 1);
+
+        assertEquals(3, parser.parse(d.stream()).getVersionCode());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsBadMagic() throws Exception {
+        parser.parse(new ByteArrayInputStream("{\"versionCode\":1}".getBytes("UTF-8")));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsBadIntLength() throws Exception {
+        parser.parse(new Descriptor().bytes(1, new byte[5]).end().stream());
+    }
+
+    @Test
+    public void truncatedInputFails() throws Exception {
+        byte[] full = new Descriptor().string(2, "2.1.0").end().toByteArray();
+        for (int length = 0; length < full.length; length++) {
+            byte[] truncated = new byte[length];
+            System.arraycopy(full, 0, truncated, 0, length);
+            try {
+                parser.parse(new ByteArrayInputStream(truncated));
+                fail("length " + length);
+            } catch (EOFException expected) {
+                // 缺少结束 tag 或字段不完整
+            }
+        }
+    }
+
+    private static class Descriptor {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        Descriptor() throws IOException {
+            out.writeInt(0x55504431);
+        }
+
+        Descriptor bytes(int tag, byte[] value) throws IOException {
+            out.writeByte(tag);
+            out.writeShort(value.length);
+            out.write(value);
+            return this;
+        }
+
+        Descriptor string(int tag, String value) throws IOException {
+            return bytes(tag, value.getBytes("UTF-8"));
+        }
+
+        Descriptor intField(int tag, int value, int length) throws IOException {
+            return longField(tag, value, length);
+        }
+
+        Descriptor longField(int tag, long value, int length) throws IOException {
+            byte[] b = new byte[length];
+            for (int i = length - 1; i >= 0; i--) {
+                b[i] = (byte) value;
+                value >>>= 8;
+            }
+            return bytes(tag, b);
+        }
+
+        Descriptor end() throws IOException {
+            out.writeByte(0);
+            return this;
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+
+        ByteArrayInputStream stream() {
+            return new ByteArrayInputStream(toByteArray());
+        }
+    }
+}
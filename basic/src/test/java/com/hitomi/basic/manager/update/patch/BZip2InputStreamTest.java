@@ -0,0 +1,128 @@
+package com.hitomi.basic.manager.update.patch;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * 测试数据由 Python 的 bz2 模块压缩生成
+ */
+public class BZip2InputStreamTest {
+    private static final String HELLO = "425a68393141592653594eece83600000251800010400006449080200031064c4101a7a9a580"
+            + "bb9431f8bb9229c28482776741b0";
+    private static final String EMPTY = "425a683917724538509000000000";
+    /**
+     * "a" * 1000 + "bcd" + "\0" * 300 + "e", 压缩级别 1
+     */
+    private static final String RUNS = "425a6831314159265359a5fa9d4f0000065101c00000203e00008000082000223d406420c98"
+            + "87d4142d881a6f149e2ee48a70a1214bf53a9e0";
+
+    @Test
+    public void decodesASmallBlock() throws Exception {
+        assertEquals("hello world\n", new String(decode(hex(HELLO)), "UTF-8"));
+    }
+
+    @Test
+    public void decodesAnEmptyStream() throws Exception {
+        assertEquals(0, decode(hex(EMPTY)).length);
+    }
+
+    @Test
+    public void decodesRunLengths() throws Exception {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 1000; i++) expected.write('a');
+        expected.write("bcd".getBytes("UTF-8"));
+        for (int i = 0; i < 300; i++) expected.write(0);
+        expected.write('e');
+        assertArrayEquals(expected.toByteArray(), decode(hex(RUNS)));
+    }
+
+    @Test
+    public void decodesMultipleHuffmanGroups() throws Exception {
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            expected.append("line ").append(i).append(" of the update patch test\n");
+        }
+        InputStream in = getClass().getResourceAsStream("lines.txt.bz2");
+        try {
+            assertEquals(expected.toString(), new String(decode(readAll(in)), "UTF-8"));
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void singleByteReadsMatchBulkReads() throws Exception {
+        BZip2InputStream in = new BZip2InputStream(new ByteArrayInputStream(hex(HELLO)));
+        StringBuilder sb = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1) {
+            sb.append((char) b);
+        }
+        in.close();
+        assertEquals("hello world\n", sb.toString());
+    }
+
+    @Test
+    public void rejectsCorruptCrc() throws Exception {
+        byte[] data = hex(HELLO);
+        // "BZh9" 与 6 字节的块 magic 之后是 4 字节的块 CRC
+        data[10] ^= 0x01;
+        try {
+            decode(data);
+            fail("crc mismatch should be detected");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void rejectsTruncatedStream() throws Exception {
+        byte[] data = hex(HELLO);
+        byte[] truncated = new byte[data.length - 12];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        try {
+            decode(truncated);
+            fail("truncated stream should be detected");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsNonBzip2Data() throws Exception {
+        decode("not bzip2 data".getBytes("UTF-8"));
+    }
+
+    private static byte[] decode(byte[] compressed) throws IOException {
+        InputStream in = new BZip2InputStream(new ByteArrayInputStream(compressed));
+        try {
+            return readAll(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] hex(String s) {
+        byte[] bytes = new byte[s.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(s.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+}
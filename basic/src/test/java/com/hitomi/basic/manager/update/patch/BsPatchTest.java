@@ -0,0 +1,133 @@
+package com.hitomi.basic.manager.update.patch;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * old-to-new.patch 是按照 BSDIFF40 格式生成的增量包, 包含三条控制记录:
+ * 带差异的 1000 字节 + 插入 13 字节、向后跳过 500 字节复制 300 字节后向前跳回开头、带差异的 200 字节 + 插入 5 字节
+ */
+public class BsPatchTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private byte[] old;
+    private File oldFile;
+    private File patchFile;
+    private File newFile;
+
+    @Before
+    public void setUp() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            sb.append("line ").append(i).append(" of the old apk\n");
+        }
+        old = sb.toString().getBytes("UTF-8");
+        oldFile = write("old.apk", old);
+        InputStream in = getClass().getResourceAsStream("old-to-new.patch");
+        try {
+            patchFile = write("update.patch", BZip2InputStreamTest.readAll(in));
+        } finally {
+            in.close();
+        }
+        newFile = new File(folder.getRoot(), "new.apk");
+    }
+
+    @Test
+    public void appliesThePatchAndReturnsTheMd5() throws Exception {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(bump(old, 0, 1000));
+        expected.write("INSERTED DATA".getBytes("UTF-8"));
+        expected.write(old, 1500, 300);
+        expected.write(bump(old, 0, 200));
+        expected.write("<EOF>".getBytes("UTF-8"));
+
+        String md5 = BsPatch.patch(oldFile, patchFile, newFile);
+
+        byte[] actual = read(newFile);
+        assertArrayEquals(expected.toByteArray(), actual);
+        assertEquals("d7ccf357c760b42d00b354d13a56055e", md5);
+        assertEquals(md5(actual), md5);
+    }
+
+    @Test
+    public void rejectsAnUnknownFormatAndDeletesTheOutput() throws Exception {
+        byte[] patch = read(patchFile);
+        patch[7] = '1';
+        write("update.patch", patch);
+        try {
+            BsPatch.patch(oldFile, patchFile, newFile);
+            fail("bad magic should be rejected");
+        } catch (IOException expected) {
+        }
+        assertFalse(newFile.exists());
+    }
+
+    @Test
+    public void rejectsATruncatedPatchAndDeletesTheOutput() throws Exception {
+        byte[] patch = read(patchFile);
+        byte[] truncated = new byte[patch.length - 20];
+        System.arraycopy(patch, 0, truncated, 0, truncated.length);
+        write("update.patch", truncated);
+        try {
+            BsPatch.patch(oldFile, patchFile, newFile);
+            fail("truncated patch should be rejected");
+        } catch (IOException expected) {
+        }
+        assertFalse(newFile.exists());
+    }
+
+    /**
+     * 与生成增量包时的修改一致: 每 50 个字节加一
+     */
+    private static byte[] bump(byte[] data, int offset, int length) {
+        byte[] out = new byte[length];
+        System.arraycopy(data, offset, out, 0, length);
+        for (int i = 0; i < length; i += 50) {
+            out[i]++;
+        }
+        return out;
+    }
+
+    private File write(String name, byte[] data) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return BZip2InputStreamTest.readAll(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String md5(byte[] data) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        return String.format("%1$032x", new BigInteger(1, digest.digest(data)));
+    }
+}
@@ -0,0 +1,156 @@
+package com.hitomi.basic.net;
+
+import com.hitomi.basic.net.callback.FileCallBack;
+import com.hitomi.basic.net.callback.StringCallback;
+import com.hitomi.basic.net.request.InFlightRequests;
+import com.hitomi.basic.net.utils.Platform;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 去重请求使用不同 Callback 时的结果分发
+ */
+public class DeduplicateTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final MockWebServer server = new MockWebServer();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private String body;
+
+    @Before
+    public void setUp() throws Exception {
+        Platform.get().setCallbackExecutor(Platform.DIRECT);
+        // 第一个请求到达服务端后挂起, 直到其余请求都已经挂载
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                release.await(10, TimeUnit.SECONDS);
+                return new MockResponse().setBody(body);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        server.shutdown();
+        Platform.get().setCallbackExecutor(null);
+    }
+
+    @Test
+    public void smallBodyIsSharedBetweenDifferentCallbacks() throws Exception {
+        body = "hello";
+        String url = server.url("/small").toString();
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+
+        OkHttpUtils.get().url(url).build().deduplicate(true).execute(first);
+        OkHttpUtils.get().url(url).build().deduplicate(true).execute(second);
+        release.countDown();
+
+        first.await();
+        second.await();
+        assertEquals("hello", first.result);
+        assertEquals("hello", second.result);
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void largeBodyIsNotBufferedForDifferentCallbacks() throws Exception {
+        char[] chars = new char[(int) InFlightRequests.MAX_SHARED_BODY + 1];
+        Arrays.fill(chars, 'a');
+        body = new String(chars);
+        String url = server.url("/large").toString();
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+
+        OkHttpUtils.get().url(url).build().deduplicate(true).execute(first);
+        OkHttpUtils.get().url(url).build().deduplicate(true).execute(second);
+        release.countDown();
+
+        first.await();
+        second.await();
+        assertEquals(body, first.result);
+        assertEquals(body, second.result);
+        // 挂载的请求改为单独发出
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void fileCallBackIsNeverMerged() throws Exception {
+        body = "file content";
+        String url = server.url("/file").toString();
+        Recorder string = new Recorder();
+        final CountDownLatch fileDone = new CountDownLatch(1);
+        final File[] saved = new File[1];
+        final Exception[] failure = new Exception[1];
+
+        OkHttpUtils.get().url(url).build().deduplicate(true).execute(string);
+        OkHttpUtils.get().url(url).build().deduplicate(true).execute(
+                new FileCallBack(folder.getRoot().getPath(), "out.txt") {
+                    @Override
+                    public void onError(Call call, Exception e, int id) {
+                        failure[0] = e;
+                        fileDone.countDown();
+                    }
+
+                    @Override
+                    public void onResponse(File response, int id) {
+                        saved[0] = response;
+                        fileDone.countDown();
+                    }
+                });
+        release.countDown();
+
+        string.await();
+        assertTrue(fileDone.await(10, TimeUnit.SECONDS));
+        assertNull(failure[0]);
+        assertEquals(body, string.result);
+        assertEquals(body.length(), saved[0].length());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    private static class Recorder extends StringCallback {
+        private final CountDownLatch done = new CountDownLatch(1);
+        String result;
+        Exception error;
+
+        @Override
+        public void onError(Call call, Exception e, int id) {
+            error = e;
+            done.countDown();
+        }
+
+        @Override
+        public void onResponse(String response, int id) {
+            result = response;
+            done.countDown();
+        }
+
+        void await() throws Exception {
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertNull(error);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.hitomi.basic.net;
+
+import com.hitomi.basic.net.request.PriorityDispatcher;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class OkHttpUtilsTest {
+
+    @Test
+    public void timeoutClientIsCreatedOncePerProfile() {
+        OkHttpUtils utils = new OkHttpUtils(new OkHttpClient());
+
+        OkHttpClient first = utils.getOkHttpClient(1000, 2000, 3000);
+        assertSame(first, utils.getOkHttpClient(1000, 2000, 3000));
+        assertNotSame(first, utils.getOkHttpClient(1000, 2000, 4000));
+
+        assertEquals(1000, first.connectTimeoutMillis());
+        assertEquals(2000, first.readTimeoutMillis());
+        assertEquals(3000, first.writeTimeoutMillis());
+    }
+
+    @Test
+    public void timeoutClientsShareTheDefaultClientResources() {
+        OkHttpClient base = new OkHttpClient.Builder()
+                .connectTimeout(10, TimeUnit.SECONDS)
+                .build();
+        OkHttpUtils utils = new OkHttpUtils(base);
+
+        OkHttpClient client = utils.getOkHttpClient(500, 500, 500);
+        assertSame(utils.getOkHttpClient().dispatcher(), client.dispatcher());
+        assertSame(base.connectionPool(), client.connectionPool());
+        assertEquals(base.interceptors(), client.interceptors());
+    }
+
+    @Test
+    public void leavesTheCallersDispatcherAlone() {
+        OkHttpClient base = new OkHttpClient();
+        int maxRequests = base.dispatcher().getMaxRequests();
+        int maxRequestsPerHost = base.dispatcher().getMaxRequestsPerHost();
+
+        OkHttpUtils first = new OkHttpUtils(base);
+        OkHttpUtils second = new OkHttpUtils(base);
+
+        assertEquals(maxRequests, base.dispatcher().getMaxRequests());
+        assertEquals(maxRequestsPerHost, base.dispatcher().getMaxRequestsPerHost());
+        assertNotSame(base.dispatcher(), first.getOkHttpClient().dispatcher());
+        assertSame(base.dispatcher().executorService(), first.getOkHttpClient().dispatcher().executorService());
+        // 多次创建不会累加余量
+        assertEquals(first.getOkHttpClient().dispatcher().getMaxRequests(),
+                second.getOkHttpClient().dispatcher().getMaxRequests());
+        assertEquals(maxRequests + PriorityDispatcher.IMMEDIATE_HEADROOM,
+                first.getOkHttpClient().dispatcher().getMaxRequests());
+    }
+
+    @Test
+    public void leastRecentlyUsedProfilesAreEvicted() {
+        OkHttpUtils utils = new OkHttpUtils(new OkHttpClient());
+
+        OkHttpClient kept = utils.getOkHttpClient(1, 1, 1);
+        OkHttpClient evicted = utils.getOkHttpClient(2, 2, 2);
+        for (int i = 3; i < 100; i++) {
+            // 持续访问 kept, 使其始终不是最久未使用的
+            assertSame(kept, utils.getOkHttpClient(1, 1, 1));
+            utils.getOkHttpClient(i, i, i);
+        }
+        assertSame(kept, utils.getOkHttpClient(1, 1, 1));
+        assertNotSame(evicted, utils.getOkHttpClient(2, 2, 2));
+    }
+}
@@ -0,0 +1,166 @@
+package com.hitomi.basic.net.callback;
+
+import com.hitomi.basic.net.utils.Platform;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import okhttp3.Call;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.Okio;
+import okio.Source;
+import okio.Timeout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * FileCallBack 写入吞吐量, 与改动前 2KB byte[] + FileOutputStream 的写法对比 <br/>
+ * 默认跳过, 通过 ./gradlew :basic:testDebugUnitTest -Pbenchmark --tests '*FileCallBackBenchmark' 运行 <br/>
+ * 响应体由内存中生成而不是经过 MockWebServer: MockWebServer 需要把整个响应体放在 Buffer 中, 1GB 放不进测试进程的堆,
+ * 回环网络的开销也与这里要比较的写入路径无关
+ */
+public class FileCallBackBenchmark {
+    private static final long MB = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        Platform.get().setCallbackExecutor(Platform.DIRECT);
+    }
+
+    @After
+    public void tearDown() {
+        Platform.get().setCallbackExecutor(null);
+    }
+
+    @Test
+    public void tenMegabytes() throws Exception {
+        run(10 * MB);
+    }
+
+    @Test
+    public void hundredMegabytes() throws Exception {
+        run(100 * MB);
+    }
+
+    @Test
+    public void oneGigabyte() throws Exception {
+        run(1024 * MB);
+    }
+
+    private void run(long size) throws Exception {
+        // 预热 JIT
+        legacySave(response(8 * MB), new File(folder.getRoot(), "warmup"));
+        okioSave(response(8 * MB), "warmup");
+
+        File legacyFile = new File(folder.getRoot(), "legacy");
+        long start = System.nanoTime();
+        legacySave(response(size), legacyFile);
+        long legacy = System.nanoTime() - start;
+        assertEquals(size, legacyFile.length());
+        legacyFile.delete();
+
+        start = System.nanoTime();
+        File okioFile = okioSave(response(size), "okio");
+        long okio = System.nanoTime() - start;
+        assertEquals(size, okioFile.length());
+        okioFile.delete();
+
+        System.out.println(String.format("FileCallBack %d MB: byte[] %.1f MB/s, okio %.1f MB/s",
+                size / MB, throughput(size, legacy), throughput(size, okio)));
+    }
+
+    private File okioSave(Response response, String name) throws IOException {
+        FileCallBack callBack = new FileCallBack(folder.getRoot().getPath(), name) {
+            @Override
+            public void onError(Call call, Exception e, int id) {
+            }
+
+            @Override
+            public void onResponse(File response, int id) {
+            }
+        };
+        return callBack.saveFile(response, 0);
+    }
+
+    /**
+     * 改动前 saveFile 的写法
+     */
+    private static void legacySave(Response response, File file) throws IOException {
+        InputStream is = response.body().byteStream();
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            byte[] buf = new byte[2048];
+            int len;
+            while ((len = is.read(buf)) != -1) {
+                fos.write(buf, 0, len);
+            }
+            fos.flush();
+        } finally {
+            fos.close();
+            response.body().close();
+        }
+    }
+
+    private static double throughput(long bytes, long nanos) {
+        return bytes * 1e9 / MB / nanos;
+    }
+
+    private static Response response(long size) {
+        return new Response.Builder()
+                .request(new Request.Builder().url("http://example.com/file").build())
+                .protocol(Protocol.HTTP_1_1)
+                .code(200)
+                .message("OK")
+                .body(ResponseBody.create(MediaType.parse("application/octet-stream"), size,
+                        Okio.buffer(new ZeroSource(size))))
+                .build();
+    }
+
+    /**
+     * 产生 size 个字节的 Source, 不占用与 size 成正比的内存
+     */
+    private static class ZeroSource implements Source {
+        private static final byte[] CHUNK = new byte[8192];
+        private long remaining;
+
+        ZeroSource(long size) {
+            this.remaining = size;
+        }
+
+        @Override
+        public long read(Buffer sink, long byteCount) {
+            if (remaining == 0) return -1;
+            int count = (int) Math.min(Math.min(byteCount, remaining), CHUNK.length);
+            sink.write(CHUNK, 0, count);
+            remaining -= count;
+            return count;
+        }
+
+        @Override
+        public Timeout timeout() {
+            return Timeout.NONE;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
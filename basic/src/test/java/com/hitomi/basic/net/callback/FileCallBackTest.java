@@ -0,0 +1,147 @@
+package com.hitomi.basic.net.callback;
+
+import com.hitomi.basic.net.utils.Platform;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import okhttp3.Call;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FileCallBackTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        Platform.get().setCallbackExecutor(Platform.DIRECT);
+    }
+
+    @After
+    public void tearDown() {
+        Platform.get().setCallbackExecutor(null);
+    }
+
+    @Test
+    public void savesTheWholeBodyAndReportsProgress() throws Exception {
+        byte[] content = new byte[300 * 1024 + 17];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        File dir = new File(folder.getRoot(), "nested/dir");
+        RecordingCallBack callBack = new RecordingCallBack(dir.getPath(), "out.bin");
+
+        File file = callBack.saveFile(response(content), 7);
+
+        assertEquals(new File(dir, "out.bin"), file);
+        assertArrayEquals(content, readAll(file));
+        assertTrue(callBack.progressCount > 0);
+        assertEquals(1f, callBack.lastProgress, 0f);
+        assertEquals(content.length, callBack.lastTotal);
+    }
+
+    @Test
+    public void progressIsThrottled() throws Exception {
+        byte[] content = new byte[10 * 1024 * 1024];
+        RecordingCallBack callBack = new RecordingCallBack(folder.getRoot().getPath(), "big.bin");
+
+        long start = System.currentTimeMillis();
+        callBack.saveFile(response(content), 1);
+        long elapsed = System.currentTimeMillis() - start;
+
+        // 每 200ms 最多一次, 另加第一次与最终进度
+        assertTrue(callBack.progressCount <= elapsed / 200 + 2);
+        assertEquals(1f, callBack.lastProgress, 0f);
+    }
+
+    @Test
+    public void emptyBodyCreatesAnEmptyFile() throws Exception {
+        RecordingCallBack callBack = new RecordingCallBack(folder.getRoot().getPath(), "empty.bin");
+
+        File file = callBack.saveFile(response(new byte[0]), 1);
+
+        assertTrue(file.exists());
+        assertEquals(0, file.length());
+        assertEquals(0, callBack.progressCount);
+    }
+
+    @Test
+    public void overwritesAnExistingFile() throws Exception {
+        File old = folder.newFile("out.bin");
+        byte[] longer = new byte[4096];
+        Arrays.fill(longer, (byte) 1);
+        new RecordingCallBack(folder.getRoot().getPath(), "out.bin").saveFile(response(longer), 1);
+
+        byte[] content = "new".getBytes("UTF-8");
+        new RecordingCallBack(folder.getRoot().getPath(), "out.bin").saveFile(response(content), 2);
+
+        assertArrayEquals(content, readAll(old));
+    }
+
+    private static Response response(byte[] content) {
+        return new Response.Builder()
+                .request(new Request.Builder().url("http://example.com/file").build())
+                .protocol(Protocol.HTTP_1_1)
+                .code(200)
+                .message("OK")
+                .body(ResponseBody.create(MediaType.parse("application/octet-stream"), content))
+                .build();
+    }
+
+    private static byte[] readAll(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = in.read(bytes, offset, bytes.length - offset);
+                if (read == -1) break;
+                offset += read;
+            }
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    private static class RecordingCallBack extends FileCallBack {
+        int progressCount;
+        float lastProgress;
+        long lastTotal;
+
+        RecordingCallBack(String destFileDir, String destFileName) {
+            super(destFileDir, destFileName);
+        }
+
+        @Override
+        public void inProgress(float progress, long total, int id) {
+            progressCount++;
+            lastProgress = progress;
+            lastTotal = total;
+        }
+
+        @Override
+        public void onError(Call call, Exception e, int id) {
+        }
+
+        @Override
+        public void onResponse(File response, int id) {
+        }
+    }
+}
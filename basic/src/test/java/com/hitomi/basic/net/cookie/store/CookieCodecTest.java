@@ -0,0 +1,90 @@
+package com.hitomi.basic.net.cookie.store;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import okhttp3.Cookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CookieCodecTest {
+
+    @Test
+    public void roundTripKeepsEveryAttribute() {
+        Cookie session = new Cookie.Builder()
+                .name("sid")
+                .value("abc123")
+                .hostOnlyDomain("api.example.com")
+                .path("/v1")
+                .httpOnly()
+                .build();
+        Cookie persistent = new Cookie.Builder()
+                .name("token")
+                .value("中文=value; with separators")
+                .domain("example.com")
+                .path("/")
+                .expiresAt(1893456000000L)
+                .secure()
+                .build();
+
+        List<Cookie> decoded = CookieCodec.fromBytes(CookieCodec.toBytes(Arrays.asList(session, persistent)));
+
+        assertEquals(2, decoded.size());
+        assertSameCookie(session, decoded.get(0));
+        assertSameCookie(persistent, decoded.get(1));
+    }
+
+    @Test
+    public void base64RoundTrip() {
+        Cookie a = new Cookie.Builder().name("a").value("1").domain("example.com").build();
+        Cookie b = new Cookie.Builder().name("b").value("中文").domain("example.com").build();
+
+        List<Cookie> decoded = CookieCodec.decode(CookieCodec.encode(Arrays.asList(a, b)));
+
+        assertEquals(2, decoded.size());
+        assertSameCookie(a, decoded.get(0));
+        assertSameCookie(b, decoded.get(1));
+    }
+
+    @Test
+    public void invalidBase64DecodesToNothing() {
+        assertTrue(CookieCodec.decode("not base64 !").isEmpty());
+        assertTrue(CookieCodec.decode(null).isEmpty());
+    }
+
+    @Test
+    public void emptyCollection() {
+        assertTrue(CookieCodec.fromBytes(CookieCodec.toBytes(new ArrayList<Cookie>())).isEmpty());
+    }
+
+    @Test
+    public void corruptDataDecodesToNothing() {
+        Cookie cookie = new Cookie.Builder().name("a").value("b").domain("example.com").build();
+        byte[] bytes = CookieCodec.toBytes(Arrays.asList(cookie, cookie));
+
+        byte[] truncated = Arrays.copyOf(bytes, bytes.length - 3);
+        assertTrue(CookieCodec.fromBytes(truncated).isEmpty());
+
+        byte[] otherVersion = bytes.clone();
+        otherVersion[0] = 99;
+        assertTrue(CookieCodec.fromBytes(otherVersion).isEmpty());
+
+        assertTrue(CookieCodec.fromBytes(new byte[0]).isEmpty());
+    }
+
+    private static void assertSameCookie(Cookie expected, Cookie actual) {
+        assertEquals(expected.name(), actual.name());
+        assertEquals(expected.value(), actual.value());
+        assertEquals(expected.expiresAt(), actual.expiresAt());
+        assertEquals(expected.domain(), actual.domain());
+        assertEquals(expected.path(), actual.path());
+        assertEquals(expected.secure(), actual.secure());
+        assertEquals(expected.httpOnly(), actual.httpOnly());
+        assertEquals(expected.hostOnly(), actual.hostOnly());
+        assertEquals(expected.persistent(), actual.persistent());
+    }
+}
@@ -0,0 +1,139 @@
+package com.hitomi.basic.net.cookie.store;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import okhttp3.Cookie;
+import okhttp3.HttpUrl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CookieIndexTest {
+
+    private CookieIndex index;
+
+    @Before
+    public void setUp() {
+        index = new CookieIndex();
+    }
+
+    @Test
+    public void registrableDomain() {
+        assertEquals("example.com", CookieIndex.registrableDomain("example.com"));
+        assertEquals("example.com", CookieIndex.registrableDomain("a.b.example.com"));
+        assertEquals("example.com.cn", CookieIndex.registrableDomain("www.example.com.cn"));
+        assertEquals("example.co.uk", CookieIndex.registrableDomain("shop.example.co.uk"));
+        assertEquals("localhost", CookieIndex.registrableDomain("localhost"));
+        assertEquals("192.168.1.10", CookieIndex.registrableDomain("192.168.1.10"));
+        assertEquals("::1", CookieIndex.registrableDomain("::1"));
+    }
+
+    @Test
+    public void getAppliesDomainPathAndSecureRules() {
+        Cookie wide = new Cookie.Builder().name("wide").value("1").domain("example.com").build();
+        Cookie api = new Cookie.Builder().name("api").value("2").hostOnlyDomain("api.example.com").path("/v1").build();
+        Cookie secure = new Cookie.Builder().name("secure").value("3").domain("example.com").secure().build();
+        Cookie other = new Cookie.Builder().name("other").value("4").domain("other.com").build();
+        index.put(wide);
+        index.put(api);
+        index.put(secure);
+        index.put(other);
+
+        assertEquals(names("api", "wide"), names(index.get(HttpUrl.parse("http://api.example.com/v1/users"))));
+        assertEquals(names("wide"), names(index.get(HttpUrl.parse("http://api.example.com/v2"))));
+        assertEquals(names("secure", "wide"), names(index.get(HttpUrl.parse("https://www.example.com/"))));
+        assertEquals(names("other"), names(index.get(HttpUrl.parse("http://other.com/"))));
+        assertTrue(index.get(HttpUrl.parse("http://unknown.org/")).isEmpty());
+    }
+
+    @Test
+    public void putReplacesTheSameNameDomainAndPath() {
+        Cookie first = new Cookie.Builder().name("a").value("1").domain("example.com").build();
+        Cookie second = new Cookie.Builder().name("a").value("2").domain("example.com").build();
+        Cookie otherPath = new Cookie.Builder().name("a").value("3").domain("example.com").path("/x").build();
+
+        assertNull(index.put(first));
+        assertSame(first, index.put(second));
+        assertNull(index.put(otherPath));
+        assertEquals(2, index.all().size());
+        assertEquals(2, index.domainCookies("example.com").size());
+    }
+
+    @Test
+    public void remove() {
+        Cookie cookie = new Cookie.Builder().name("a").value("1").domain("example.com").build();
+        index.put(cookie);
+        assertTrue(index.remove(cookie));
+        assertFalse(index.remove(cookie));
+        assertTrue(index.get(HttpUrl.parse("http://example.com/")).isEmpty());
+    }
+
+    @Test
+    public void expiredCookiesAreHiddenAndPruned() {
+        long now = System.currentTimeMillis();
+        Cookie expired = new Cookie.Builder().name("old").value("1").domain("example.com")
+                .expiresAt(now - 60000).build();
+        Cookie alive = new Cookie.Builder().name("new").value("2").domain("example.com")
+                .expiresAt(now + 3600000).build();
+        Cookie session = new Cookie.Builder().name("session").value("3").domain("other.com").build();
+        index.put(expired);
+        index.put(alive);
+        index.put(session);
+
+        assertEquals(names("new"), names(index.get(HttpUrl.parse("http://example.com/"))));
+
+        Set<String> changed = index.pruneExpired();
+        assertEquals(1, changed.size());
+        assertTrue(changed.contains("example.com"));
+        assertEquals(2, index.all().size());
+        assertTrue(index.pruneExpired().isEmpty());
+    }
+
+    @Test
+    public void pruneIgnoresEntriesThatWereReplaced() {
+        long now = System.currentTimeMillis();
+        Cookie expired = new Cookie.Builder().name("a").value("1").domain("example.com")
+                .expiresAt(now - 60000).build();
+        Cookie renewed = new Cookie.Builder().name("a").value("2").domain("example.com")
+                .expiresAt(now + 3600000).build();
+        index.put(expired);
+        index.put(renewed);
+
+        assertTrue(index.pruneExpired().isEmpty());
+        assertEquals(names("a"), names(index.get(HttpUrl.parse("http://example.com/"))));
+    }
+
+    @Test
+    public void clear() {
+        index.put(new Cookie.Builder().name("a").value("1").domain("example.com").build());
+        index.clear();
+        assertTrue(index.all().isEmpty());
+        assertTrue(index.domains().isEmpty());
+    }
+
+    private static List<String> names(String... names) {
+        List<String> list = new ArrayList<>();
+        for (String name : names) {
+            list.add(name);
+        }
+        return list;
+    }
+
+    private static List<String> names(List<Cookie> cookies) {
+        List<String> list = new ArrayList<>();
+        for (Cookie cookie : cookies) {
+            list.add(cookie.name());
+        }
+        Collections.sort(list);
+        return list;
+    }
+}
@@ -0,0 +1,148 @@
+package com.hitomi.basic.net.cookie.store;
+
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 内存中的 SharedPreferences, 记录 apply / commit 的次数
+ */
+class FakeSharedPreferences implements SharedPreferences {
+    final Map<String, Object> values = new HashMap<>();
+    int writes;
+
+    @Override
+    public synchronized Map<String, ?> getAll() {
+        return new HashMap<>(values);
+    }
+
+    @Override
+    public synchronized String getString(String key, String defValue) {
+        Object value = values.get(key);
+        return value instanceof String ? (String) value : defValue;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized Set<String> getStringSet(String key, Set<String> defValues) {
+        Object value = values.get(key);
+        return value instanceof Set ? (Set<String>) value : defValues;
+    }
+
+    @Override
+    public synchronized int getInt(String key, int defValue) {
+        Object value = values.get(key);
+        return value instanceof Integer ? (Integer) value : defValue;
+    }
+
+    @Override
+    public synchronized long getLong(String key, long defValue) {
+        Object value = values.get(key);
+        return value instanceof Long ? (Long) value : defValue;
+    }
+
+    @Override
+    public synchronized float getFloat(String key, float defValue) {
+        Object value = values.get(key);
+        return value instanceof Float ? (Float) value : defValue;
+    }
+
+    @Override
+    public synchronized boolean getBoolean(String key, boolean defValue) {
+        Object value = values.get(key);
+        return value instanceof Boolean ? (Boolean) value : defValue;
+    }
+
+    @Override
+    public synchronized boolean contains(String key) {
+        return values.containsKey(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new FakeEditor();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+    }
+
+    private class FakeEditor implements Editor {
+        private final Map<String, Object> puts = new HashMap<>();
+        private final Set<String> removes = new HashSet<>();
+        private boolean clear;
+
+        @Override
+        public Editor putString(String key, String value) {
+            puts.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            puts.put(key, values);
+            return this;
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            puts.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            puts.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            puts.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            puts.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            removes.add(key);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            clear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            synchronized (FakeSharedPreferences.this) {
+                writes++;
+                if (clear) values.clear();
+                for (String key : removes) {
+                    values.remove(key);
+                }
+                values.putAll(puts);
+            }
+            return true;
+        }
+
+        @Override
+        public void apply() {
+            commit();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.hitomi.basic.net.cookie.store;
+
+import com.hitomi.basic.net.cookie.CookieJarImpl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import okhttp3.Cookie;
+import okhttp3.HttpUrl;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * 一次响应设置大量 cookie 时 saveFromResponse 的开销, 与旧实现 (每个 cookie 序列化为十六进制并 apply 一次) 对比 <br/>
+ * 默认跳过, 通过 ./gradlew :basic:testDebugUnitTest -Pbenchmark --tests '*PersistentCookieStoreBenchmark' 运行
+ */
+public class PersistentCookieStoreBenchmark {
+    private static final HttpUrl URL = HttpUrl.parse("https://api.example.com/");
+    private static final int RESPONSES = 2000;
+
+    @Before
+    public void setUp() {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+    }
+
+    @Test
+    public void twentyCookiesPerResponse() {
+        run(20);
+    }
+
+    @Test
+    public void fiftyCookiesPerResponse() {
+        run(50);
+    }
+
+    private void run(int cookieCount) {
+        List<List<Cookie>> responses = new ArrayList<>();
+        long expiresAt = System.currentTimeMillis() + 3600000;
+        for (int r = 0; r < RESPONSES; r++) {
+            List<Cookie> cookies = new ArrayList<>();
+            for (int i = 0; i < cookieCount; i++) {
+                cookies.add(new Cookie.Builder().name("cookie" + i).value("value-" + r + "-" + i)
+                        .domain("example.com").expiresAt(expiresAt).build());
+            }
+            responses.add(cookies);
+        }
+
+        // 预热 JIT
+        saveOnly(responses);
+        legacy(responses);
+
+        FakeSharedPreferences prefs = new FakeSharedPreferences();
+        PersistentCookieStore store = new PersistentCookieStore(prefs);
+        CookieJarImpl jar = new CookieJarImpl(store);
+        long start = System.nanoTime();
+        for (List<Cookie> cookies : responses) {
+            jar.saveFromResponse(URL, cookies);
+        }
+        long save = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (List<Cookie> cookies : responses) {
+            jar.saveFromResponse(URL, cookies);
+            store.flush();
+        }
+        long saveAndPersist = System.nanoTime() - start;
+        int writes = prefs.writes;
+
+        FakeSharedPreferences legacyPrefs = new FakeSharedPreferences();
+        start = System.nanoTime();
+        legacy(responses, legacyPrefs);
+        long legacy = System.nanoTime() - start;
+
+        System.out.println(String.format(
+                "saveFromResponse %d cookies: %.1f us, with persist %.1f us (%.2f writes), legacy %.1f us (%.2f writes)",
+                cookieCount, micros(save), micros(saveAndPersist), writes * 1.0 / RESPONSES,
+                micros(legacy), legacyPrefs.writes * 1.0 / RESPONSES));
+    }
+
+    private static void saveOnly(List<List<Cookie>> responses) {
+        PersistentCookieStore store = new PersistentCookieStore(new FakeSharedPreferences());
+        for (List<Cookie> cookies : responses) {
+            store.add(URL, cookies);
+            store.flush();
+        }
+    }
+
+    private static void legacy(List<List<Cookie>> responses) {
+        legacy(responses, new FakeSharedPreferences());
+    }
+
+    /**
+     * 旧实现的写入方式：每个 cookie 通过 ObjectOutputStream 序列化为十六进制字符串, 各自 apply 一次
+     */
+    private static void legacy(List<List<Cookie>> responses, FakeSharedPreferences prefs) {
+        PersistentCookieStore encoder = new PersistentCookieStore(new FakeSharedPreferences());
+        for (List<Cookie> cookies : responses) {
+            for (Cookie cookie : cookies) {
+                String name = cookie.name() + "@" + cookie.domain();
+                prefs.edit()
+                        .putString(URL.host(), name)
+                        .putString("cookie_" + name, encoder.encodeCookie(new SerializableHttpCookie(cookie)))
+                        .apply();
+            }
+        }
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0 / RESPONSES;
+    }
+}
@@ -0,0 +1,112 @@
+package com.hitomi.basic.net.cookie.store;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import okhttp3.Cookie;
+import okhttp3.HttpUrl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PersistentCookieStoreTest {
+    private static final HttpUrl URL = HttpUrl.parse("https://api.example.com/");
+    private static final long FUTURE = System.currentTimeMillis() + 3600000;
+
+    private FakeSharedPreferences prefs;
+
+    @Before
+    public void setUp() {
+        prefs = new FakeSharedPreferences();
+    }
+
+    @Test
+    public void persistsOneRecordPerDomainInOneWrite() {
+        PersistentCookieStore store = new PersistentCookieStore(prefs);
+        List<Cookie> cookies = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            cookies.add(cookie("c" + i, "v" + i));
+        }
+        store.add(URL, cookies);
+        store.flush();
+
+        assertEquals(1, prefs.writes);
+        assertEquals(Collections.singleton("host_example.com"), prefs.values.keySet());
+        assertEquals(25, new PersistentCookieStore(prefs).get(URL).size());
+    }
+
+    @Test
+    public void sessionCookiesStayInMemory() {
+        PersistentCookieStore store = new PersistentCookieStore(prefs);
+        Cookie session = new Cookie.Builder().name("sid").value("1").domain("example.com").build();
+        store.add(URL, Collections.singletonList(session));
+        store.flush();
+
+        assertEquals(1, store.get(URL).size());
+        assertTrue(prefs.values.isEmpty());
+    }
+
+    @Test
+    public void expiredCookieRemovesTheStoredOne() {
+        PersistentCookieStore store = new PersistentCookieStore(prefs);
+        store.add(URL, Collections.singletonList(cookie("a", "1")));
+        store.flush();
+
+        Cookie delete = new Cookie.Builder().name("a").value("").domain("example.com")
+                .expiresAt(System.currentTimeMillis() - 1000).build();
+        store.add(URL, Collections.singletonList(delete));
+        store.flush();
+
+        assertTrue(store.get(URL).isEmpty());
+        assertFalse(prefs.values.containsKey("host_example.com"));
+    }
+
+    @Test
+    public void migratesTheLegacyFormat() {
+        PersistentCookieStore encoder = new PersistentCookieStore(new FakeSharedPreferences());
+        Cookie a = cookie("a", "1");
+        Cookie b = new Cookie.Builder().name("b").value("2").hostOnlyDomain("api.example.com")
+                .path("/v1").expiresAt(FUTURE).secure().build();
+        Cookie expired = new Cookie.Builder().name("old").value("3").domain("example.com")
+                .expiresAt(System.currentTimeMillis() - 1000).build();
+        prefs.values.put("api.example.com", "a,b,old");
+        prefs.values.put("cookie_a", encoder.encodeCookie(new SerializableHttpCookie(a)));
+        prefs.values.put("cookie_b", encoder.encodeCookie(new SerializableHttpCookie(b)));
+        prefs.values.put("cookie_old", encoder.encodeCookie(new SerializableHttpCookie(expired)));
+
+        PersistentCookieStore store = new PersistentCookieStore(prefs);
+        assertEquals(Arrays.asList("a", "b"), names(store.get(HttpUrl.parse("https://api.example.com/v1/x"))));
+
+        store.flush();
+        assertEquals(Collections.singleton("host_example.com"), prefs.values.keySet());
+
+        Cookie migrated = null;
+        for (Cookie cookie : new PersistentCookieStore(prefs).getCookies()) {
+            if (cookie.name().equals("b")) migrated = cookie;
+        }
+        assertEquals(b.domain(), migrated.domain());
+        assertEquals(b.path(), migrated.path());
+        assertEquals(b.expiresAt(), migrated.expiresAt());
+        assertTrue(migrated.hostOnly());
+        assertTrue(migrated.secure());
+    }
+
+    private static Cookie cookie(String name, String value) {
+        return new Cookie.Builder().name(name).value(value).domain("example.com").expiresAt(FUTURE).build();
+    }
+
+    private static List<String> names(List<Cookie> cookies) {
+        List<String> names = new ArrayList<>();
+        for (Cookie cookie : cookies) {
+            names.add(cookie.name());
+        }
+        Collections.sort(names);
+        return names;
+    }
+}
@@ -0,0 +1,57 @@
+package com.hitomi.basic.net.dns;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+
+import okhttp3.Dns;
+
+import static org.junit.Assert.assertEquals;
+
+public class CachingDnsTest {
+
+    @Test
+    public void cachesWithinTtl() throws Exception {
+        CountingDns delegate = new CountingDns();
+        CachingDns dns = new CachingDns(delegate, 60000, 0);
+
+        dns.lookup("a.example.com");
+        dns.lookup("a.example.com");
+
+        assertEquals(1, delegate.lookups);
+        assertEquals(1, dns.getHitCount());
+        assertEquals(1, dns.getMissCount());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedHost() throws Exception {
+        CountingDns delegate = new CountingDns();
+        CachingDns dns = new CachingDns(delegate, 60000, 0);
+
+        dns.lookup("keep.example.com");
+        for (int i = 0; i < 200; i++) {
+            dns.lookup("host" + i + ".example.com");
+            dns.lookup("keep.example.com");
+        }
+        assertEquals(128, dns.size());
+
+        int before = delegate.lookups;
+        dns.lookup("keep.example.com");
+        assertEquals(before, delegate.lookups);
+        dns.lookup("host0.example.com");
+        assertEquals(before + 1, delegate.lookups);
+    }
+
+    private static class CountingDns implements Dns {
+        int lookups;
+
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            lookups++;
+            return Collections.singletonList(InetAddress.getByAddress(hostname, new byte[]{127, 0, 0, 1}));
+        }
+    }
+}
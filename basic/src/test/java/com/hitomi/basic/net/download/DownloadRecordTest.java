@@ -0,0 +1,141 @@
+package com.hitomi.basic.net.download;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DownloadRecordTest {
+    private static final String URL = "http://example.com/app.apk";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void splitsIntoSegmentsCoveringTheWholeFile() {
+        DownloadRecord record = new DownloadRecord(URL, null, null, 10, 3);
+        assertEquals(3, record.segmentCount());
+        assertEquals(0, record.starts[0]);
+        assertEquals(2, record.ends[0]);
+        assertEquals(3, record.starts[1]);
+        assertEquals(5, record.ends[1]);
+        assertEquals(6, record.starts[2]);
+        assertEquals(9, record.ends[2]);
+    }
+
+    @Test
+    public void tracksProgressPerSegment() {
+        DownloadRecord record = new DownloadRecord(URL, null, null, 10, 2);
+        record.advance(0, 3);
+        assertEquals(3, record.position(0));
+        assertFalse(record.isSegmentComplete(0));
+        record.advance(0, 2);
+        assertTrue(record.isSegmentComplete(0));
+        assertFalse(record.isComplete());
+        record.advance(1, 5);
+        assertTrue(record.isComplete());
+        assertEquals(10, record.downloaded());
+    }
+
+    @Test
+    public void contiguousStopsAtTheFirstHole() {
+        DownloadRecord record = new DownloadRecord(URL, null, null, 30, 3);
+        assertEquals(0, record.contiguous(0));
+
+        record.advance(1, 10);
+        assertEquals(0, record.contiguous(0));
+
+        record.advance(0, 4);
+        assertEquals(4, record.contiguous(0));
+
+        record.advance(0, 6);
+        // 第一段补齐后直接连到已经完成的第二段
+        assertEquals(20, record.contiguous(0));
+        assertEquals(20, record.contiguous(15));
+
+        record.advance(2, 7);
+        assertEquals(27, record.contiguous(4));
+        record.advance(2, 3);
+        assertEquals(30, record.contiguous(0));
+    }
+
+    @Test
+    public void contiguousKeepsAPositionAheadOfTheRecord() {
+        // md5 的状态可以比记录保存得更新
+        DownloadRecord record = new DownloadRecord(URL, null, null, 30, 3);
+        record.advance(0, 2);
+        assertEquals(5, record.contiguous(5));
+    }
+
+    @Test
+    public void saveAndLoadRoundTrip() throws Exception {
+        File file = new File(folder.getRoot(), "app.apk.cfg");
+        DownloadRecord record = new DownloadRecord(URL, "\"etag\"", "Mon, 01 Jan 2018 00:00:00 GMT", 100, 3);
+        record.advance(0, 11);
+        record.advance(2, 7);
+        byte[] state = new StreamingMd5().exportState();
+        record.setDigestState(state);
+        record.save(file);
+
+        DownloadRecord loaded = DownloadRecord.load(file, URL);
+        assertEquals(URL, loaded.url);
+        assertEquals("\"etag\"", loaded.etag);
+        assertEquals("\"etag\"", loaded.validator());
+        assertEquals("Mon, 01 Jan 2018 00:00:00 GMT", loaded.lastModified);
+        assertEquals(100, loaded.total);
+        assertArrayEquals(record.starts, loaded.starts);
+        assertArrayEquals(record.ends, loaded.ends);
+        assertArrayEquals(record.done, loaded.done);
+        assertArrayEquals(state, loaded.getDigestState());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void validatorFallsBackToLastModified() throws Exception {
+        File file = new File(folder.getRoot(), "app.apk.cfg");
+        new DownloadRecord(URL, null, "Mon, 01 Jan 2018 00:00:00 GMT", 100, 1).save(file);
+        DownloadRecord loaded = DownloadRecord.load(file, URL);
+        assertNull(loaded.etag);
+        assertEquals("Mon, 01 Jan 2018 00:00:00 GMT", loaded.validator());
+        assertNull(loaded.getDigestState());
+    }
+
+    @Test
+    public void loadRejectsOtherUrlsAndCorruptFiles() throws Exception {
+        File file = new File(folder.getRoot(), "app.apk.cfg");
+        assertNull(DownloadRecord.load(file, URL));
+
+        new DownloadRecord(URL, null, null, 100, 2).save(file);
+        assertNull(DownloadRecord.load(file, URL + "?v=2"));
+
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[]{1, 2, 3, 4, 5});
+        out.close();
+        assertNull(DownloadRecord.load(file, URL));
+    }
+
+    @Test
+    public void recordWithoutDigestStateStillLoads() throws Exception {
+        File file = new File(folder.getRoot(), "app.apk.cfg");
+        DownloadRecord record = new DownloadRecord(URL, null, null, 100, 2);
+        record.advance(1, 9);
+        record.save(file);
+        // 去掉末尾的 md5 状态长度, 模拟旧版本写入的记录
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 4);
+        raf.close();
+
+        DownloadRecord loaded = DownloadRecord.load(file, URL);
+        assertEquals(9, loaded.done[1]);
+        assertNull(loaded.getDigestState());
+    }
+}
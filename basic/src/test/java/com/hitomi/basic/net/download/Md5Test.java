@@ -0,0 +1,91 @@
+package com.hitomi.basic.net.download;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class Md5Test {
+
+    @Test
+    public void knownVectors() {
+        assertEquals("d41d8cd98f00b204e9800998ecf8427e", md5(""));
+        assertEquals("0cc175b9c0f1b6a831c399e269772661", md5("a"));
+        assertEquals("900150983cd24fb0d6963f7d28e17f72", md5("abc"));
+        assertEquals("9e107d9d372bb6826bd81d3542a419d6", md5("The quick brown fox jumps over the lazy dog"));
+    }
+
+    @Test
+    public void matchesMessageDigestAcrossBlockBoundaries() throws Exception {
+        Random random = new Random(1);
+        int[] lengths = {1, 55, 56, 57, 63, 64, 65, 127, 128, 129, 1000, 100 * 1024 + 3};
+        for (int length : lengths) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+
+            Md5 md5 = new Md5();
+            int offset = 0;
+            while (offset < length) {
+                int n = Math.min(length - offset, 1 + random.nextInt(200));
+                md5.update(data, offset, n);
+                offset += n;
+            }
+            assertEquals("length " + length, expected(data, length), md5.hexDigest());
+        }
+    }
+
+    @Test
+    public void hexDigestDoesNotFinishTheState() throws Exception {
+        byte[] data = new byte[300];
+        new Random(2).nextBytes(data);
+
+        Md5 md5 = new Md5();
+        md5.update(data, 0, 100);
+        assertEquals(expected(data, 100), md5.hexDigest());
+        assertEquals(expected(data, 100), md5.hexDigest());
+        md5.update(data, 100, 200);
+        assertEquals(expected(data, 300), md5.hexDigest());
+    }
+
+    @Test
+    public void exportAndRestoreContinueTheSameDigest() throws Exception {
+        byte[] data = new byte[10000];
+        Random random = new Random(3);
+        random.nextBytes(data);
+
+        for (int i = 0; i < 20; i++) {
+            int split = random.nextInt(data.length);
+            Md5 md5 = new Md5();
+            md5.update(data, 0, split);
+            Md5 restored = Md5.restore(md5.exportState());
+            assertNotNull(restored);
+            restored.update(data, split, data.length - split);
+            assertEquals(expected(data, data.length), restored.hexDigest());
+        }
+    }
+
+    @Test
+    public void restoreRejectsMalformedState() {
+        assertNull(Md5.restore(null));
+        assertNull(Md5.restore(new byte[10]));
+        assertNull(Md5.restore(new byte[new Md5().exportState().length + 1]));
+    }
+
+    private static String md5(String s) {
+        byte[] bytes = s.getBytes();
+        Md5 md5 = new Md5();
+        md5.update(bytes, 0, bytes.length);
+        return md5.hexDigest();
+    }
+
+    static String expected(byte[] data, int length) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        digest.update(data, 0, length);
+        return String.format("%1$032x", new BigInteger(1, digest.digest()));
+    }
+}
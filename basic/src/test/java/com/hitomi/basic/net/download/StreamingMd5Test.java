@@ -0,0 +1,113 @@
+package com.hitomi.basic.net.download;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class StreamingMd5Test {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private byte[] data;
+
+    @Before
+    public void setUp() throws Exception {
+        file = new RandomAccessFile(folder.newFile(), "rw");
+        channel = file.getChannel();
+        data = new byte[300 * 1024 + 17];
+        new Random(4).nextBytes(data);
+        file.setLength(data.length);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        file.close();
+    }
+
+    @Test
+    public void sequentialWritesAreDigestedInline() throws Exception {
+        StreamingMd5 digest = new StreamingMd5();
+        for (int offset = 0; offset < data.length; offset += 4096) {
+            write(digest, offset, Math.min(4096, data.length - offset));
+        }
+        assertEquals(data.length, digest.position());
+        assertEquals(Md5Test.expected(data, data.length), digest.hexDigest());
+    }
+
+    @Test
+    public void outOfOrderSegmentsCatchUpFromTheFile() throws Exception {
+        StreamingMd5 digest = new StreamingMd5();
+        int third = data.length / 3;
+        // 后两段先写完, 只有第一段是连续前缀
+        writeRange(digest, 2 * third, data.length);
+        writeRange(digest, third, 2 * third);
+        assertEquals(0, digest.position());
+        writeRange(digest, 0, third);
+        assertEquals(third, digest.position());
+
+        digest.catchUp(channel, data.length);
+        assertEquals(Md5Test.expected(data, data.length), digest.hexDigest());
+    }
+
+    @Test
+    public void rewrittenBytesBeforeThePositionAreIgnored() throws Exception {
+        StreamingMd5 digest = new StreamingMd5();
+        writeRange(digest, 0, 1000);
+        // 续传时从一个较旧的记录位置重新写入
+        writeRange(digest, 500, 2000);
+        assertEquals(2000, digest.position());
+        writeRange(digest, 2000, data.length);
+        assertEquals(Md5Test.expected(data, data.length), digest.hexDigest());
+    }
+
+    @Test
+    public void restoredStateResumesAfterRestart() throws Exception {
+        StreamingMd5 digest = new StreamingMd5();
+        writeRange(digest, 0, 100 * 1024 + 5);
+        byte[] state = digest.exportState();
+
+        StreamingMd5 restored = StreamingMd5.restore(state);
+        assertEquals(100 * 1024 + 5, restored.position());
+        writeRange(restored, 100 * 1024 + 5, data.length);
+        assertEquals(Md5Test.expected(data, data.length), restored.hexDigest());
+    }
+
+    @Test
+    public void corruptStateStartsOver() throws Exception {
+        StreamingMd5 restored = StreamingMd5.restore(new byte[12]);
+        assertEquals(0, restored.position());
+        restored.catchUp(channel, 0);
+        writeRange(restored, 0, data.length);
+        assertEquals(Md5Test.expected(data, data.length), restored.hexDigest());
+        assertEquals(0, StreamingMd5.restore(null).position());
+    }
+
+    private void writeRange(StreamingMd5 digest, int from, int to) throws Exception {
+        for (int offset = from; offset < to; offset += 8192) {
+            write(digest, offset, Math.min(8192, to - offset));
+        }
+    }
+
+    private void write(StreamingMd5 digest, int offset, int len) throws Exception {
+        byte[] buf = new byte[len];
+        System.arraycopy(data, offset, buf, 0, len);
+        ByteBuffer buffer = ByteBuffer.wrap(buf);
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        digest.onWrite(offset, buf, len);
+    }
+}
@@ -0,0 +1,89 @@
+package com.hitomi.basic.net.log;
+
+import com.hitomi.basic.net.request.CountingRequestBody;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+
+import static org.junit.Assert.assertEquals;
+
+public class LoggerInterceptorTest {
+    private static final MediaType TEXT = MediaType.parse("text/plain; charset=utf-8");
+
+    @Test
+    public void responseBodyExactlyAtTheCapIsNotTruncated() throws IOException {
+        ResponseBody body = ResponseBody.create(TEXT, "abcd");
+        assertEquals("abcd", LoggerInterceptor.peekBody(body, TEXT, 4));
+        // 预读不消费响应体
+        assertEquals("abcd", body.string());
+    }
+
+    @Test
+    public void responseBodyOverTheCapIsMarked() throws IOException {
+        ResponseBody body = ResponseBody.create(TEXT, "abcde");
+        assertEquals("abcd...(truncated)", LoggerInterceptor.peekBody(body, TEXT, 4));
+        assertEquals("abcde", body.string());
+    }
+
+    @Test
+    public void requestBodyWithinTheCapIsLogged() {
+        assertEquals("abcd", LoggerInterceptor.bodyToString(RequestBody.create(TEXT, "abcd"), TEXT, 4));
+    }
+
+    @Test
+    public void largeOrUnknownRequestBodyIsNotWritten() {
+        CountingBody large = new CountingBody(5);
+        assertEquals("5-byte body omitted", LoggerInterceptor.bodyToString(large, TEXT, 4));
+        assertEquals(0, large.writes);
+
+        CountingBody unknown = new CountingBody(-1);
+        assertEquals("unknown-length body omitted", LoggerInterceptor.bodyToString(unknown, TEXT, 4));
+        assertEquals(0, unknown.writes);
+    }
+
+    @Test
+    public void uploadProgressIsNotReportedForLogging() {
+        final int[] progress = new int[1];
+        RequestBody body = new CountingRequestBody(RequestBody.create(TEXT, "abcd"),
+                new CountingRequestBody.Listener() {
+                    @Override
+                    public void onRequestProgress(long bytesWritten, long contentLength) {
+                        progress[0]++;
+                    }
+                });
+        assertEquals("abcd", LoggerInterceptor.bodyToString(body, TEXT, 4));
+        assertEquals(0, progress[0]);
+    }
+
+    private static class CountingBody extends RequestBody {
+        private final long length;
+        int writes;
+
+        CountingBody(long length) {
+            this.length = length;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return TEXT;
+        }
+
+        @Override
+        public long contentLength() {
+            return length;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            writes++;
+            sink.write(new Buffer().writeUtf8("abcde"), 5);
+        }
+    }
+}
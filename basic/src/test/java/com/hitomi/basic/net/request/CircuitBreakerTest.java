@@ -0,0 +1,75 @@
+package com.hitomi.basic.net.request;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+    private static final String HOST = "api.example.com";
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 60000);
+        breaker.onFailure(HOST);
+        breaker.onFailure(HOST);
+        assertTrue(breaker.allowRequest(HOST));
+        assertFalse(breaker.isOpen(HOST));
+
+        breaker.onFailure(HOST);
+        assertTrue(breaker.isOpen(HOST));
+        assertFalse(breaker.allowRequest(HOST));
+        // 其他 host 不受影响
+        assertTrue(breaker.allowRequest("img.example.com"));
+    }
+
+    @Test
+    public void successResetsTheFailureCount() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 60000);
+        breaker.onFailure(HOST);
+        breaker.onFailure(HOST);
+        breaker.onSuccess(HOST);
+        breaker.onFailure(HOST);
+        breaker.onFailure(HOST);
+        assertFalse(breaker.isOpen(HOST));
+    }
+
+    @Test
+    public void halfOpenLetsOneProbeThrough() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 50);
+        breaker.onFailure(HOST);
+        assertFalse(breaker.allowRequest(HOST));
+
+        Thread.sleep(80);
+        assertTrue(breaker.allowRequest(HOST));
+        assertFalse(breaker.allowRequest(HOST));
+
+        breaker.onSuccess(HOST);
+        assertTrue(breaker.allowRequest(HOST));
+        assertTrue(breaker.allowRequest(HOST));
+    }
+
+    @Test
+    public void failedProbeOpensAgain() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 50);
+        breaker.onFailure(HOST);
+        Thread.sleep(80);
+        assertTrue(breaker.allowRequest(HOST));
+
+        breaker.onFailure(HOST);
+        assertTrue(breaker.isOpen(HOST));
+        assertFalse(breaker.allowRequest(HOST));
+    }
+
+    @Test
+    public void probeWithoutResultTimesOut() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 50);
+        breaker.onFailure(HOST);
+        Thread.sleep(80);
+        assertTrue(breaker.allowRequest(HOST));
+        assertFalse(breaker.allowRequest(HOST));
+
+        Thread.sleep(80);
+        assertTrue(breaker.allowRequest(HOST));
+    }
+}
@@ -0,0 +1,105 @@
+package com.hitomi.basic.net.request;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+    private static final Request GET = new Request.Builder().url("http://example.com/").build();
+    private static final Request POST = new Request.Builder().url("http://example.com/")
+            .post(RequestBody.create(MediaType.parse("text/plain"), "body")).build();
+
+    @Test
+    public void retriesNetworkErrorsAndRetryableCodes() {
+        RetryPolicy policy = new RetryPolicy.Builder().create();
+        assertTrue(policy.shouldRetry(GET, 1, null, new IOException()));
+        assertTrue(policy.shouldRetry(GET, 1, response(GET, 503), null));
+        assertTrue(policy.shouldRetry(GET, 1, response(GET, 429), null));
+        assertFalse(policy.shouldRetry(GET, 1, response(GET, 404), null));
+        assertFalse(policy.shouldRetry(GET, 1, response(GET, 501), null));
+    }
+
+    @Test
+    public void stopsAtMaxAttempts() {
+        RetryPolicy policy = new RetryPolicy.Builder().maxAttempts(3).create();
+        assertTrue(policy.shouldRetry(GET, 2, null, new IOException()));
+        assertFalse(policy.shouldRetry(GET, 3, null, new IOException()));
+        assertEquals(1, new RetryPolicy.Builder().maxAttempts(0).create().getMaxAttempts());
+    }
+
+    @Test
+    public void nonIdempotentRequestsNeedAKeyOrOptIn() {
+        RetryPolicy policy = new RetryPolicy.Builder().create();
+        assertFalse(policy.shouldRetry(POST, 1, null, new IOException()));
+
+        Request keyed = POST.newBuilder().header("Idempotency-Key", "k1").build();
+        assertTrue(policy.shouldRetry(keyed, 1, null, new IOException()));
+
+        RetryPolicy optIn = new RetryPolicy.Builder().retryNonIdempotent(true).create();
+        assertTrue(optIn.shouldRetry(POST, 1, null, new IOException()));
+    }
+
+    @Test
+    public void customRetryConditions() {
+        RetryPolicy policy = new RetryPolicy.Builder()
+                .retryableCodes(500)
+                .retryOnIOException(false)
+                .create();
+        assertFalse(policy.shouldRetry(GET, 1, null, new IOException()));
+        assertTrue(policy.shouldRetry(GET, 1, response(GET, 500), null));
+        assertFalse(policy.shouldRetry(GET, 1, response(GET, 503), null));
+    }
+
+    @Test
+    public void exponentialBackoffWithoutJitter() {
+        RetryPolicy policy = new RetryPolicy.Builder().backoff(100, 1000).jitter(0).create();
+        assertEquals(100, policy.delayMillis(1, null));
+        assertEquals(200, policy.delayMillis(2, null));
+        assertEquals(400, policy.delayMillis(3, null));
+        assertEquals(1000, policy.delayMillis(5, null));
+        // attempt 很大时不超过上限
+        assertEquals(1000, policy.delayMillis(64, null));
+    }
+
+    @Test
+    public void jitterStaysWithinRange() {
+        RetryPolicy policy = new RetryPolicy.Builder().backoff(1000, 10000).jitter(0.5f).create();
+        for (int i = 0; i < 100; i++) {
+            long delay = policy.delayMillis(2, null);
+            assertTrue(delay >= 1000 && delay <= 2000);
+        }
+    }
+
+    @Test
+    public void retryAfterTakesPrecedence() {
+        RetryPolicy policy = new RetryPolicy.Builder().backoff(100, 5000).jitter(0).create();
+        Response response = response(GET, 503).newBuilder().header("Retry-After", "2").build();
+        assertEquals(2000, policy.delayMillis(1, response));
+
+        Response tooLong = response(GET, 503).newBuilder().header("Retry-After", "120").build();
+        assertEquals(5000, policy.delayMillis(1, tooLong));
+
+        Response httpDate = response(GET, 503).newBuilder()
+                .header("Retry-After", "Wed, 21 Oct 2015 07:28:00 GMT").build();
+        assertEquals(100, policy.delayMillis(1, httpDate));
+    }
+
+    private static Response response(Request request, int code) {
+        return new Response.Builder()
+                .request(request)
+                .protocol(Protocol.HTTP_1_1)
+                .code(code)
+                .message("status " + code)
+                .build();
+    }
+}